@@ -0,0 +1,88 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+/**
+ * Synthetic images and generators shared by benchmarks. Images combine
+ * smooth gradients with deterministic noise, so encoders can not compress
+ * them trivially and results are reproducible between runs.
+ * 
+ * @author kotelnikov
+ */
+public class BenchmarkImages {
+
+    /**
+     * The value of the "background" parameter of benchmarks generating tiles
+     * without a background color.
+     */
+    public static final String NO_BACKGROUND = "none";
+
+    /**
+     * Returns the background color corresponding to the specified parameter
+     * of benchmarks: "none" or a hexadecimal RGB value like "ffffff".
+     * 
+     * @param background the background parameter
+     * @return the background color or <code>null</code>
+     */
+    public static Color getBackgroundColor(String background) {
+        if (NO_BACKGROUND.equals(background)) {
+            return null;
+        }
+        return new Color(Integer.parseInt(background, 16));
+    }
+
+    /**
+     * Creates a generator of tiles for the specified image. The image
+     * corresponds to the zoom level 17 of tiles.
+     * 
+     * @param image the image to split to tiles
+     * @param tileSize the size of tiles
+     * @param background the background parameter of benchmarks (see
+     *        {@link #getBackgroundColor(String)})
+     * @return a new generator
+     */
+    public static ImageTilesGenerator newGenerator(
+        BufferedImage image,
+        int tileSize,
+        String background) {
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setTileSize(tileSize);
+        generator.setBackgroundColor(getBackgroundColor(background));
+        return generator;
+    }
+
+    /**
+     * Creates a new synthetic RGB image.
+     * 
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return a new image
+     */
+    public static BufferedImage newImage(int width, int height) {
+        BufferedImage image = new BufferedImage(
+            width,
+            height,
+            BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+            .getData();
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (y * 255 / height + noise) & 0xFF;
+                int b = ((x ^ y) & 0xFF) >> 1;
+                pixels[y * width + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return image;
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the tile math of {@link GeoUtils}. Scalar benchmarks
+ * evaluate one function for the next point of a set of random points; bulk
+ * benchmarks evaluate the function for all points of the set in one
+ * invocation, so the cost of the benchmark infrastructure is amortized.
+ * Points are distributed over the whole Mercator projection.
+ * 
+ * @author kotelnikov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoMathBenchmark {
+
+    /**
+     * The number of points in the set; it is a power of 2.
+     */
+    private static final int POINTS = 1024;
+
+    private static final int ZOOM = 17;
+
+    private double[] fBearings;
+
+    private double[] fDistances;
+
+    private int fIndex;
+
+    private double[] fLatitudes;
+
+    private double[] fLongitudes;
+
+    private int[] fTileY;
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void bulkDistance(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++) {
+            int j = (i + 1) & (POINTS - 1);
+            blackhole.consume(GeoUtils.getDistance(
+                fLatitudes[i],
+                fLongitudes[i],
+                fLatitudes[j],
+                fLongitudes[j]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void bulkTileLatitudeByY(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++) {
+            blackhole.consume(GeoUtils.getTileLatitudeByY(fTileY[i], ZOOM));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void bulkTileYByLatitude(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++) {
+            blackhole.consume(GeoUtils.getTileYByLatitude(fLatitudes[i], ZOOM));
+        }
+    }
+
+    private int next() {
+        fIndex = (fIndex + 1) & (POINTS - 1);
+        return fIndex;
+    }
+
+    @Benchmark
+    public double scalarBearing() {
+        int i = next();
+        int j = (i + 1) & (POINTS - 1);
+        return GeoUtils.getBearing(
+            fLatitudes[i],
+            fLongitudes[i],
+            fLatitudes[j],
+            fLongitudes[j]);
+    }
+
+    @Benchmark
+    public double scalarDistance() {
+        int i = next();
+        int j = (i + 1) & (POINTS - 1);
+        return GeoUtils.getDistance(
+            fLatitudes[i],
+            fLongitudes[i],
+            fLatitudes[j],
+            fLongitudes[j]);
+    }
+
+    @Benchmark
+    public double[] scalarPoint() {
+        int i = next();
+        return GeoUtils.getPoint(
+            fLatitudes[i],
+            fLongitudes[i],
+            fBearings[i],
+            fDistances[i]);
+    }
+
+    @Benchmark
+    public double scalarTileLatitudeByY() {
+        return GeoUtils.getTileLatitudeByY(fTileY[next()], ZOOM);
+    }
+
+    @Benchmark
+    public int scalarTileYByLatitude() {
+        return GeoUtils.getTileYByLatitude(fLatitudes[next()], ZOOM);
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(POINTS);
+        fLatitudes = new double[POINTS];
+        fLongitudes = new double[POINTS];
+        fBearings = new double[POINTS];
+        fDistances = new double[POINTS];
+        fTileY = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            fLatitudes[i] = (random.nextDouble() * 2 - 1) * 85;
+            fLongitudes[i] = (random.nextDouble() * 2 - 1) * 180;
+            fBearings[i] = random.nextDouble() * 2 * Math.PI;
+            fDistances[i] = random.nextDouble() * 100;
+            fTileY[i] = GeoUtils.getTileYByLatitude(fLatitudes[i], ZOOM);
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ubimix.commons.geo.ImageTilesGenerator.ITileImageListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Benchmarks of the encoding of tiles with the {@link TileEncoder}. The
+ * encoded tile is rendered on the bottom-right border of a synthetic image,
+ * so a part of the tile is filled with the background color.
+ * 
+ * @author kotelnikov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileEncodingBenchmark {
+
+    @Param({ "ffffff", BenchmarkImages.NO_BACKGROUND })
+    public String background;
+
+    @Param({ "JPG", "PNG" })
+    public TileFormat format;
+
+    @Param({ "256", "512" })
+    public int tileSize;
+
+    private final TileEncoder fEncoder = new TileEncoder();
+
+    private BufferedImage fTile;
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return fEncoder.encode(fTile, format);
+    }
+
+    @Setup
+    public void setUp() {
+        // The image size is not a multiple of the tile size
+        BufferedImage image = BenchmarkImages.newImage(1000, 1000);
+        ImageTilesGenerator generator = BenchmarkImages.newGenerator(
+            image,
+            tileSize,
+            background);
+        generator.setTileFormat(format);
+        int zoom = generator.getImageZoomLevel();
+        TileRange range = generator.getTileRange(zoom, new ImagePoint(
+            image.getHeight(),
+            image.getWidth()));
+        TileRange last = new TileRange(
+            range.getLastTile(),
+            range.getLastTile());
+        generator.generateTiles(
+            Collections.singleton(last),
+            new ITileImageListener() {
+                public void onTile(
+                    TileInfo tile,
+                    BufferedImage tileImage,
+                    TileFormat tileFormat) {
+                    fTile = tileImage;
+                }
+            });
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * End-to-end benchmark of the generation of three zoom levels of tiles from
+ * synthetic images of several sizes. Tiles are rendered, encoded in JPEG and
+ * passed to the blackhole instead of being written.
+ * 
+ * @author kotelnikov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TileGenerationBenchmark {
+
+    /**
+     * This writer passes encoded tiles to the blackhole.
+     */
+    private static class ConsumingWriter extends TileDataWriter {
+
+        private Blackhole fBlackhole;
+
+        @Override
+        protected void handleError(String msg, Throwable t) {
+            throw new IllegalStateException(msg, t);
+        }
+
+        @Override
+        protected void onTileData(
+            TileInfo tile,
+            TileFormat tileFormat,
+            byte[] data) throws IOException {
+            fBlackhole.consume(data);
+        }
+
+    }
+
+    @Param({ "ffffff", BenchmarkImages.NO_BACKGROUND })
+    public String background;
+
+    @Param({ "1024", "4096" })
+    public int imageSize;
+
+    @Param({ "256", "512" })
+    public int tileSize;
+
+    private ImageTilesGenerator fGenerator;
+
+    private final ConsumingWriter fWriter = new ConsumingWriter();
+
+    @Benchmark
+    public void generateTiles(Blackhole blackhole) {
+        fWriter.fBlackhole = blackhole;
+        int zoom = fGenerator.getImageZoomLevel();
+        fGenerator.generateTiles(zoom - 2, zoom, fWriter);
+    }
+
+    @Setup
+    public void setUp() {
+        BufferedImage image = BenchmarkImages.newImage(imageSize, imageSize);
+        fGenerator = BenchmarkImages.newGenerator(image, tileSize, background);
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Behaviour of {@link TileInfo#hashCode()} in hash maps. All tiles of a
+ * square block of tiles (like tiles of a rendered range) are put in a map
+ * and looked up; the same operations with tile keys (see
+ * {@link TileInfo#getKey()}) are measured for comparison. The number of
+ * distinct hash codes of tiles of the block is reported as the
+ * <code>distinctHashCodes</code> secondary result of benchmarks using tiles
+ * (see {@link HashCodes}): tiles with colliding hash codes are stored in the
+ * same buckets of maps.
+ * 
+ * @author kotelnikov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileHashMapBenchmark {
+
+    /**
+     * Reports the number of distinct hash codes of tiles of the block as an
+     * auxiliary counter of benchmarks.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HashCodes {
+
+        /**
+         * The number of distinct hash codes of tiles of the block.
+         */
+        public long distinctHashCodes;
+
+        @Setup(Level.Iteration)
+        public void setUp(TileHashMapBenchmark benchmark) {
+            Set<Integer> hashCodes = new HashSet<Integer>();
+            for (TileInfo tile : benchmark.fTiles) {
+                hashCodes.add(tile.hashCode());
+            }
+            distinctHashCodes = hashCodes.size();
+        }
+
+    }
+
+    /**
+     * The number of tiles in each row and column of the block.
+     */
+    @Param({ "32", "128" })
+    public int blockSize;
+
+    private Map<Long, TileInfo> fKeyMap;
+
+    private long[] fKeys;
+
+    private Map<TileInfo, TileInfo> fTileMap;
+
+    private TileInfo[] fTiles;
+
+    @Benchmark
+    public void getByKeys(Blackhole blackhole) {
+        for (long key : fKeys) {
+            blackhole.consume(fKeyMap.get(key));
+        }
+    }
+
+    @Benchmark
+    public void getByTiles(Blackhole blackhole, HashCodes hashCodes) {
+        for (TileInfo tile : fTiles) {
+            blackhole.consume(fTileMap.get(tile));
+        }
+    }
+
+    @Benchmark
+    public Map<Long, TileInfo> putKeys() {
+        Map<Long, TileInfo> map = new HashMap<Long, TileInfo>();
+        for (int i = 0; i < fKeys.length; i++) {
+            map.put(fKeys[i], fTiles[i]);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Map<TileInfo, TileInfo> putTiles(HashCodes hashCodes) {
+        return newTileMap();
+    }
+
+    private Map<TileInfo, TileInfo> newTileMap() {
+        Map<TileInfo, TileInfo> map = new HashMap<TileInfo, TileInfo>();
+        for (TileInfo tile : fTiles) {
+            map.put(tile, tile);
+        }
+        return map;
+    }
+
+    @Setup
+    public void setUp() {
+        int zoom = 17;
+        TileInfo first = new TileInfo(48.86709, 2.33535, zoom);
+        int n = blockSize * blockSize;
+        fTiles = new TileInfo[n];
+        fKeys = new long[n];
+        for (int i = 0; i < n; i++) {
+            TileInfo tile = new TileInfo(first.getY() + i / blockSize, first
+                .getX()
+                + i % blockSize, zoom);
+            fTiles[i] = tile;
+            fKeys[i] = tile.getKey();
+        }
+        fTileMap = newTileMap();
+        fKeyMap = putKeys();
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.ubimix.commons.geo.ImageTilesGenerator.ITileImageListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Benchmarks of the rendering of individual tiles. Each operation generates
+ * a range of one tile, so the tile is rendered by the
+ * {@link ImageTilesGenerator#copyTile} method with the same state as in a
+ * real generation:
+ * <ul>
+ * <li>{@link #renderTile(Blackhole)} - a tile at the image zoom level (a
+ * direct copy of image pixels);</li>
+ * <li>{@link #renderScaledTile(Blackhole)} - a tile of the previous zoom
+ * level (a 2x reduction of image pixels);</li>
+ * <li>{@link #renderEmptyTile(Blackhole)} - a tile of the image tile range
+ * which does not cover the image; it measures the preparation of empty tiles
+ * filled with the background (see the <code>newEmptyTile</code> method).
+ * Tiles outside of the range are skipped by the generator, so the tile is
+ * searched in the range.</li>
+ * </ul>
+ * 
+ * @author kotelnikov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileRenderingBenchmark {
+
+    /**
+     * This listener passes rendered tiles to the blackhole.
+     */
+    private static class ConsumingListener implements ITileImageListener {
+
+        private Blackhole fBlackhole;
+
+        public void onTile(
+            TileInfo tile,
+            BufferedImage tileImage,
+            TileFormat tileFormat) {
+            fBlackhole.consume(tileImage.getRGB(0, 0));
+        }
+
+    }
+
+    @Param({ "ffffff", BenchmarkImages.NO_BACKGROUND })
+    public String background;
+
+    @Param({ "256", "512" })
+    public int tileSize;
+
+    private Collection<TileRange> fEmptyTile;
+
+    private ImageTilesGenerator fGenerator;
+
+    private Collection<TileRange> fImageTile;
+
+    private final ConsumingListener fListener = new ConsumingListener();
+
+    private Collection<TileRange> fScaledTile;
+
+    private Collection<TileRange> getCentralTile(int zoom, ImagePoint size) {
+        TileRange range = fGenerator.getTileRange(zoom, size);
+        int y = (range.getMinY() + range.getMaxY()) / 2;
+        int x = (range.getMinX() + range.getMaxX()) / 2;
+        return Collections.singleton(new TileRange(y, x, y, x, zoom));
+    }
+
+    /**
+     * Returns a tile of the image tile range which does not intersect the
+     * image.
+     */
+    private Collection<TileRange> getEmptyTile(int zoom, ImagePoint size) {
+        TileRange range = fGenerator.getTileRange(zoom, size);
+        ImageTiler tiler = fGenerator.getImageTiler(zoom);
+        long tileSize = tiler.getTileSize();
+        for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+            for (int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                ImagePoint position = tiler.getTilePosition(new TileInfo(
+                    y,
+                    x,
+                    zoom));
+                if (position.getX() >= size.getX()
+                    || position.getY() >= size.getY()
+                    || position.getX() + tileSize <= 0
+                    || position.getY() + tileSize <= 0) {
+                    return Collections.singleton(new TileRange(
+                        y,
+                        x,
+                        y,
+                        x,
+                        zoom));
+                }
+            }
+        }
+        throw new IllegalStateException("All tiles of the range "
+            + range
+            + " intersect the image.");
+    }
+
+    private void render(Collection<TileRange> tile, Blackhole blackhole) {
+        fListener.fBlackhole = blackhole;
+        fGenerator.generateTiles(tile, fListener);
+    }
+
+    @Benchmark
+    public void renderEmptyTile(Blackhole blackhole) {
+        render(fEmptyTile, blackhole);
+    }
+
+    @Benchmark
+    public void renderScaledTile(Blackhole blackhole) {
+        render(fScaledTile, blackhole);
+    }
+
+    @Benchmark
+    public void renderTile(Blackhole blackhole) {
+        render(fImageTile, blackhole);
+    }
+
+    @Setup
+    public void setUp() {
+        BufferedImage image = BenchmarkImages.newImage(2048, 2048);
+        fGenerator = BenchmarkImages.newGenerator(image, tileSize, background);
+        ImagePoint size = new ImagePoint(image.getHeight(), image.getWidth());
+        int zoom = fGenerator.getImageZoomLevel();
+        fImageTile = getCentralTile(zoom, size);
+        fScaledTile = getCentralTile(zoom - 1, size);
+        fEmptyTile = getEmptyTile(zoom, size);
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of the coordinate value types. These benchmarks should be
+ * run with the GC profiler (<code>-prof gc</code>) to measure the
+ * allocation rate and the number of bytes allocated by each operation. The
+ * {@link TileInfo#TileInfo(GeoPoint, int)} constructor also includes the
+ * tile math of {@link GeoUtils}.
+ * 
+ * @author kotelnikov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueTypesBenchmark {
+
+    private int fCounter;
+
+    private final GeoPoint fPoint = new GeoPoint(48.86709, 2.33535);
+
+    @Benchmark
+    public GeoPoint newGeoPoint() {
+        int i = fCounter++ & 0xFFFF;
+        return new GeoPoint(i * 0.001, i * 0.002);
+    }
+
+    @Benchmark
+    public ImagePoint newImagePoint() {
+        int i = fCounter++;
+        return new ImagePoint(i, i + 1);
+    }
+
+    @Benchmark
+    public TileInfo newTileByCoordinates() {
+        return new TileInfo(fPoint, 17);
+    }
+
+    @Benchmark
+    public TileInfo newTileByNumbers() {
+        int i = fCounter++ & 0xFFFF;
+        return new TileInfo(i, i + 1, 17);
+    }
+
+    @Benchmark
+    public TileInfo tileByKey() {
+        int i = fCounter++ & 0xFFFF;
+        return TileInfo.getTileByKey(new TileInfo(i, i + 1, 17).getKey());
+    }
+
+}
@@ -3,32 +3,272 @@
  */
 package org.ubimix.commons.geo;
 
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author kotelnikov
  */
 public abstract class AbstractImageTilesGenerator {
 
+    /**
+     * This object keeps track of tile rendering tasks submitted to an
+     * executor. It limits the number of pending tasks and re-throws the first
+     * task failure in the thread launching the generation.
+     */
+    private static class TileTasks {
+
+        private Throwable fError;
+
+        private final Executor fExecutor;
+
+        private final int fMaxPending;
+
+        private int fPending;
+
+        public TileTasks(Executor executor, int maxPending) {
+            fExecutor = executor;
+            fMaxPending = Math.max(1, maxPending);
+        }
+
+        /**
+         * Waits until all submitted tasks are finished.
+         */
+        public synchronized void await() {
+            waitFor(0);
+            checkError();
+        }
+
+        /**
+         * Waits until all submitted tasks are finished without re-throwing
+         * task failures. This method is used when the generation is
+         * interrupted by an error, so running tasks do not use resources
+         * released by the generator.
+         */
+        public synchronized void awaitQuietly() {
+            boolean interrupted = false;
+            while (fPending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            fError = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void checkError() {
+            if (fError != null) {
+                Throwable error = fError;
+                fError = null;
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                }
+                if (error instanceof Error) {
+                    throw (Error) error;
+                }
+                throw new RuntimeException(error);
+            }
+        }
+
+        /**
+         * @return the number of pending tasks
+         */
+        public synchronized int getPending() {
+            return fPending;
+        }
+
+        private synchronized void onTaskDone(Throwable error) {
+            if (error != null && fError == null) {
+                fError = error;
+            }
+            fPending--;
+            notifyAll();
+        }
+
+        /**
+         * Submits a new task to the executor. This method blocks while the
+         * maximal number of tasks is pending.
+         * 
+         * @param task the task to submit
+         */
+        public void submit(final Runnable task) {
+            synchronized (this) {
+                waitFor(fMaxPending - 1);
+                checkError();
+                fPending++;
+            }
+            try {
+                fExecutor.execute(new Runnable() {
+                    public void run() {
+                        Throwable error = null;
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            error = t;
+                        } finally {
+                            onTaskDone(error);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                onTaskDone(null);
+                throw e;
+            }
+        }
+
+        private void waitFor(int pending) {
+            try {
+                while (fPending > pending) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * The estimated number of bytes in one pixel of loaded image bands.
+     */
+    private static final int BAND_PIXEL_BYTES = 4;
+
+    /**
+     * Returns the number of image pixels in one pixel of tiles of the
+     * specified zoom level.
+     * 
+     * @param imageZoomLevel the zoom level of the image
+     * @param zoomLevel the zoom level of tiles
+     * @return the scale of image blocks for the zoom level
+     */
+    protected static double getImageBlockScale(
+        int imageZoomLevel,
+        int zoomLevel) {
+        double result = 1 << Math.abs(imageZoomLevel - zoomLevel);
+        if (imageZoomLevel < zoomLevel) {
+            result = 1 / result;
+        }
+        return result;
+    }
+
+    private TileCheckpoint fCheckpoint;
+
+    private Executor fExecutor;
+
     private Map<Integer, ImageTiler> fImageTilers = new HashMap<Integer, ImageTiler>();
 
     private int fImageZoomLevel;
 
+    /**
+     * This flag is <code>true</code> while tiles of a band are generated;
+     * memory for these tiles is reserved with the band.
+     */
+    private boolean fBandReserved;
+
+    private long fMaxBandPixels = 32L * 1024 * 1024;
+
+    private int fMaxPendingTiles = 4 * Runtime.getRuntime().availableProcessors();
+
+    private MemoryBudget fMemoryBudget;
+
+    private ITileMetrics fMetrics;
+
     private ImagePoint fPinPoint = new ImagePoint(0, 0);
 
     private GeoPoint fPinPointGeo = new GeoPoint(0, 0);
 
     private ImagePoint fScreenSize;
 
+    private TileTasks fTasks;
+
     protected int fTileSize = 256;
 
+    /**
+     * If this flag is <code>true</code> then tiles of zoom levels higher than
+     * the image zoom level are not generated.
+     */
+    private boolean fVirtualOverzoom;
+
     /**
      * 
      */
     public AbstractImageTilesGenerator() {
     }
 
+    /**
+     * Adds the specified range to the list of ranges. The range is merged
+     * with all intersecting ranges, so ranges of the list never overlap.
+     * 
+     * @param ranges the list of ranges
+     * @param range the range to add; it could be <code>null</code>
+     */
+    private void addRange(List<TileRange> ranges, TileRange range) {
+        if (range == null) {
+            return;
+        }
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            Iterator<TileRange> iterator = ranges.iterator();
+            while (iterator.hasNext()) {
+                TileRange r = iterator.next();
+                if (r.intersect(range) != null) {
+                    range = range.union(r);
+                    iterator.remove();
+                    merged = true;
+                }
+            }
+        }
+        ranges.add(range);
+    }
+
+    /**
+     * Waits until all tiles submitted to the executor are copied. This method
+     * returns immediately if tiles are copied in the calling thread.
+     */
+    protected void awaitTiles() {
+        if (fTasks != null) {
+            fTasks.await();
+        }
+    }
+
+    /**
+     * Waits until all tiles submitted to the executor are finished without
+     * re-throwing their failures. This method should be called when the
+     * generation is interrupted by an error before the listener or the image
+     * band used by tasks are released.
+     */
+    protected void awaitTilesQuietly() {
+        if (fTasks != null) {
+            fTasks.awaitQuietly();
+        }
+    }
+
+    /**
+     * This method is called before tiles of the specified range are
+     * generated. Ranges of all zoom levels are reported before tiles of the
+     * pyramid are generated in the pyramid mode.
+     * 
+     * @param range the range of tiles to generate
+     */
+    protected void beginRange(TileRange range) {
+        ITileMetrics metrics = fMetrics;
+        if (metrics != null) {
+            metrics.beginRange(range);
+        }
+    }
+
     protected void clear() {
         fImageTilers.clear();
     }
@@ -42,29 +282,319 @@ public abstract class AbstractImageTilesGenerator {
         ImagePoint targetLeftTop,
         ImagePoint targetBottomRight);
 
+    /**
+     * This method is called when all tiles of the specified range are
+     * generated.
+     * 
+     * @param range the range of generated tiles
+     */
+    protected void endRange(TileRange range) {
+        ITileMetrics metrics = fMetrics;
+        if (metrics != null) {
+            metrics.endRange(range);
+        }
+    }
+
+    /**
+     * Generates tiles of the specified range band by band. Each band contains
+     * one or more full rows of tiles; if one row of tiles is bigger than the
+     * maximal band size then it is split in several bands. Image pixels of
+     * each band are loaded before tiles of this band are generated and they
+     * are released when all tiles of the band are copied.
+     * 
+     * @param tiler the tiler used to define tile positions on the image
+     * @param scale the scale of image blocks for the tile zoom level
+     * @param imageSize the size of the full image
+     * @param range the range of tiles to generate
+     */
+    protected void generateBands(
+        ImageTiler tiler,
+        double scale,
+        ImagePoint imageSize,
+        TileRange range) {
+        int zoom = range.getZoom();
+        int subsampling = getBandSubsampling(scale);
+        long tileSize = Math.max(1, tiler.getTileSize() / subsampling);
+        long rowPixels = Math.max(1, imageSize.getX() / subsampling)
+            * tileSize;
+        int rows = range.getMaxY() - range.getMinY() + 1;
+        int columns = range.getMaxX() - range.getMinX() + 1;
+        long maxBandPixels = getBandPixelsLimit();
+        int bandRows = (int) Math.max(
+            1,
+            Math.min(rows, maxBandPixels / rowPixels));
+        int bandColumns = columns;
+        if (rowPixels > maxBandPixels) {
+            bandColumns = (int) Math.max(1, Math.min(columns, maxBandPixels
+                / (tileSize * tileSize)));
+        }
+        for (int minY = range.getMinY(); minY <= range.getMaxY(); minY += bandRows) {
+            int maxY = Math.min(range.getMaxY(), minY + bandRows - 1);
+            for (int minX = range.getMinX(); minX <= range.getMaxX(); minX += bandColumns) {
+                int maxX = Math.min(range.getMaxX(), minX + bandColumns - 1);
+                ImagePoint first = tiler.getTilePosition(new TileInfo(
+                    minY,
+                    minX,
+                    zoom));
+                ImagePoint last = tiler.getTilePosition(new TileInfo(
+                    maxY + 1,
+                    maxX + 1,
+                    zoom));
+                if (isDone(new TileRange(minY, minX, maxY, maxX, zoom))) {
+                    continue;
+                }
+                long top = Math.max(0, first.getY());
+                long left = Math.max(0, first.getX());
+                long bottom = Math.min(imageSize.getY(), last.getY());
+                long right = Math.min(imageSize.getX(), last.getX());
+                boolean loaded = top < bottom && left < right;
+                long bandPixels = 0;
+                if (loaded) {
+                    long bandHeight = (bottom - top + subsampling - 1)
+                        / subsampling;
+                    long bandWidth = (right - left + subsampling - 1)
+                        / subsampling;
+                    bandPixels = bandHeight * bandWidth;
+                }
+                long bandBytes = getInFlightTiles()
+                    * getTileBytes()
+                    + bandPixels
+                    * BAND_PIXEL_BYTES;
+                long reserved = reserveMemory(bandBytes);
+                fBandReserved = true;
+                try {
+                    if (loaded) {
+                        long start = System.nanoTime();
+                        loadBand(
+                            zoom,
+                            new ImagePoint(top, left),
+                            new ImagePoint(bottom, right),
+                            subsampling);
+                        ITileMetrics metrics = fMetrics;
+                        if (metrics != null) {
+                            metrics.onStage(
+                                ITileMetrics.Stage.LOAD,
+                                zoom,
+                                bandPixels,
+                                System.nanoTime() - start);
+                        }
+                    }
+                    for (int y = minY; y <= maxY; y++) {
+                        for (int x = minX; x <= maxX; x++) {
+                            TileInfo tile = new TileInfo(y, x, zoom);
+                            generateTile(tiler, scale, imageSize, tile);
+                        }
+                    }
+                    awaitTiles();
+                } finally {
+                    try {
+                        awaitTilesQuietly();
+                        if (loaded) {
+                            releaseBand();
+                        }
+                    } finally {
+                        fBandReserved = false;
+                        releaseMemory(reserved);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates all tiles of the specified range.
+     * 
+     * @param range the range of tiles to generate
+     * @param imageSize the size of the image
+     */
+    protected void generateRange(TileRange range, ImagePoint imageSize) {
+        int zoomLevel = range.getZoom();
+        ImageTiler tiler = getImageTiler(zoomLevel);
+        double scale = getImageBlockScale(zoomLevel);
+        if (isBandProcessing()) {
+            generateBands(tiler, scale, imageSize, range);
+            return;
+        }
+        for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+            for (int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                TileInfo tile = new TileInfo(y, x, zoomLevel);
+                generateTile(tiler, scale, imageSize, tile);
+            }
+        }
+    }
+
+    /**
+     * Generates one tile of the specified zoom level.
+     * 
+     * @param imageSize the size of the image
+     * @param tile the tile to generate
+     */
+    protected void generateTile(ImagePoint imageSize, TileInfo tile) {
+        int zoomLevel = tile.getZoom();
+        ImageTiler tiler = getImageTiler(zoomLevel);
+        double scale = getImageBlockScale(zoomLevel);
+        generateTile(tiler, scale, imageSize, tile);
+    }
+
+    /**
+     * Calculates the source and target areas of the specified tile and copies
+     * the tile. If an executor is defined then the copy is performed
+     * asynchronously. Tile positions are always calculated in the calling
+     * thread because {@link ImageTiler} instances are not thread-safe.
+     * 
+     * @param tiler the tiler used to define tile positions on the image
+     * @param scale the scale of image blocks for the tile zoom level
+     * @param imageSize the size of the full image
+     * @param tile the tile to generate
+     */
+    protected void generateTile(
+        ImageTiler tiler,
+        double scale,
+        ImagePoint imageSize,
+        final TileInfo tile) {
+        if (isDone(tile)) {
+            return;
+        }
+        ImagePoint position = tiler.getTilePosition(tile);
+        final int targetTileSize = fTileSize;
+        final int sourceTileSize = (int) tiler.getTileSize();
+        long sourceX = (int) position.getX();
+        long sourceY = (int) position.getY();
+        long targetX = 0;
+        long targetY = 0;
+        // Parts of the tile outside of the image are not copied
+        long sourceTileWidth = sourceTileSize;
+        long sourceTileHeight = sourceTileSize;
+        if (sourceX < 0) {
+            targetX = Math.min(targetTileSize, (long) (-sourceX / scale));
+            sourceTileWidth += sourceX;
+            sourceX = 0;
+        }
+        if (sourceY < 0) {
+            targetY = Math.min(targetTileSize, (long) (-sourceY / scale));
+            sourceTileHeight += sourceY;
+            sourceY = 0;
+        }
+        long sourceWidth = Math.max(0, Math.min(
+            sourceTileWidth,
+            imageSize.getX() - sourceX));
+        long sourceHeight = Math.max(0, Math.min(
+            sourceTileHeight,
+            imageSize.getY() - sourceY));
+        long targetWidth = (long) Math.min(
+            targetTileSize - targetX,
+            sourceWidth / scale);
+        long targetHeight = (long) Math.min(
+            targetTileSize - targetY,
+            sourceHeight / scale);
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            // The tile does not intersect the image
+            targetWidth = targetHeight = 0;
+        }
+
+        final ImagePoint targetLeftTop = new ImagePoint(targetY, targetX);
+        final ImagePoint targetBottomRight = new ImagePoint(targetY
+            + targetHeight, targetX + targetWidth);
+        final ImagePoint sourceLeftTop = new ImagePoint(sourceY, sourceX);
+        final ImagePoint sourceBottomRight = new ImagePoint(sourceY
+            + sourceHeight, sourceX + sourceWidth);
+        // Memory is reserved in the calling thread, so the rendering is
+        // throttled when the budget is exhausted.
+        final long reserved = fBandReserved ? 0 : reserveMemory(getTileBytes());
+        if (fTasks == null) {
+            try {
+                copyTile(
+                    tile,
+                    sourceTileSize,
+                    targetTileSize,
+                    sourceLeftTop,
+                    sourceBottomRight,
+                    targetLeftTop,
+                    targetBottomRight);
+            } finally {
+                releaseMemory(reserved);
+            }
+        } else {
+            try {
+                fTasks.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            copyTile(
+                                tile,
+                                sourceTileSize,
+                                targetTileSize,
+                                sourceLeftTop,
+                                sourceBottomRight,
+                                targetLeftTop,
+                                targetBottomRight);
+                        } finally {
+                            releaseMemory(reserved);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                releaseMemory(reserved);
+                throw e;
+            }
+            ITileMetrics metrics = fMetrics;
+            if (metrics != null) {
+                metrics.onQueueDepth(
+                    ITileMetrics.Stage.RENDER,
+                    fTasks.getPending());
+            }
+        }
+    }
+
     protected void generateTiles(ImagePoint imageSize) {
         generateTiles(getImageZoomLevel(), imageSize);
     }
 
-    protected void generateTiles(int maxZoomLevel, ImagePoint imageSize) {
-        int minZoomLevel = maxZoomLevel;
-        ImagePoint screenSize = getScreenSize();
-        if (screenSize != null) {
-            int max = maxZoomLevel;
-            if (fImageZoomLevel > 0 && fImageZoomLevel < max) {
-                max = fImageZoomLevel;
-            }
-            for (int zoom = max; zoom >= 0; zoom--) {
-                final int scale = 1 << (max - zoom);
-                long newImageWidth = imageSize.getX() / scale;
-                long newImageHeight = imageSize.getY() / scale;
-                if (newImageWidth <= screenSize.getX()
-                    || newImageHeight <= screenSize.getY()) {
-                    break;
+    /**
+     * Generates all tiles of the specified ranges. Only tiles of the given
+     * ranges are rendered (directly from the image), so the generation time
+     * depends only on the number of tiles in these ranges. Ranges are limited
+     * to tiles covering the image; ranges outside of the image (and ranges of
+     * overzoom levels in the virtual overzoom mode) are ignored. Tiles are
+     * never skipped by the checkpoint: they are rendered even if they are
+     * completed.
+     * 
+     * @param ranges ranges of tiles to generate
+     * @param imageSize the size of the image
+     */
+    protected void generateTiles(
+        Collection<TileRange> ranges,
+        ImagePoint imageSize) {
+        TileCheckpoint checkpoint = fCheckpoint;
+        fCheckpoint = null;
+        fTasks = fExecutor != null
+            ? new TileTasks(fExecutor, fMaxPendingTiles)
+            : null;
+        try {
+            for (TileRange range : ranges) {
+                if (fVirtualOverzoom && range.getZoom() > fImageZoomLevel) {
+                    continue;
                 }
-                minZoomLevel = zoom;
+                range = range.intersect(getTileRange(
+                    range.getZoom(),
+                    imageSize));
+                if (range == null) {
+                    continue;
+                }
+                beginRange(range);
+                generateRange(range, imageSize);
+                awaitTiles();
+                endRange(range);
             }
+            awaitTiles();
+        } finally {
+            awaitTilesQuietly();
+            fTasks = null;
+            fCheckpoint = checkpoint;
         }
+    }
+
+    protected void generateTiles(int maxZoomLevel, ImagePoint imageSize) {
+        int minZoomLevel = getMinZoomLevel(maxZoomLevel, imageSize);
         generateTiles(minZoomLevel, maxZoomLevel, imageSize);
     }
 
@@ -72,70 +602,130 @@ public abstract class AbstractImageTilesGenerator {
         int minZoomLevel,
         int maxZoomLevel,
         final ImagePoint imageSize) {
+        if (fVirtualOverzoom) {
+            maxZoomLevel = Math.min(maxZoomLevel, fImageZoomLevel);
+        }
+        if (fCheckpoint != null) {
+            for (int zoom = minZoomLevel; zoom <= maxZoomLevel; zoom++) {
+                fCheckpoint.init(getTileRange(zoom, imageSize));
+            }
+        }
+        fTasks = fExecutor != null
+            ? new TileTasks(fExecutor, fMaxPendingTiles)
+            : null;
+        try {
+            generateZoomLevels(minZoomLevel, maxZoomLevel, imageSize);
+            awaitTiles();
+        } finally {
+            awaitTilesQuietly();
+            fTasks = null;
+        }
+    }
+
+    /**
+     * Generates all tiles of the specified zoom level.
+     * 
+     * @param zoomLevel the zoom level
+     * @param imageSize the size of the image
+     */
+    protected void generateZoomLevel(int zoomLevel, final ImagePoint imageSize) {
+        final ImageTiler tiler = getImageTiler(zoomLevel);
+        final double scale = getImageBlockScale(zoomLevel);
+        if (isBandProcessing()) {
+            TileRange range = getTileRange(zoomLevel, imageSize);
+            generateBands(tiler, scale, imageSize, range);
+            return;
+        }
+        TilesLoader loader = tiler.getTilesLoader(imageSize, fScreenSize);
+        loader.load(new TilesLoader.LoadListener() {
+            @Override
+            public void onTile(TileInfo tile) {
+                generateTile(tiler, scale, imageSize, tile);
+            }
+        });
+    }
+
+    /**
+     * Generates tiles for all zoom levels in the specified range.
+     * 
+     * @param minZoomLevel the minimal zoom level
+     * @param maxZoomLevel the maximal zoom level
+     * @param imageSize the size of the image
+     */
+    protected void generateZoomLevels(
+        int minZoomLevel,
+        int maxZoomLevel,
+        ImagePoint imageSize) {
         for (int zoomLevel = minZoomLevel; zoomLevel <= maxZoomLevel; zoomLevel++) {
-            final ImageTiler tiler = getImageTiler(zoomLevel);
-            final double scale = getImageBlockScale(zoomLevel);
-            TilesLoader loader = tiler.getTilesLoader(imageSize, fScreenSize);
-            loader.load(new TilesLoader.LoadListener() {
-                @Override
-                public void onTile(TileInfo tile) {
-                    ImagePoint position = tiler.getTilePosition(tile);
-                    int targetTileSize = fTileSize;
-                    int sourceTileSize = (int) tiler.getTileSize();
-                    long sourceX = (int) position.getX();
-                    long sourceY = (int) position.getY();
-                    long targetX = 0;
-                    long targetY = 0;
-                    if (sourceX < 0) {
-                        targetX = (long) (-sourceX / scale);
-                        sourceX = 0;
-                    }
-                    if (sourceY < 0) {
-                        targetY = (long) (-sourceY / scale);
-                        sourceY = 0;
-                    }
-                    long sourceWidth = (int) Math.min(
-                        imageSize.getX() - sourceX,
-                        Math.min(sourceTileSize, imageSize.getX() - sourceX));
-                    long sourceHeight = (int) Math.min(
-                        imageSize.getY() - sourceY,
-                        Math.min(sourceTileSize, imageSize.getY() - sourceY));
-                    long targetWidth = (long) Math.min(
-                        targetTileSize,
-                        sourceWidth / scale);
-                    long targetHeight = (long) Math.min(
-                        targetTileSize,
-                        sourceHeight / scale);
-
-                    ImagePoint targetLeftTop = new ImagePoint(targetY, targetX);
-                    ImagePoint targetBottomRight = new ImagePoint(targetY
-                        + targetHeight, targetX + targetWidth);
-                    ImagePoint sourceLeftTop = new ImagePoint(sourceY, sourceX);
-                    ImagePoint sourceBottomRight = new ImagePoint(sourceY
-                        + sourceHeight, sourceX + sourceWidth);
-                    copyTile(
-                        tile,
-                        sourceTileSize,
-                        targetTileSize,
-                        sourceLeftTop,
-                        sourceBottomRight,
-                        targetLeftTop,
-                        targetBottomRight);
-                }
-            });
+            TileRange range = getTileRange(zoomLevel, imageSize);
+            beginRange(range);
+            generateZoomLevel(zoomLevel, imageSize);
+            awaitTiles();
+            endRange(range);
         }
     }
 
+    /**
+     * Returns the maximal number of pixels in image bands. If a memory budget
+     * is defined then bands are limited by the budget.
+     */
+    private long getBandPixelsLimit() {
+        long limit = fMaxBandPixels;
+        MemoryBudget budget = fMemoryBudget;
+        if (budget != null) {
+            long free = budget.getMaxBytes() - getInFlightTiles()
+                * getTileBytes();
+            limit = Math.max(1, Math.min(limit, free / BAND_PIXEL_BYTES));
+        }
+        return limit;
+    }
+
+    /**
+     * Returns the subsampling factor used to load image bands for tiles with
+     * the specified scale. Bands of reduced zoom levels are subsampled, so
+     * the size of bands does not depend on the zoom level.
+     * 
+     * @param scale the scale of image blocks
+     * @return the subsampling factor for image bands
+     */
+    protected int getBandSubsampling(double scale) {
+        return scale >= 2 ? (int) scale : 1;
+    }
+
     /**
      * @param zoomLevel
      * @return
      */
     protected double getImageBlockScale(int zoomLevel) {
-        double result = 1 << Math.abs(fImageZoomLevel - zoomLevel);
-        if (fImageZoomLevel < zoomLevel) {
-            result = 1 / result;
-        }
-        return result;
+        return getImageBlockScale(fImageZoomLevel, zoomLevel);
+    }
+
+    /**
+     * Returns the checkpoint used to skip completed tiles or
+     * <code>null</code> if all tiles are generated.
+     * 
+     * @return the checkpoint used to skip completed tiles
+     */
+    public TileCheckpoint getCheckpoint() {
+        return fCheckpoint;
+    }
+
+    /**
+     * Returns the executor used to copy tiles in parallel or
+     * <code>null</code> if tiles are copied sequentially in the calling
+     * thread.
+     * 
+     * @return the executor used to copy tiles
+     */
+    public Executor getExecutor() {
+        return fExecutor;
+    }
+
+    /**
+     * Returns the maximal number of tiles rendered at the same time.
+     */
+    private int getInFlightTiles() {
+        return fTasks != null ? fMaxPendingTiles : 1;
     }
 
     public ImageTiler getImageTiler(int zoomLevel) {
@@ -157,6 +747,73 @@ public abstract class AbstractImageTilesGenerator {
         return fImageZoomLevel;
     }
 
+    /**
+     * Returns the maximal number of image pixels loaded at once when tiles are
+     * generated band by band.
+     * 
+     * @return the maximal number of pixels in one band
+     */
+    public long getMaxBandPixels() {
+        return fMaxBandPixels;
+    }
+
+    /**
+     * Returns the maximal number of tiles waiting to be copied by the
+     * executor.
+     * 
+     * @return the maximal number of pending tiles
+     */
+    public int getMaxPendingTiles() {
+        return fMaxPendingTiles;
+    }
+
+    /**
+     * Returns the minimal zoom level generated when the maximal zoom level is
+     * the specified one. Zoom levels where the reduced image is smaller than
+     * the screen are not generated.
+     * 
+     * @param maxZoomLevel the maximal zoom level
+     * @param imageSize the size of the image
+     * @return the minimal generated zoom level
+     */
+    public int getMinZoomLevel(int maxZoomLevel, ImagePoint imageSize) {
+        int minZoomLevel = maxZoomLevel;
+        ImagePoint screenSize = getScreenSize();
+        if (screenSize != null) {
+            int max = maxZoomLevel;
+            if (fImageZoomLevel > 0 && fImageZoomLevel < max) {
+                max = fImageZoomLevel;
+            }
+            for (int zoom = max; zoom >= 0; zoom--) {
+                final int scale = 1 << (max - zoom);
+                long newImageWidth = imageSize.getX() / scale;
+                long newImageHeight = imageSize.getY() / scale;
+                if (newImageWidth <= screenSize.getX()
+                    || newImageHeight <= screenSize.getY()) {
+                    break;
+                }
+                minZoomLevel = zoom;
+            }
+        }
+        return minZoomLevel;
+    }
+
+    /**
+     * @return the memory budget limiting the memory used by the generation
+     *         or <code>null</code> if the memory is not limited
+     */
+    public MemoryBudget getMemoryBudget() {
+        return fMemoryBudget;
+    }
+
+    /**
+     * @return the metrics where the generation is reported or
+     *         <code>null</code> if the generation is not instrumented
+     */
+    public ITileMetrics getMetrics() {
+        return fMetrics;
+    }
+
     public ImagePoint getPinPoint() {
         return fPinPoint;
     }
@@ -169,15 +826,299 @@ public abstract class AbstractImageTilesGenerator {
         return fScreenSize;
     }
 
+    /**
+     * Returns the range of tiles covering the image on the specified zoom
+     * level.
+     * 
+     * @param zoomLevel the zoom level
+     * @param imageSize the size of the image
+     * @return the range of tiles generated for the specified zoom level
+     */
+    public TileRange getTileRange(int zoomLevel, ImagePoint imageSize) {
+        ImageTiler tiler = getImageTiler(zoomLevel);
+        TilesLoader loader = tiler.getTilesLoader(imageSize, fScreenSize);
+        return loader.getTileRange(zoomLevel);
+    }
+
+    /**
+     * Returns <code>true</code> if the specified tile is completed and it
+     * should not be generated again.
+     * 
+     * @param tile the tile to check
+     * @return <code>true</code> if the tile should be skipped
+     */
+    protected boolean isDone(TileInfo tile) {
+        return fCheckpoint != null && fCheckpoint.isDone(tile);
+    }
+
+    /**
+     * Returns <code>true</code> if all tiles of the specified range are
+     * completed and the range should not be generated again. Subclasses
+     * overriding the {@link #isDone(TileInfo)} method should override this
+     * method as well.
+     * 
+     * @param range the range to check
+     * @return <code>true</code> if the range should be skipped
+     */
+    protected boolean isDone(TileRange range) {
+        return fCheckpoint != null && fCheckpoint.isDone(range);
+    }
+
+    /**
+     * Returns ranges of tiles covering the specified areas of the image on
+     * the given zoom level. Areas are defined by pairs of points: the top-left
+     * corner (inclusive) and the bottom-right corner (exclusive) of each
+     * area. Returned ranges are limited to tiles generated for the full image
+     * and they do not overlap: intersecting ranges are merged.
+     * 
+     * @param zoomLevel the zoom level
+     * @param imageSize the size of the image
+     * @param areas pairs of points defining areas on the image
+     * @return ranges of tiles covering the specified areas
+     */
+    public List<TileRange> getTileRanges(
+        int zoomLevel,
+        ImagePoint imageSize,
+        ImagePoint... areas) {
+        if (areas.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                "Areas should be defined by pairs of points.");
+        }
+        TileRange fullRange = getTileRange(zoomLevel, imageSize);
+        ImageTiler tiler = getImageTiler(zoomLevel);
+        List<TileRange> result = new ArrayList<TileRange>();
+        for (int i = 0; i < areas.length; i += 2) {
+            ImagePoint leftTop = areas[i];
+            ImagePoint bottomRight = areas[i + 1];
+            if (leftTop.getX() >= bottomRight.getX()
+                || leftTop.getY() >= bottomRight.getY()) {
+                continue;
+            }
+            TileInfo first = getTile(tiler, leftTop);
+            TileInfo last = getTile(tiler, new ImagePoint(
+                bottomRight.getY() - 1,
+                bottomRight.getX() - 1));
+            addRange(result, new TileRange(first, last).intersect(fullRange));
+        }
+        return result;
+    }
+
+    /**
+     * Returns ranges of tiles covering the specified geographic areas on the
+     * given zoom level. Each area is defined by a pair of its opposite
+     * corners (for example the south-west and the north-east corners of a
+     * bounding box). Returned ranges contain all tiles intersecting the
+     * areas; they are limited to tiles generated for the full image and they
+     * do not overlap.
+     * 
+     * @param zoomLevel the zoom level
+     * @param imageSize the size of the image
+     * @param areas pairs of points defining geographic areas
+     * @return ranges of tiles covering the specified areas
+     */
+    public List<TileRange> getTileRanges(
+        int zoomLevel,
+        ImagePoint imageSize,
+        GeoPoint... areas) {
+        if (areas.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                "Areas should be defined by pairs of points.");
+        }
+        TileRange fullRange = getTileRange(zoomLevel, imageSize);
+        List<TileRange> result = new ArrayList<TileRange>();
+        for (int i = 0; i < areas.length; i += 2) {
+            TileInfo first = new TileInfo(areas[i], zoomLevel);
+            TileInfo second = new TileInfo(areas[i + 1], zoomLevel);
+            addRange(result, new TileRange(first, second).intersect(fullRange));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the tile containing the specified point of the image. The tile
+     * found by geographic coordinates of the point is adjusted using tile
+     * positions on the image, so rounding errors of geographic transformations
+     * do not change the result.
+     */
+    private TileInfo getTile(ImageTiler tiler, ImagePoint point) {
+        TileInfo tile = tiler.getTile(point);
+        int zoom = tile.getZoom();
+        int y = tile.getY();
+        int x = tile.getX();
+        long size = tiler.getTileSize();
+        ImagePoint position = tiler.getTilePosition(tile);
+        y += (int) Math.floor((point.getY() - position.getY())
+            / (double) size);
+        x += (int) Math.floor((point.getX() - position.getX())
+            / (double) size);
+        return new TileInfo(y, x, zoom);
+    }
+
+    /**
+     * Returns the estimated number of bytes used by one tile while it is
+     * rendered.
+     * 
+     * @return the estimated size of one tile in memory
+     */
+    protected long getTileBytes() {
+        return MemoryBudget.getImageBytes(
+            fTileSize,
+            fTileSize,
+            BufferedImage.TYPE_INT_ARGB);
+    }
+
     public int getTileSize() {
         return fTileSize;
     }
 
+    /**
+     * Returns <code>true</code> if tiles of zoom levels higher than the image
+     * zoom level are not generated.
+     * 
+     * @return the virtual overzoom flag
+     * @see #setVirtualOverzoom(boolean)
+     */
+    public boolean isVirtualOverzoom() {
+        return fVirtualOverzoom;
+    }
+
+    /**
+     * Returns <code>true</code> if tiles should be generated band by band.
+     * This method returns <code>false</code> by default; it should be
+     * overloaded by generators which can not keep the whole image in memory.
+     * 
+     * @return <code>true</code> if tiles are generated band by band
+     */
+    protected boolean isBandProcessing() {
+        return false;
+    }
+
+    /**
+     * This method is called in the band processing mode before tiles of a band
+     * are generated. It should load the specified region of the image.
+     * 
+     * @param zoomLevel the zoom level of generated tiles
+     * @param leftTop the top left corner of the band on the image
+     * @param bottomRight the bottom right corner of the band on the image
+     * @param subsampling the subsampling factor of the band
+     */
+    protected void loadBand(
+        int zoomLevel,
+        ImagePoint leftTop,
+        ImagePoint bottomRight,
+        int subsampling) {
+    }
+
+    /**
+     * This method is called in the band processing mode when all tiles of the
+     * current band are generated.
+     */
+    protected void releaseBand() {
+    }
+
+    /**
+     * Releases memory reserved by the {@link #reserveMemory(long)} method.
+     */
+    private void releaseMemory(long bytes) {
+        MemoryBudget budget = fMemoryBudget;
+        if (budget != null && bytes > 0) {
+            budget.release(bytes);
+        }
+    }
+
+    /**
+     * Reserves the specified amount of memory in the budget. This method
+     * blocks while the budget is exhausted.
+     * 
+     * @return the number of reserved bytes
+     */
+    private long reserveMemory(long bytes) {
+        MemoryBudget budget = fMemoryBudget;
+        if (budget == null) {
+            return 0;
+        }
+        budget.reserve(bytes);
+        return bytes;
+    }
+
+    /**
+     * Sets the checkpoint used to skip completed tiles. Ranges of generated
+     * tiles are registered in the checkpoint when the generation starts;
+     * tiles are marked as completed by the tile sink (see
+     * {@link TileDataWriter#setCheckpoint(TileCheckpoint)}).
+     * 
+     * @param checkpoint the checkpoint to set or <code>null</code> to
+     *        generate all tiles
+     */
+    public void setCheckpoint(TileCheckpoint checkpoint) {
+        fCheckpoint = checkpoint;
+    }
+
+    /**
+     * Sets an executor used to copy tiles in parallel. Each tile is copied by
+     * an individual task, so all tile listeners should be thread-safe when an
+     * executor is defined. If the executor is <code>null</code> then tiles are
+     * copied sequentially in the calling thread.
+     * 
+     * @param executor the executor to set
+     */
+    public void setExecutor(Executor executor) {
+        fExecutor = executor;
+    }
+
     public void setImageZoomLevel(int imageZoomLevel) {
         fImageZoomLevel = imageZoomLevel;
         clear();
     }
 
+    /**
+     * Sets the maximal number of image pixels loaded at once when tiles are
+     * generated band by band.
+     * 
+     * @param maxBandPixels the maximal number of pixels in one band
+     */
+    public void setMaxBandPixels(long maxBandPixels) {
+        fMaxBandPixels = Math.max(1, maxBandPixels);
+    }
+
+    /**
+     * Sets the maximal number of tiles waiting to be copied by the executor.
+     * The generation thread blocks when this limit is reached, so the number
+     * of tile images kept in memory stays bounded.
+     * 
+     * @param maxPendingTiles the maximal number of pending tiles
+     */
+    public void setMaxPendingTiles(int maxPendingTiles) {
+        fMaxPendingTiles = maxPendingTiles;
+    }
+
+    /**
+     * Sets the memory budget limiting the memory used by the generation. The
+     * same budget can be shared by several generators. Memory is reserved
+     * for each loaded band (with tiles rendered from it) or for each rendered
+     * tile; bands are reduced to fit in the budget. The budget should be
+     * defined before the generation starts.
+     * 
+     * @param memoryBudget the budget or <code>null</code> to not limit the
+     *        memory
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        fMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the metrics where ranges of generated tiles, loading of image
+     * bands and rendering of tiles are reported. Encoding and storage of
+     * tiles are reported by tile writers (see
+     * {@link TileDataWriter#setMetrics(ITileMetrics)}).
+     * 
+     * @param metrics the metrics to set or <code>null</code> to disable the
+     *        instrumentation
+     */
+    public void setMetrics(ITileMetrics metrics) {
+        fMetrics = metrics;
+    }
+
     public void setPinPoint(ImagePoint pinPoint) {
         fPinPoint = pinPoint != null ? pinPoint : new ImagePoint(0, 0);
         clear();
@@ -197,4 +1138,17 @@ public abstract class AbstractImageTilesGenerator {
         fTileSize = tileSize;
         clear();
     }
+
+    /**
+     * Activates or deactivates the virtual overzoom. Tiles of zoom levels
+     * higher than the image zoom level only upscale the image, so in this
+     * mode they are not generated at all; they can be derived from tiles of
+     * the image zoom level when they are read (see
+     * {@link OverzoomTileReader}).
+     * 
+     * @param virtualOverzoom the virtual overzoom flag
+     */
+    public void setVirtualOverzoom(boolean virtualOverzoom) {
+        fVirtualOverzoom = virtualOverzoom;
+    }
 }
@@ -0,0 +1,31 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+/**
+ * This resampler averages all source pixels covered by each target pixel
+ * (a box filter). It is the cheapest resampler without aliasing for
+ * reductions; for enlargements it is equivalent to the nearest neighbour
+ * interpolation.
+ * 
+ * @author kotelnikov
+ */
+public class AreaAverageResampler extends SeparableResampler {
+
+    /**
+     * The shared instance of this resampler.
+     */
+    public static final AreaAverageResampler INSTANCE = new AreaAverageResampler();
+
+    @Override
+    protected double getKernel(double x) {
+        return x > -0.5 && x <= 0.5 ? 1 : 0;
+    }
+
+    @Override
+    protected double getSupport() {
+        return 0.5;
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * An image source keeping the whole image in memory.
+ * 
+ * @author kotelnikov
+ */
+public class BufferedImageSource implements IImageSource {
+
+    private final BufferedImage fImage;
+
+    public BufferedImageSource(BufferedImage image) {
+        fImage = image;
+    }
+
+    public void close() throws IOException {
+    }
+
+    public BufferedImage getImage() {
+        return fImage;
+    }
+
+    public ImagePoint getImageSize() {
+        return new ImagePoint(fImage.getHeight(), fImage.getWidth());
+    }
+
+    public BufferedImage readRegion(
+        ImagePoint leftTop,
+        ImagePoint bottomRight,
+        int subsampling) throws IOException {
+        int x = (int) leftTop.getX();
+        int y = (int) leftTop.getY();
+        int width = (int) (bottomRight.getX() - x);
+        int height = (int) (bottomRight.getY() - y);
+        BufferedImage region = fImage.getSubimage(x, y, width, height);
+        if (subsampling > 1) {
+            int w = (width + subsampling - 1) / subsampling;
+            int h = (height + subsampling - 1) / subsampling;
+            BufferedImage result = new BufferedImage(w, h, getImageType());
+            for (int i = 0; i < h; i++) {
+                for (int j = 0; j < w; j++) {
+                    int rgb = region.getRGB(j * subsampling, i * subsampling);
+                    result.setRGB(j, i, rgb);
+                }
+            }
+            region = result;
+        }
+        return region;
+    }
+
+    private int getImageType() {
+        return fImage.getColorModel().hasAlpha()
+            ? BufferedImage.TYPE_INT_ARGB
+            : BufferedImage.TYPE_INT_RGB;
+    }
+
+}
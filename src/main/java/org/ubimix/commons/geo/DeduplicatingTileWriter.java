@@ -0,0 +1,247 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * This writer stores each unique tile payload only once. Encoded tiles are
+ * identified by the SHA-1 hash of their bytes; each new payload gets a
+ * sequential content identifier and is written in the
+ * <code>content/&lt;id/4096&gt;/&lt;id&gt;.&lt;ext&gt;</code> file. The
+ * mapping between tiles and content identifiers is kept in a compact index
+ * (see {@link TileIndex}). When the writer is
+ * closed this index is stored in the {@link #INDEX_FILE} file as a number of
+ * entries followed by entries sorted by tile keys (see
+ * {@link TileInfo#getKey()}); each entry is a tile key followed by the
+ * content identifier.
+ * 
+ * @author kotelnikov
+ */
+public class DeduplicatingTileWriter extends TileDataWriter {
+
+    /**
+     * The name of the directory containing unique tile payloads.
+     */
+    public static final String CONTENT_DIR = "content";
+
+    /**
+     * The name of the file containing the index of tiles.
+     */
+    public static final String INDEX_FILE = "tiles.idx";
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Content identifiers for hashes of tile payloads.
+     */
+    private final Map<String, Integer> fContentIds = new HashMap<String, Integer>();
+
+    /**
+     * Extensions of the stored payloads, indexed by content identifiers.
+     */
+    private String[] fContentTypes = new String[256];
+
+    private final ThreadLocal<MessageDigest> fDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * Content identifiers of tiles.
+     */
+    private final TileIndex fIndex = new TileIndex();
+
+    private long fReceivedBytes;
+
+    private final File fRootDir;
+
+    private long fStoredBytes;
+
+    private int fTilesNumber;
+
+    public DeduplicatingTileWriter(File rootDir) {
+        fRootDir = rootDir;
+    }
+
+    /**
+     * Writes the index of tiles in the {@link #INDEX_FILE} file.
+     * 
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        fRootDir.mkdirs();
+        File file = new File(fRootDir, INDEX_FILE);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+        try {
+            int size = fIndex.size();
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(fIndex.getKey(i));
+                out.writeInt((int) fIndex.getValue(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private File getContentFile(int contentId, String ext) {
+        String path = CONTENT_DIR
+            + "/"
+            + (contentId >> 12)
+            + "/"
+            + contentId
+            + "."
+            + ext;
+        return new File(fRootDir, path);
+    }
+
+    /**
+     * Returns the file containing the payload of the specified tile or
+     * <code>null</code> if this tile was not stored.
+     * 
+     * @param tile the tile to find
+     * @return the file containing the payload of the tile
+     */
+    public synchronized File getContentFile(TileInfo tile) {
+        int contentId = getContentId(tile);
+        return contentId >= 0
+            ? getContentFile(contentId, fContentTypes[contentId])
+            : null;
+    }
+
+    /**
+     * Returns the identifier of the payload of the specified tile or -1 if
+     * this tile was not stored.
+     * 
+     * @param tile the tile to find
+     * @return the content identifier of the tile
+     */
+    public synchronized int getContentId(TileInfo tile) {
+        return (int) fIndex.get(tile.getKey(), -1);
+    }
+
+    /**
+     * @return the number of unique tile payloads
+     */
+    public synchronized int getContentNumber() {
+        return fContentIds.size();
+    }
+
+    /**
+     * @return the number of tiles which were not stored because the same
+     *         payload was already stored
+     */
+    public synchronized int getDuplicatesNumber() {
+        return fTilesNumber - fContentIds.size();
+    }
+
+    private String getHash(byte[] data) {
+        MessageDigest digest = fDigest.get();
+        digest.reset();
+        return toHex(digest.digest(data));
+    }
+
+    /**
+     * @return the total size (in bytes) of all received tiles
+     */
+    public synchronized long getReceivedBytes() {
+        return fReceivedBytes;
+    }
+
+    /**
+     * @return the size (in bytes) of all stored payloads
+     */
+    public synchronized long getStoredBytes() {
+        return fStoredBytes;
+    }
+
+    /**
+     * @return the number of received tiles (including duplicates)
+     */
+    public synchronized int getTilesNumber() {
+        return fTilesNumber;
+    }
+
+    @Override
+    protected void onTileData(TileInfo tile, TileFormat tileFormat, byte[] data)
+        throws IOException {
+        String hash = getHash(data);
+        String ext = tileFormat.toString();
+        int contentId;
+        boolean newContent;
+        synchronized (this) {
+            Integer id = fContentIds.get(hash);
+            newContent = id == null;
+            if (newContent) {
+                contentId = fContentIds.size();
+                fContentIds.put(hash, contentId);
+                if (contentId == fContentTypes.length) {
+                    fContentTypes = Arrays.copyOf(
+                        fContentTypes,
+                        fContentTypes.length * 2);
+                }
+                fContentTypes[contentId] = ext;
+                fStoredBytes += data.length;
+                // Each content directory is created once, before the first
+                // of its payloads can be written by any thread
+                if ((contentId & 0xFFF) == 0) {
+                    getContentFile(contentId, ext).getParentFile().mkdirs();
+                }
+            } else {
+                contentId = id;
+            }
+            fReceivedBytes += data.length;
+            fTilesNumber++;
+            fIndex.put(tile.getKey(), contentId);
+        }
+        if (newContent) {
+            File file = getContentFile(contentId, ext);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "tiles: "
+            + fTilesNumber
+            + "; unique: "
+            + getContentNumber()
+            + "; received bytes: "
+            + fReceivedBytes
+            + "; stored bytes: "
+            + fStoredBytes;
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.FileTileWriter;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Reads tiles written by the {@link FileTileWriter}: each tile is stored in
+ * the <code>{zoom}/{x}/{y}.{ext}</code> file of the root directory.
+ * 
+ * @author kotelnikov
+ */
+public class DirectoryTileReader implements ITileReader {
+
+    private final File fRootDir;
+
+    private final TileFormat fTileFormat;
+
+    /**
+     * @param rootDir the root directory of tiles
+     * @param tileFormat the format of tiles
+     */
+    public DirectoryTileReader(File rootDir, TileFormat tileFormat) {
+        fRootDir = rootDir;
+        fTileFormat = tileFormat;
+    }
+
+    public void close() throws IOException {
+    }
+
+    public byte[] getTileData(TileInfo tile) throws IOException {
+        File file = new File(fRootDir, tile.getZoom()
+            + "/"
+            + tile.getX()
+            + "/"
+            + tile.getY()
+            + "."
+            + fTileFormat);
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int pos = 0;
+            while (pos < data.length) {
+                int len = input.read(data, pos, data.length - pos);
+                if (len < 0) {
+                    throw new IOException("The file '"
+                        + file
+                        + "' was truncated.");
+                }
+                pos += len;
+            }
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    public TileFormat getTileFormat() {
+        return fTileFormat;
+    }
+
+}
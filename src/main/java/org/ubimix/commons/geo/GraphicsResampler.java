@@ -0,0 +1,96 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+
+/**
+ * This resampler draws images with {@link Graphics2D} and the interpolation
+ * defined by rendering hints. Interpolations of Java2D sample only a few
+ * source pixels around each target pixel, so they are fast but strong
+ * reductions are aliased.
+ * 
+ * @author kotelnikov
+ */
+public class GraphicsResampler implements ITileResampler {
+
+    /**
+     * Bicubic interpolation with the quality alpha interpolation; it is the
+     * default resampler of tiles.
+     */
+    public static final GraphicsResampler BICUBIC = new GraphicsResampler(
+        RenderingHints.VALUE_INTERPOLATION_BICUBIC,
+        RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+
+    /**
+     * Bilinear interpolation.
+     */
+    public static final GraphicsResampler BILINEAR = new GraphicsResampler(
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR,
+        RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED);
+
+    /**
+     * Nearest neighbour interpolation; it is the fastest resampler.
+     */
+    public static final GraphicsResampler NEAREST = new GraphicsResampler(
+        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR,
+        RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED);
+
+    private final Object fAlphaInterpolation;
+
+    private final Object fInterpolation;
+
+    /**
+     * @param interpolation the value of the
+     *        {@link RenderingHints#KEY_INTERPOLATION} hint
+     * @param alphaInterpolation the value of the
+     *        {@link RenderingHints#KEY_ALPHA_INTERPOLATION} hint
+     */
+    public GraphicsResampler(Object interpolation, Object alphaInterpolation) {
+        fInterpolation = interpolation;
+        fAlphaInterpolation = alphaInterpolation;
+    }
+
+    public void resample(
+        BufferedImage source,
+        int sx1,
+        int sy1,
+        int sx2,
+        int sy2,
+        BufferedImage target,
+        int tx1,
+        int ty1,
+        int tx2,
+        int ty2) {
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(
+                RenderingHints.KEY_INTERPOLATION,
+                fInterpolation);
+            g.setRenderingHint(
+                RenderingHints.KEY_ALPHA_INTERPOLATION,
+                fAlphaInterpolation);
+            g.setComposite(AlphaComposite.SrcOver);
+            ImageObserver observer = null;
+            g.drawImage(
+                source,
+                tx1,
+                ty1,
+                tx2,
+                ty2,
+                sx1,
+                sy1,
+                sx2,
+                sy2,
+                observer);
+        } finally {
+            g.dispose();
+        }
+    }
+
+}
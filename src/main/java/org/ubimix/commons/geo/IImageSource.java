@@ -0,0 +1,58 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Image sources give access to pixels of images split to tiles. Sources could
+ * keep the whole image in memory or decode individual image regions on
+ * demand.
+ * 
+ * @author kotelnikov
+ */
+public interface IImageSource {
+
+    /**
+     * Releases all resources associated with this source.
+     * 
+     * @throws IOException
+     */
+    void close() throws IOException;
+
+    /**
+     * Returns the full image if it is already loaded in memory; otherwise this
+     * method returns <code>null</code> and the image should be read by regions
+     * using the {@link #readRegion(ImagePoint, ImagePoint, int)} method.
+     * 
+     * @return the full image or <code>null</code> if the image is not loaded
+     *         in memory
+     */
+    BufferedImage getImage();
+
+    /**
+     * Returns the size of the image.
+     * 
+     * @return the size of the image
+     */
+    ImagePoint getImageSize();
+
+    /**
+     * Reads and returns a region of the image. If the subsampling value is
+     * greater than one then only each n-th pixel of each n-th row is read, so
+     * the returned image is n times smaller than the region.
+     * 
+     * @param leftTop the top left corner of the region (inclusive)
+     * @param bottomRight the bottom right corner of the region (exclusive)
+     * @param subsampling the subsampling factor
+     * @return an image containing pixels of the specified region
+     * @throws IOException
+     */
+    BufferedImage readRegion(
+        ImagePoint leftTop,
+        ImagePoint bottomRight,
+        int subsampling) throws IOException;
+
+}
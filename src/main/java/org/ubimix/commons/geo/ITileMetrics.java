@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+/**
+ * Instrumentation listener of the tiling pipeline. Generators (see
+ * {@link AbstractImageTilesGenerator#setMetrics(ITileMetrics)}) and tile
+ * writers (see {@link TileDataWriter#setMetrics(ITileMetrics)}) report the
+ * time spent in each stage of the tile production, the amount of processed
+ * data and the number of tiles waiting for each stage. Methods of this
+ * interface are called concurrently from rendering, encoding and writing
+ * threads, so implementations should be thread-safe and cheap.
+ * 
+ * @author kotelnikov
+ */
+public interface ITileMetrics {
+
+    /**
+     * Stages of the tile production.
+     */
+    enum Stage {
+
+        /**
+         * Decoding of image bands from the image source; the amount of this
+         * stage is the number of loaded pixels.
+         */
+        LOAD,
+
+        /**
+         * Resampling of image pixels in tiles (including the downsampling of
+         * tiles in the pyramid mode); the amount of this stage is the number
+         * of rendered pixels.
+         */
+        RENDER,
+
+        /**
+         * Encoding of tile images; the amount of this stage is the number of
+         * encoded bytes.
+         */
+        ENCODE,
+
+        /**
+         * Storage of encoded tiles; the amount of this stage is the number of
+         * written bytes.
+         */
+        WRITE
+
+    }
+
+    /**
+     * This method is called before tiles of the specified range are
+     * generated.
+     * 
+     * @param range the range of tiles
+     */
+    void beginRange(TileRange range);
+
+    /**
+     * This method is called when all tiles of the specified range are
+     * generated.
+     * 
+     * @param range the range of tiles
+     */
+    void endRange(TileRange range);
+
+    /**
+     * Reports the number of tiles waiting for the specified stage.
+     * 
+     * @param stage the stage of the queue
+     * @param depth the number of tiles in the queue
+     */
+    void onQueueDepth(Stage stage, int depth);
+
+    /**
+     * Reports one execution of the specified stage.
+     * 
+     * @param stage the executed stage
+     * @param zoom the zoom level of processed tiles
+     * @param amount the amount of processed data (pixels or bytes depending
+     *        on the stage)
+     * @param nanos the execution time in nanoseconds
+     */
+    void onStage(Stage stage, int zoom, long amount, long nanos);
+
+}
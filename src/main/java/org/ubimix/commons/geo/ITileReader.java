@@ -0,0 +1,44 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.IOException;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Readers give access to encoded tiles of a generated pyramid (for example
+ * tiles stored in a directory or in an archive). Readers should be
+ * thread-safe.
+ * 
+ * @author kotelnikov
+ * @see DirectoryTileReader
+ * @see TileArchiveReader
+ * @see OverzoomTileReader
+ */
+public interface ITileReader {
+
+    /**
+     * Releases all resources associated with this reader.
+     * 
+     * @throws IOException
+     */
+    void close() throws IOException;
+
+    /**
+     * Returns encoded data of the specified tile or <code>null</code> if there
+     * is no such a tile.
+     * 
+     * @param tile the tile to read
+     * @return encoded data of the tile
+     * @throws IOException
+     */
+    byte[] getTileData(TileInfo tile) throws IOException;
+
+    /**
+     * @return the format of tiles
+     */
+    TileFormat getTileFormat();
+
+}
@@ -0,0 +1,52 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Resamplers draw scaled areas of images in tiles. A resampler can be
+ * defined for each zoom level of tiles (see
+ * {@link ImageTilesGenerator#setResampler(int, int, ITileResampler)}), so
+ * fast filters can be used for preview levels and high quality filters for
+ * strong reductions. Resamplers are called concurrently when tiles are
+ * rendered by an executor, so implementations should be thread-safe.
+ * 
+ * @author kotelnikov
+ * @see GraphicsResampler
+ * @see AreaAverageResampler
+ * @see LanczosResampler
+ */
+public interface ITileResampler {
+
+    /**
+     * Draws the specified area of the source image in the area of the target
+     * image. The scaled pixels are composed with pixels of the target using
+     * the "source over" rule. Pixels around the source area can be used by
+     * filters with a large support.
+     * 
+     * @param source the source image
+     * @param sx1 the X coordinate of the first corner of the source area
+     * @param sy1 the Y coordinate of the first corner of the source area
+     * @param sx2 the X coordinate of the second corner of the source area
+     * @param sy2 the Y coordinate of the second corner of the source area
+     * @param target the target image
+     * @param tx1 the X coordinate of the first corner of the target area
+     * @param ty1 the Y coordinate of the first corner of the target area
+     * @param tx2 the X coordinate of the second corner of the target area
+     * @param ty2 the Y coordinate of the second corner of the target area
+     */
+    void resample(
+        BufferedImage source,
+        int sx1,
+        int sy1,
+        int sx2,
+        int sy2,
+        BufferedImage target,
+        int tx1,
+        int ty1,
+        int tx2,
+        int ty2);
+
+}
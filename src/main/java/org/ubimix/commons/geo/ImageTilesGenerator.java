@@ -3,25 +3,24 @@
  */
 package org.ubimix.commons.geo;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.RenderingHints;
-import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
-import java.awt.image.ImageObserver;
-import java.awt.image.ImageProducer;
-import java.awt.image.RGBImageFilter;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.imageio.ImageIO;
 import javax.imageio.stream.ImageInputStream;
@@ -31,10 +30,23 @@ import javax.imageio.stream.ImageInputStream;
  */
 public class ImageTilesGenerator extends AbstractImageTilesGenerator {
 
-    public static class FileTileWriter implements ITileImageListener {
+    /**
+     * This writer stores tiles in files with <code>z/x/y.ext</code> paths.
+     * Created <code>z/x</code> directories are remembered, so each directory
+     * is created (and checked) only once. When the range of tiles of a zoom
+     * level is known (see {@link TilesLoader.ILoadListener}) all directories
+     * of this level are created before tiles are written.
+     */
+    public static class FileTileWriter extends TileDataWriter
+        implements
+        TilesLoader.ILoadListener {
 
-        private final static Logger log = Logger.getLogger(FileTileWriter.class
-            .getName());
+        /**
+         * Keys of created directories; each key contains the zoom level and
+         * the X coordinate of tiles of the directory.
+         */
+        private final Set<Long> fDirectories = Collections
+            .newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
         private File fRootDir;
 
@@ -42,36 +54,109 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
             fRootDir = rootDir;
         }
 
-        protected void handleError(String msg, Throwable t) {
-            log.log(Level.WARNING, msg, t);
+        /**
+         * Creates directories for all tiles of the specified range.
+         */
+        public void begin(
+            TileInfo minTile,
+            TileInfo maxTile,
+            GeoPoint min,
+            GeoPoint max) {
+            int zoom = minTile.getZoom();
+            for (int x = minTile.getX(); x <= maxTile.getX(); x++) {
+                getDirectory(zoom, x);
+            }
+        }
+
+        public void end(
+            TileInfo minTile,
+            TileInfo maxTile,
+            GeoPoint min,
+            GeoPoint max) {
+        }
+
+        /**
+         * Returns the directory of tiles with the specified zoom level and X
+         * coordinate. The directory is created if it is required.
+         */
+        private File getDirectory(int zoom, int x) {
+            File dir = new File(fRootDir, zoom + "/" + x);
+            Long key = ((long) zoom << 32) | (x & 0xFFFFFFFFL);
+            if (!fDirectories.contains(key)) {
+                dir.mkdirs();
+                fDirectories.add(key);
+            }
+            return dir;
+        }
+
+        public void onTile(TileInfo tile) {
         }
 
         @Override
-        public void onTile(
+        protected void onTileData(
             TileInfo tile,
-            BufferedImage tileImage,
-            TileFormat tileFormat) {
-            String type = tileFormat.toString();
-            String path = tile.getTilePath(type);
-            File tileFile = new File(fRootDir, path);
-            tileFile.getParentFile().mkdirs();
+            TileFormat tileFormat,
+            byte[] data) throws IOException {
+            File dir = getDirectory(tile.getZoom(), tile.getX());
+            File tileFile = new File(dir, tile.getY() + "." + tileFormat);
+            FileOutputStream out = new FileOutputStream(tileFile);
             try {
-                FileOutputStream out = new FileOutputStream(tileFile);
-                try {
-                    ImageIO.write(tileImage, type, out);
-                } finally {
-                    out.close();
-                }
-            } catch (Throwable t) {
-                handleError("Can not write tite '"
-                    + tile
-                    + "' in the file '"
-                    + tileFile
-                    + "'.", t);
+                out.write(data);
+            } finally {
+                out.close();
             }
         }
     }
 
+    /**
+     * Listeners of this type are notified separately about tiles filled with a
+     * single color (for example tiles outside of the image filled with the
+     * background color). Such tiles are detected before they are drawn (when
+     * the tile does not intersect the image) or by a scan of the drawn tile.
+     * Sinks can encode and store such tiles only once for each color. Blank
+     * tiles are delivered separately only if the listener enables it (see
+     * {@link #isBlankTilesEnabled()}).
+     */
+    public interface IBlankTileListener extends ITileImageListener {
+
+        /**
+         * Returns <code>true</code> if blank tiles should be delivered to the
+         * {@link #onBlankTile(TileInfo, BufferedImage, int, TileFormat)}
+         * method. Otherwise blank tiles are delivered to the
+         * {@link ITileImageListener#onTile(TileInfo, BufferedImage, TileFormat)}
+         * method like all other tiles.
+         * 
+         * @return <code>true</code> if blank tiles are delivered separately
+         */
+        boolean isBlankTilesEnabled();
+
+        /**
+         * This method is called instead of
+         * {@link ITileImageListener#onTile(TileInfo, BufferedImage, TileFormat)}
+         * for tiles filled with a single color. The given image can be shared
+         * between tiles, so it should not be modified.
+         * 
+         * @param tile the blank tile
+         * @param tileImage the image of the tile
+         * @param argb the color of all pixels of the tile; all fully
+         *        transparent tiles have the color 0
+         * @param tileFormat the format of the tile
+         */
+        void onBlankTile(
+            TileInfo tile,
+            BufferedImage tileImage,
+            int argb,
+            TileFormat tileFormat);
+
+    }
+
+    /**
+     * Listeners of this type are notified about each generated tile. If the
+     * generator uses an executor (see
+     * {@link AbstractImageTilesGenerator#setExecutor(java.util.concurrent.Executor)}
+     * ) then tiles are delivered concurrently from multiple threads and
+     * listener implementations should be thread-safe.
+     */
     public interface ITileImageListener {
 
         void onTile(
@@ -81,6 +166,191 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
 
     }
 
+    /**
+     * This listener builds tiles of lower zoom levels from tiles of the next
+     * zoom level. Each received tile is averaged into the corresponding
+     * quadrant of its parent tile immediately, so only incomplete parent tiles
+     * are kept in memory. When all children of a parent tile are received the
+     * parent is delivered to the target listener and merged in its own parent.
+     */
+    private class PyramidBuilder implements ITileImageListener {
+
+        /**
+         * Roots of tile trees already checked in the checkpoint; values are
+         * <code>true</code> if all tiles of the tree are completed.
+         */
+        private final Map<TileInfo, Boolean> fDoneTrees = new HashMap<TileInfo, Boolean>();
+
+        private final int fMinZoomLevel;
+
+        private final Map<TileInfo, PyramidTile> fParents = new HashMap<TileInfo, PyramidTile>();
+
+        private final TileRange[] fRanges;
+
+        private final ITileImageListener fTarget;
+
+        public PyramidBuilder(
+            ITileImageListener target,
+            int minZoomLevel,
+            TileRange[] ranges) {
+            fTarget = target;
+            fMinZoomLevel = minZoomLevel;
+            fRanges = ranges;
+        }
+
+        /**
+         * Delivers the specified tile to the target listener and merges it in
+         * the parent tile.
+         * 
+         * @param tile the tile to add
+         * @param tileImage the image of the tile
+         */
+        public void addTile(TileInfo tile, BufferedImage tileImage) {
+            notifyTile(fTarget, tile, tileImage);
+            int zoom = tile.getZoom();
+            if (zoom <= fMinZoomLevel) {
+                return;
+            }
+            TileInfo parent = new TileInfo(
+                tile.getY() >> 1,
+                tile.getX() >> 1,
+                zoom - 1);
+            TileRange parentRange = getRange(zoom - 1);
+            if (!parentRange.contains(parent)) {
+                return;
+            }
+            PyramidTile parentTile;
+            synchronized (this) {
+                parentTile = fParents.get(parent);
+                if (parentTile == null) {
+                    int childrenNumber = getRange(zoom).getChildrenNumber(
+                        parent);
+                    parentTile = new PyramidTile(
+                        newEmptyTile(),
+                        childrenNumber);
+                    fParents.put(parent, parentTile);
+                }
+            }
+            int half = fTileSize / 2;
+            long start = System.nanoTime();
+            RasterUtils.downsample2x2(
+                tileImage,
+                parentTile.fImage,
+                (tile.getX() & 1) * half,
+                (tile.getY() & 1) * half);
+            ITileMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.onStage(
+                    ITileMetrics.Stage.RENDER,
+                    zoom - 1,
+                    half * half,
+                    System.nanoTime() - start);
+            }
+            boolean complete;
+            synchronized (this) {
+                parentTile.fCount++;
+                complete = parentTile.fCount == parentTile.fChildrenNumber;
+                if (complete) {
+                    fParents.remove(parent);
+                }
+            }
+            if (complete) {
+                try {
+                    addTile(parent, parentTile.fImage);
+                } finally {
+                    releaseTile(parentTile.fImage);
+                }
+            }
+        }
+
+        public TileRange getRange(int zoom) {
+            return fRanges[zoom - fMinZoomLevel];
+        }
+
+        /**
+         * Returns <code>true</code> if all tiles of the tree containing the
+         * specified tile are completed. Completed tiles of incomplete trees
+         * are generated again because they are required to build their
+         * ancestors.
+         * 
+         * @param checkpoint the checkpoint with completed tiles
+         * @param tile the tile to check
+         * @return <code>true</code> if the tree of the tile is completed
+         */
+        public synchronized boolean isDone(
+            TileCheckpoint checkpoint,
+            TileInfo tile) {
+            TileInfo root = tile;
+            while (root.getZoom() > fMinZoomLevel) {
+                int zoom = root.getZoom() - 1;
+                int y = root.getY() >> 1;
+                int x = root.getX() >> 1;
+                if (!getRange(zoom).contains(y, x)) {
+                    break;
+                }
+                root = new TileInfo(y, x, zoom);
+            }
+            Boolean done = fDoneTrees.get(root);
+            if (done == null) {
+                done = isTreeDone(checkpoint, root);
+                fDoneTrees.put(root, done);
+            }
+            return done;
+        }
+
+        public synchronized boolean isEmpty() {
+            return fParents.isEmpty();
+        }
+
+        private boolean isTreeDone(TileCheckpoint checkpoint, TileInfo tile) {
+            if (!checkpoint.isDone(tile)) {
+                return false;
+            }
+            int zoom = tile.getZoom() + 1;
+            if (zoom - fMinZoomLevel >= fRanges.length) {
+                return true;
+            }
+            TileRange childRange = getRange(zoom);
+            int y = tile.getY() << 1;
+            int x = tile.getX() << 1;
+            for (int i = 0; i < 4; i++) {
+                int childY = y + (i >> 1);
+                int childX = x + (i & 1);
+                if (childRange.contains(childY, childX)
+                    && !isTreeDone(
+                        checkpoint,
+                        new TileInfo(childY, childX, zoom))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void onTile(
+            TileInfo tile,
+            BufferedImage tileImage,
+            TileFormat tileFormat) {
+            addTile(tile, tileImage);
+        }
+    }
+
+    /**
+     * An incomplete parent tile built by the {@link PyramidBuilder}.
+     */
+    private static class PyramidTile {
+
+        private final int fChildrenNumber;
+
+        private int fCount;
+
+        private final BufferedImage fImage;
+
+        public PyramidTile(BufferedImage image, int childrenNumber) {
+            fImage = image;
+            fChildrenNumber = childrenNumber;
+        }
+    }
+
     public static enum TileFormat {
 
         JPG("jpg"), PNG("png");
@@ -110,6 +380,13 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
         }
     }
 
+    /**
+     * The maximal reduction factor handled by the raster fast path. The box
+     * filter reads all pixels of the source area, so for bigger factors it
+     * becomes slower than the bicubic interpolation of {@link Graphics2D}.
+     */
+    private static final int MAX_RASTER_FACTOR = 4;
+
     public static BufferedImage readImage(InputStream input) throws IOException {
         try {
             ImageInputStream imageInput = ImageIO.createImageInputStream(input);
@@ -120,12 +397,39 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
         }
     }
 
+    /**
+     * Writes the specified image in the given format and closes the output
+     * stream. Images in tile formats (see {@link TileFormat}) are written by a
+     * {@link TileEncoder} created for this call; other formats are written by
+     * {@link ImageIO}. Writers of many tiles should keep their own encoder
+     * instead (see {@link TileDataWriter#getTileEncoder()}).
+     * 
+     * @param image the image to write
+     * @param output the output stream
+     * @param format the name of the format
+     * @throws IOException
+     */
     public static void writeImage(
         BufferedImage image,
         OutputStream output,
         String format) throws IOException {
         try {
-            ImageIO.write(image, format, output);
+            TileFormat tileFormat = null;
+            for (TileFormat f : TileFormat.values()) {
+                if (f.toString().equalsIgnoreCase(format)) {
+                    tileFormat = f;
+                }
+            }
+            if (tileFormat != null) {
+                TileEncoder encoder = new TileEncoder();
+                try {
+                    encoder.encode(image, tileFormat, output);
+                } finally {
+                    encoder.close();
+                }
+            } else {
+                ImageIO.write(image, format, output);
+            }
         } finally {
             output.close();
         }
@@ -133,16 +437,94 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
 
     private Color fBackgroundColor;
 
-    private BufferedImage fImage;
+    /**
+     * A shared read-only tile filled with the background color.
+     */
+    private BufferedImage fBlankTile;
+
+    /**
+     * The image (or the currently loaded band of the image) used as the source
+     * of tiles.
+     */
+    private BufferedImage fBand;
+
+    /**
+     * Position of the current band on the image.
+     */
+    private ImagePoint fBandLeftTop = new ImagePoint(0, 0);
+
+    private int fBandSubsampling = 1;
+
+    private final BufferedImage fImage;
 
-    private ITileImageListener fListener;
+    /**
+     * The listener of the current generation. It is read by executor threads
+     * when tiles are copied in parallel.
+     */
+    private volatile ITileImageListener fListener;
+
+    private boolean fPyramidMode;
+
+    private boolean fRasterFastPath = true;
+
+    private ITileResampler fResampler;
+
+    /**
+     * Resamplers defined for individual zoom levels.
+     */
+    private final Map<Integer, ITileResampler> fResamplers = new HashMap<Integer, ITileResampler>();
+
+    private final IImageSource fSource;
 
     private TileFormat fTileFormat = TileFormat.JPG;
 
-    private Image fTileTemplate;
+    /**
+     * The value of background pixels of tiles; it is calculated for the
+     * current background color and tile format.
+     */
+    private Integer fTileBackground;
+
+    private TileBufferPool fTileBufferPool;
 
     public ImageTilesGenerator(BufferedImage image) {
-        fImage = image;
+        this(new BufferedImageSource(image));
+    }
+
+    /**
+     * Creates a new generator for the specified image source. If the source
+     * does not keep the whole image in memory then tiles are generated band by
+     * band and only the current band of the image is loaded.
+     * 
+     * @param source the source of the image
+     */
+    public ImageTilesGenerator(IImageSource source) {
+        fSource = source;
+        fImage = source.getImage();
+        fBand = fImage;
+    }
+
+    /**
+     * Adds a tile filled with the background color to the pyramid.
+     */
+    private void addEmptyTile(PyramidBuilder builder, TileInfo tile) {
+        BufferedImage tileImage = newEmptyTile();
+        try {
+            builder.addTile(tile, tileImage);
+        } finally {
+            releaseTile(tileImage);
+        }
+    }
+
+    /**
+     * Listeners implementing the {@link TilesLoader.ILoadListener} interface
+     * are notified about ranges of tiles before they are generated.
+     * 
+     * @see org.ubimix.commons.geo.AbstractImageTilesGenerator#beginRange(org.ubimix.commons.geo.TileRange)
+     */
+    @Override
+    protected void beginRange(TileRange range) {
+        super.beginRange(range);
+        notifyRange(range, true);
     }
 
     @Override
@@ -154,35 +536,153 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
         ImagePoint sourceBottomRight,
         ImagePoint targetLeftTop,
         ImagePoint targetBottomRight) {
+        boolean empty = targetLeftTop.getX() == targetBottomRight.getX()
+            || targetLeftTop.getY() == targetBottomRight.getY();
+        IBlankTileListener blankListener = getBlankTileListener(fListener);
+        if (empty && blankListener != null) {
+            BufferedImage blankTile = getBlankTile();
+            blankListener.onBlankTile(
+                tile,
+                blankTile,
+                toBlankColor(blankTile.getRGB(0, 0)),
+                fTileFormat);
+            return;
+        }
+        long start = System.nanoTime();
         BufferedImage tileImage = newEmptyTile();
-        Graphics2D g = tileImage.createGraphics();
-        try {
-            if (targetLeftTop.getX() != targetBottomRight.getX()
-                && targetLeftTop.getY() != targetBottomRight.getY()) {
-                g.setRenderingHint(
-                    RenderingHints.KEY_INTERPOLATION,
-                    RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-                g.setRenderingHint(
-                    RenderingHints.KEY_ALPHA_INTERPOLATION,
-                    RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-                g.setComposite(AlphaComposite.SrcOver);
-                ImageObserver observer = null;
-                g.drawImage(
-                    fImage,
-                    (int) targetLeftTop.getX(),
-                    (int) targetLeftTop.getY(),
-                    (int) targetBottomRight.getX(),
-                    (int) targetBottomRight.getY(),
-                    (int) sourceLeftTop.getX(),
-                    (int) sourceLeftTop.getY(),
-                    (int) sourceBottomRight.getX(),
-                    (int) sourceBottomRight.getY(),
-                    observer);
+        if (!empty) {
+            int sub = fBandSubsampling;
+            long left = fBandLeftTop.getX();
+            long top = fBandLeftTop.getY();
+            int sx1 = (int) ((sourceLeftTop.getX() - left) / sub);
+            int sy1 = (int) ((sourceLeftTop.getY() - top) / sub);
+            int sx2 = (int) ((sourceBottomRight.getX() - left + sub - 1) / sub);
+            int sy2 = (int) ((sourceBottomRight.getY() - top + sub - 1) / sub);
+            int tx1 = (int) targetLeftTop.getX();
+            int ty1 = (int) targetLeftTop.getY();
+            int tx2 = (int) targetBottomRight.getX();
+            int ty2 = (int) targetBottomRight.getY();
+            ITileResampler resampler = getResampler(tile.getZoom());
+            boolean copied = false;
+            if (fRasterFastPath) {
+                int factor = getRasterFactor(
+                    sourceTileSize,
+                    targetTileSize * sub);
+                // Reductions of explicitly defined resamplers are not
+                // replaced by the box filter of the fast path
+                if (resampler == null || factor == 1) {
+                    copied = copyRaster(
+                        factor,
+                        sx1,
+                        sy1,
+                        tileImage,
+                        tx1,
+                        ty1,
+                        tx2 - tx1,
+                        ty2 - ty1);
+                }
             }
+            if (!copied) {
+                if (resampler == null) {
+                    resampler = GraphicsResampler.BICUBIC;
+                }
+                resampler.resample(
+                    fBand,
+                    sx1,
+                    sy1,
+                    sx2,
+                    sy2,
+                    tileImage,
+                    tx1,
+                    ty1,
+                    tx2,
+                    ty2);
+            }
+            ITileMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.onStage(
+                    ITileMetrics.Stage.RENDER,
+                    tile.getZoom(),
+                    (long) (tx2 - tx1) * (ty2 - ty1),
+                    System.nanoTime() - start);
+            }
+        }
+        try {
+            notifyTile(fListener, tile, tileImage);
         } finally {
-            g.dispose();
+            releaseTile(tileImage);
+        }
+    }
+
+    /**
+     * Listeners implementing the {@link TilesLoader.ILoadListener} interface
+     * are notified when all tiles of a range are generated.
+     * 
+     * @see org.ubimix.commons.geo.AbstractImageTilesGenerator#endRange(org.ubimix.commons.geo.TileRange)
+     */
+    @Override
+    protected void endRange(TileRange range) {
+        super.endRange(range);
+        notifyRange(range, false);
+    }
+
+    /**
+     * Copies the specified area of the current band in the tile directly
+     * using image pixel arrays. This method returns <code>false</code> if the
+     * area can not be copied without a general resampling.
+     * 
+     * @param factor the reduction factor of the area; see
+     *        {@link #getRasterFactor(int, int)}
+     * @param sourceX the X coordinate of the area in the band
+     * @param sourceY the Y coordinate of the area in the band
+     * @param tileImage the tile image
+     * @param targetX the X coordinate of the area in the tile
+     * @param targetY the Y coordinate of the area in the tile
+     * @param width the width of the area in the tile
+     * @param height the height of the area in the tile
+     * @return <code>true</code> if the area was copied
+     */
+    private boolean copyRaster(
+        int factor,
+        int sourceX,
+        int sourceY,
+        BufferedImage tileImage,
+        int targetX,
+        int targetY,
+        int width,
+        int height) {
+        if (factor <= 0) {
+            return false;
+        }
+        // Without an alpha channel in the source image (or with a fully
+        // transparent tile) the "source over" composition just replaces
+        // pixels of the tile.
+        boolean replace = !fBand.getColorModel().hasAlpha()
+            || (fBackgroundColor == null && fTileFormat == TileFormat.PNG);
+        if (!replace) {
+            return false;
         }
-        fListener.onTile(tile, tileImage, fTileFormat);
+        if (factor == 1) {
+            return RasterUtils.copy(
+                fBand,
+                sourceX,
+                sourceY,
+                width,
+                height,
+                tileImage,
+                targetX,
+                targetY);
+        }
+        return RasterUtils.downsample(
+            fBand,
+            sourceX,
+            sourceY,
+            factor,
+            tileImage,
+            targetX,
+            targetY,
+            width,
+            height);
     }
 
     public void generateTiles(
@@ -191,10 +691,7 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
         final ITileImageListener listener) {
         fListener = listener;
         try {
-            generateTiles(
-                minZoomLevel,
-                maxZoomLevel,
-                new ImagePoint(fImage.getHeight(), fImage.getWidth()));
+            generateTiles(minZoomLevel, maxZoomLevel, getImageSize());
         } finally {
             fListener = null;
         }
@@ -205,83 +702,698 @@ public class ImageTilesGenerator extends AbstractImageTilesGenerator {
         final ITileImageListener listener) {
         fListener = listener;
         try {
-            generateTiles(maxZoomLevel, new ImagePoint(
-                fImage.getHeight(),
-                fImage.getWidth()));
+            generateTiles(maxZoomLevel, getImageSize());
+        } finally {
+            fListener = null;
+        }
+    }
+
+    /**
+     * Generates only tiles of the specified ranges. Tiles of all ranges are
+     * rendered directly from the image, even in the pyramid mode.
+     * 
+     * @param ranges ranges of tiles to generate
+     * @param listener the listener receiving generated tiles
+     */
+    public void generateTiles(
+        Collection<TileRange> ranges,
+        final ITileImageListener listener) {
+        fListener = listener;
+        try {
+            generateTiles(ranges, getImageSize());
         } finally {
             fListener = null;
         }
     }
 
+    /**
+     * Generates only tiles intersecting the specified geographic areas (for
+     * example a bounding box of a district on a big scan). Each area is
+     * defined by a pair of its opposite corners. On each zoom level only
+     * tiles of ranges returned by
+     * {@link #getTileRanges(int, ImagePoint, GeoPoint...)} are rendered, so
+     * the cost is proportional to the size of areas and not to the size of
+     * the image. Tiles are rendered directly from the image, even in the
+     * pyramid mode.
+     * 
+     * @param minZoomLevel the minimal zoom level to generate
+     * @param maxZoomLevel the maximal zoom level to generate
+     * @param listener the listener receiving generated tiles
+     * @param areas pairs of points defining geographic areas
+     */
+    public void generateTiles(
+        int minZoomLevel,
+        int maxZoomLevel,
+        ITileImageListener listener,
+        GeoPoint... areas) {
+        ImagePoint imageSize = getImageSize();
+        List<TileRange> ranges = new ArrayList<TileRange>();
+        for (int zoom = minZoomLevel; zoom <= maxZoomLevel; zoom++) {
+            ranges.addAll(getTileRanges(zoom, imageSize, areas));
+        }
+        generateTiles(ranges, listener);
+    }
+
+    /**
+     * Generates only tiles intersecting the specified areas of the image.
+     * Areas are defined by pairs of points: the top-left corner (inclusive)
+     * and the bottom-right corner (exclusive) of each area. Tiles are
+     * rendered directly from the image, even in the pyramid mode.
+     * 
+     * @param minZoomLevel the minimal zoom level to generate
+     * @param maxZoomLevel the maximal zoom level to generate
+     * @param listener the listener receiving generated tiles
+     * @param areas pairs of points defining areas of the image
+     * @see #generateTiles(int, int, ITileImageListener, GeoPoint...)
+     */
+    public void generateTiles(
+        int minZoomLevel,
+        int maxZoomLevel,
+        ITileImageListener listener,
+        ImagePoint... areas) {
+        ImagePoint imageSize = getImageSize();
+        List<TileRange> ranges = new ArrayList<TileRange>();
+        for (int zoom = minZoomLevel; zoom <= maxZoomLevel; zoom++) {
+            ranges.addAll(getTileRanges(zoom, imageSize, areas));
+        }
+        generateTiles(ranges, listener);
+    }
+
     public void generateTiles(final ITileImageListener listener) {
         fListener = listener;
         try {
-            generateTiles(new ImagePoint(fImage.getHeight(), fImage.getWidth()));
+            generateTiles(getImageSize());
         } finally {
             fListener = null;
         }
     }
 
+    /**
+     * Generates tiles of the specified zoom level and all descendants of this
+     * tile down to the base zoom level. Tiles of the base level are rendered
+     * from the image; all other tiles are built by the pyramid builder from
+     * their children. Tiles are visited in the quad-tree order, so sibling
+     * tiles are rendered one after another.
+     */
+    private void generatePyramidTiles(
+        PyramidBuilder builder,
+        int baseZoomLevel,
+        ImagePoint imageSize,
+        TileInfo tile) {
+        int zoom = tile.getZoom();
+        if (zoom == baseZoomLevel) {
+            generateTile(imageSize, tile);
+            return;
+        }
+        TileRange childRange = builder.getRange(zoom + 1);
+        if (childRange.getChildrenNumber(tile) == 0) {
+            addEmptyTile(builder, tile);
+            return;
+        }
+        int y = tile.getY() << 1;
+        int x = tile.getX() << 1;
+        for (int i = 0; i < 4; i++) {
+            int childY = y + (i >> 1);
+            int childX = x + (i & 1);
+            if (childRange.contains(childY, childX)) {
+                TileInfo child = new TileInfo(childY, childX, zoom + 1);
+                generatePyramidTiles(builder, baseZoomLevel, imageSize, child);
+            }
+        }
+    }
+
+    /**
+     * In the pyramid mode only the base zoom level (the image zoom level or
+     * the maximal zoom level if it is less than the image level) and higher
+     * levels are rendered from the image; all lower levels are built from
+     * tiles of the next level.
+     * 
+     * @see org.ubimix.commons.geo.AbstractImageTilesGenerator#generateZoomLevels(int,
+     *      int, org.ubimix.commons.geo.ImagePoint)
+     */
+    @Override
+    protected void generateZoomLevels(
+        int minZoomLevel,
+        int maxZoomLevel,
+        ImagePoint imageSize) {
+        int baseZoomLevel = Math.min(maxZoomLevel, getImageZoomLevel());
+        if (!fPyramidMode || baseZoomLevel <= minZoomLevel) {
+            super.generateZoomLevels(minZoomLevel, maxZoomLevel, imageSize);
+            return;
+        }
+        TileRange[] ranges = new TileRange[baseZoomLevel - minZoomLevel + 1];
+        for (int zoom = minZoomLevel; zoom <= baseZoomLevel; zoom++) {
+            ranges[zoom - minZoomLevel] = getTileRange(zoom, imageSize);
+        }
+        for (TileRange range : ranges) {
+            beginRange(range);
+        }
+        ITileImageListener listener = fListener;
+        PyramidBuilder builder = new PyramidBuilder(
+            listener,
+            minZoomLevel,
+            ranges);
+        fListener = builder;
+        try {
+            if (isBandProcessing()) {
+                generatePyramidBands(builder, baseZoomLevel, imageSize);
+            } else {
+                generatePyramidTrees(builder, baseZoomLevel, imageSize);
+            }
+            awaitTiles();
+        } finally {
+            awaitTilesQuietly();
+            fListener = listener;
+        }
+        if (!builder.isEmpty()) {
+            throw new IllegalStateException("Some pyramid tiles are incomplete.");
+        }
+        for (TileRange range : ranges) {
+            endRange(range);
+        }
+        if (baseZoomLevel < maxZoomLevel) {
+            super.generateZoomLevels(baseZoomLevel + 1, maxZoomLevel, imageSize);
+        }
+    }
+
+    /**
+     * Generates tiles of the base zoom level band by band and adds empty tiles
+     * for all tiles of lower levels without children.
+     */
+    private void generatePyramidBands(
+        PyramidBuilder builder,
+        int baseZoomLevel,
+        ImagePoint imageSize) {
+        generateZoomLevel(baseZoomLevel, imageSize);
+        for (int zoom = baseZoomLevel - 1; zoom >= builder.fMinZoomLevel; zoom--) {
+            TileRange range = builder.getRange(zoom);
+            TileRange childRange = builder.getRange(zoom + 1);
+            for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+                for (int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                    TileInfo tile = new TileInfo(y, x, zoom);
+                    if (childRange.getChildrenNumber(tile) == 0
+                        && !isDone(tile)) {
+                        addEmptyTile(builder, tile);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates all pyramid tiles in the quad-tree order.
+     */
+    private void generatePyramidTrees(
+        PyramidBuilder builder,
+        int baseZoomLevel,
+        ImagePoint imageSize) {
+        int minZoomLevel = builder.fMinZoomLevel;
+        // Each tile without a parent in the range of the previous zoom
+        // level is a root of an independent tile tree.
+        for (int zoom = minZoomLevel; zoom <= baseZoomLevel; zoom++) {
+            TileRange range = builder.getRange(zoom);
+            TileRange parentRange = zoom > minZoomLevel ? builder
+                .getRange(zoom - 1) : null;
+            for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+                for (int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                    if (parentRange != null
+                        && parentRange.contains(y >> 1, x >> 1)) {
+                        continue;
+                    }
+                    TileInfo tile = new TileInfo(y, x, zoom);
+                    if (isDone(tile)) {
+                        continue;
+                    }
+                    generatePyramidTiles(
+                        builder,
+                        baseZoomLevel,
+                        imageSize,
+                        tile);
+                }
+            }
+        }
+    }
+
     public Color getBackgroundColor() {
         return fBackgroundColor;
     }
 
-    public TileFormat getTileFormat() {
-        return fTileFormat;
+    /**
+     * Returns the specified listener if it accepts blank tiles separately;
+     * otherwise returns <code>null</code>.
+     */
+    private static IBlankTileListener getBlankTileListener(
+        ITileImageListener listener) {
+        if (listener instanceof IBlankTileListener
+            && ((IBlankTileListener) listener).isBlankTilesEnabled()) {
+            return (IBlankTileListener) listener;
+        }
+        return null;
     }
 
-    private Image getTileTemplate() {
-        if (fTileTemplate == null) {
-            BufferedImage tileImage = new BufferedImage(
+    /**
+     * Returns a tile filled with the background color. This tile is shared
+     * between all blank tiles, so it should not be modified.
+     */
+    private synchronized BufferedImage getBlankTile() {
+        if (fBlankTile == null || fBlankTile.getWidth() != fTileSize) {
+            int background = getTileBackground();
+            BufferedImage tile = new BufferedImage(
                 fTileSize,
                 fTileSize,
-                BufferedImage.TYPE_INT_RGB);
-            final ImageFilter filter = new RGBImageFilter() {
-                @Override
-                public final int filterRGB(
-                    final int x,
-                    final int y,
-                    final int rgb) {
-                    return 0x00FFFFFF & rgb;
+                getTileType());
+            int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer())
+                .getData();
+            Arrays.fill(pixels, background);
+            fBlankTile = tile;
+        }
+        return fBlankTile;
+    }
+
+    /**
+     * @return the size of the image split to tiles
+     */
+    public ImagePoint getImageSize() {
+        return fSource.getImageSize();
+    }
+
+    /**
+     * @return the source of the image split to tiles
+     */
+    public IImageSource getImageSource() {
+        return fSource;
+    }
+
+    public TileFormat getTileFormat() {
+        return fTileFormat;
+    }
+
+    /**
+     * Returns the reduction factor between source and target tile sizes if it
+     * is a power of two not greater than {@link #MAX_RASTER_FACTOR}; otherwise
+     * this method returns 0.
+     * 
+     * @param sourceTileSize the size of the source tile
+     * @param targetTileSize the size of the target tile
+     * @return the reduction factor or 0
+     */
+    private static int getRasterFactor(int sourceTileSize, int targetTileSize) {
+        if (targetTileSize <= 0 || sourceTileSize % targetTileSize != 0) {
+            return 0;
+        }
+        int factor = sourceTileSize / targetTileSize;
+        return factor <= MAX_RASTER_FACTOR && (factor & (factor - 1)) == 0
+            ? factor
+            : 0;
+    }
+
+    /**
+     * Returns the value of background pixels of tiles. This value is
+     * calculated once by filling a one-pixel image of the tile type with the
+     * background color.
+     */
+    private synchronized int getTileBackground() {
+        if (fTileBackground == null) {
+            int pixel = 0;
+            Color canvasColor = getBackgroundColor();
+            if (canvasColor != null) {
+                BufferedImage image = new BufferedImage(1, 1, getTileType());
+                Graphics2D g = image.createGraphics();
+                try {
+                    g.setColor(canvasColor);
+                    g.fillRect(0, 0, 1, 1);
+                } finally {
+                    g.dispose();
                 }
-            };
-            final ImageProducer ip = new FilteredImageSource(
-                tileImage.getSource(),
-                filter);
-            fTileTemplate = Toolkit.getDefaultToolkit().createImage(ip);
+                pixel = ((DataBufferInt) image.getRaster().getDataBuffer())
+                    .getData()[0];
+            }
+            fTileBackground = pixel;
         }
-        return fTileTemplate;
+        return fTileBackground;
     }
 
+    /**
+     * Returns the pool of tile images or <code>null</code> if tile images are
+     * not reused.
+     * 
+     * @return the pool of tile images
+     */
+    public TileBufferPool getTileBufferPool() {
+        return fTileBufferPool;
+    }
+
+    @Override
+    protected long getTileBytes() {
+        int tileSize = getTileSize();
+        return MemoryBudget.getImageBytes(tileSize, tileSize, getTileType());
+    }
+
+    private int getTileType() {
+        return fTileFormat == TileFormat.JPG
+            ? BufferedImage.TYPE_INT_RGB
+            : BufferedImage.TYPE_INT_ARGB;
+    }
+
+    @Override
+    protected void loadBand(
+        int zoomLevel,
+        ImagePoint leftTop,
+        ImagePoint bottomRight,
+        int subsampling) {
+        try {
+            fBand = fSource.readRegion(leftTop, bottomRight, subsampling);
+            fBandLeftTop = leftTop;
+            fBandSubsampling = subsampling;
+        } catch (IOException e) {
+            throw new RuntimeException("Can not read the image region "
+                + leftTop
+                + " - "
+                + bottomRight
+                + ".", e);
+        }
+    }
+
+    /**
+     * Notifies the listener about the range of tiles if it implements the
+     * {@link TilesLoader.ILoadListener} interface.
+     */
+    private void notifyRange(TileRange range, boolean begin) {
+        ITileImageListener listener = fListener;
+        if (!(listener instanceof TilesLoader.ILoadListener)) {
+            return;
+        }
+        TilesLoader.ILoadListener loadListener;
+        loadListener = (TilesLoader.ILoadListener) listener;
+        TileInfo minTile = range.getFirstTile();
+        TileInfo maxTile = range.getLastTile();
+        GeoPoint min = minTile.getTopLeftCoordinates();
+        GeoPoint max = maxTile.getBottomRightCoordinates();
+        if (begin) {
+            loadListener.begin(minTile, maxTile, min, max);
+        } else {
+            loadListener.end(minTile, maxTile, min, max);
+        }
+    }
+
+    /**
+     * Returns a new tile image filled with the background color. If a tile
+     * pool is defined then the image is taken from the pool.
+     * 
+     * @return a new tile image
+     */
     private BufferedImage newEmptyTile() {
-        int imageType = BufferedImage.TYPE_INT_ARGB;
-        if (fTileFormat == TileFormat.JPG) {
-            imageType = BufferedImage.TYPE_INT_RGB;
+        int background = getTileBackground();
+        int imageType = getTileType();
+        TileBufferPool pool = fTileBufferPool;
+        if (pool != null) {
+            return pool.acquire(fTileSize, fTileSize, imageType, background);
         }
         BufferedImage tile = new BufferedImage(fTileSize, fTileSize, imageType);
-        Color canvasColor = getBackgroundColor();
-        Graphics2D g = tile.createGraphics();
-        try {
-            if (canvasColor != null) {
-                g.setColor(canvasColor);
-                g.fillRect(0, 0, fTileSize, fTileSize);
-            } else if (fTileFormat == TileFormat.PNG) {
-                Image template = getTileTemplate();
-                final Graphics2D g2 = tile.createGraphics();
-                g2.drawImage(template, 0, 0, null);
-            }
-        } finally {
-            g.dispose();
+        if (background != 0) {
+            int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer())
+                .getData();
+            Arrays.fill(pixels, background);
         }
         return tile;
     }
 
-    public void setBackgroundColor(Color backgroundColor) {
+    /**
+     * Tiles are generated band by band if the image source does not keep the
+     * whole image in memory.
+     * 
+     * @see org.ubimix.commons.geo.AbstractImageTilesGenerator#isBandProcessing()
+     */
+    @Override
+    protected boolean isBandProcessing() {
+        return fImage == null;
+    }
+
+    /**
+     * In the pyramid mode tiles are skipped only if all tiles of their tree
+     * are completed.
+     * 
+     * @see org.ubimix.commons.geo.AbstractImageTilesGenerator#isDone(org.ubimix.commons.geo.TileInfo)
+     */
+    @Override
+    protected boolean isDone(TileInfo tile) {
+        TileCheckpoint checkpoint = getCheckpoint();
+        if (checkpoint == null) {
+            return false;
+        }
+        ITileImageListener listener = fListener;
+        if (listener instanceof PyramidBuilder) {
+            return ((PyramidBuilder) listener).isDone(checkpoint, tile);
+        }
+        return checkpoint.isDone(tile);
+    }
+
+    /**
+     * In the pyramid mode ranges are checked tile by tile.
+     * 
+     * @see org.ubimix.commons.geo.AbstractImageTilesGenerator#isDone(org.ubimix.commons.geo.TileRange)
+     */
+    @Override
+    protected boolean isDone(TileRange range) {
+        TileCheckpoint checkpoint = getCheckpoint();
+        if (checkpoint == null) {
+            return false;
+        }
+        ITileImageListener listener = fListener;
+        if (!(listener instanceof PyramidBuilder)) {
+            return checkpoint.isDone(range);
+        }
+        PyramidBuilder builder = (PyramidBuilder) listener;
+        int zoom = range.getZoom();
+        for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+            for (int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                if (!builder.isDone(checkpoint, new TileInfo(y, x, zoom))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if tiles of lower zoom levels are built from
+     * tiles of higher levels instead of being rendered from the full image.
+     * 
+     * @return <code>true</code> if the pyramid mode is activated
+     */
+    public boolean isPyramidMode() {
+        return fPyramidMode;
+    }
+
+    @Override
+    protected void releaseBand() {
+        fBand = fImage;
+        fBandLeftTop = new ImagePoint(0, 0);
+        fBandSubsampling = 1;
+    }
+
+    /**
+     * Delivers the specified tile to the given listener. If the listener
+     * accepts blank tiles and all pixels of the tile have the same color then
+     * the tile is delivered as a blank one.
+     * 
+     * @param listener the listener to notify
+     * @param tile the tile to deliver
+     * @param tileImage the image of the tile
+     */
+    private void notifyTile(
+        ITileImageListener listener,
+        TileInfo tile,
+        BufferedImage tileImage) {
+        IBlankTileListener blankListener = getBlankTileListener(listener);
+        if (blankListener != null && RasterUtils.isUniform(tileImage)) {
+            blankListener.onBlankTile(
+                tile,
+                tileImage,
+                toBlankColor(tileImage.getRGB(0, 0)),
+                fTileFormat);
+        } else {
+            listener.onTile(tile, tileImage, fTileFormat);
+        }
+    }
+
+    /**
+     * Returns the specified tile image to the tile pool (if it is defined).
+     * 
+     * @param tileImage the image to release
+     */
+    private void releaseTile(BufferedImage tileImage) {
+        TileBufferPool pool = fTileBufferPool;
+        if (pool != null) {
+            pool.release(tileImage);
+        }
+    }
+
+    /**
+     * Returns the resampler used to render tiles of the specified zoom level.
+     * 
+     * @param zoom the zoom level of tiles
+     * @return the resampler of the zoom level or <code>null</code> if the
+     *         default bicubic interpolation is used
+     */
+    public ITileResampler getResampler(int zoom) {
+        ITileResampler resampler = fResamplers.get(zoom);
+        return resampler != null ? resampler : fResampler;
+    }
+
+    /**
+     * Returns <code>true</code> if tiles with the same scale as the image or
+     * reduced by a power of two are copied directly using pixel arrays.
+     * 
+     * @return <code>true</code> if the raster fast path is activated
+     */
+    public boolean isRasterFastPath() {
+        return fRasterFastPath;
+    }
+
+    /**
+     * Regenerates tiles affected by changes in the specified areas of the
+     * image. Areas are defined by pairs of points: the top-left corner
+     * (inclusive) and the bottom-right corner (exclusive) of each changed
+     * area. On each zoom level only tiles intersecting these areas are
+     * rendered, so the cost is proportional to the size of the changes and
+     * not to the size of the image.
+     * <p>
+     * All regenerated tiles are rendered directly from the image, even in the
+     * pyramid mode: building an ancestor from its children would require
+     * unchanged siblings which are not generated by this method.
+     * </p>
+     * 
+     * @param minZoomLevel the minimal zoom level to regenerate
+     * @param maxZoomLevel the maximal zoom level to regenerate
+     * @param listener the listener receiving regenerated tiles
+     * @param areas pairs of points defining changed areas of the image
+     */
+    public void regenerateTiles(
+        int minZoomLevel,
+        int maxZoomLevel,
+        ITileImageListener listener,
+        ImagePoint... areas) {
+        generateTiles(minZoomLevel, maxZoomLevel, listener, areas);
+    }
+
+    /**
+     * Regenerates tiles affected by changes in the specified areas of the
+     * image on all zoom levels generated by the
+     * {@link #generateTiles(int, ITileImageListener)} method.
+     * 
+     * @param maxZoomLevel the maximal zoom level to regenerate
+     * @param listener the listener receiving regenerated tiles
+     * @param areas pairs of points defining changed areas of the image
+     * @see #regenerateTiles(int, int, ITileImageListener, ImagePoint...)
+     */
+    public void regenerateTiles(
+        int maxZoomLevel,
+        ITileImageListener listener,
+        ImagePoint... areas) {
+        int minZoomLevel = getMinZoomLevel(maxZoomLevel, getImageSize());
+        regenerateTiles(minZoomLevel, maxZoomLevel, listener, areas);
+    }
+
+    public synchronized void setBackgroundColor(Color backgroundColor) {
         fBackgroundColor = backgroundColor;
+        fTileBackground = null;
+        fBlankTile = null;
+    }
+
+    /**
+     * Activates or deactivates the pyramid mode. In this mode only tiles of
+     * the image zoom level (and higher levels) are rendered from the image.
+     * Each tile of a lower zoom level is built by averaging 2x2 pixel blocks
+     * of its four children. It reduces the total rendering cost to about 4/3
+     * of the cost of the base level. Children are merged in their parents as
+     * soon as they are generated, so the memory used by the pyramid depends
+     * only on the number of zoom levels.
+     * 
+     * @param pyramidMode the pyramid mode flag
+     */
+    public void setPyramidMode(boolean pyramidMode) {
+        fPyramidMode = pyramidMode;
+    }
+
+    /**
+     * Activates or deactivates the raster fast path. When it is active tiles
+     * with the same scale as the image are copied with bulk array copies and
+     * tiles reduced two or four times are built with a box filter working
+     * directly on pixel arrays. All other tiles (and images with unsupported
+     * pixel layouts) are drawn by the resampler of their zoom level (see
+     * {@link #setResampler(ITileResampler)}). If a resampler is explicitly
+     * defined for a zoom level then only tiles with the same scale as the
+     * image are copied by the fast path.
+     * 
+     * @param rasterFastPath the raster fast path flag
+     */
+    public void setRasterFastPath(boolean rasterFastPath) {
+        fRasterFastPath = rasterFastPath;
+    }
+
+    /**
+     * Sets the resampler used to render tiles of the specified zoom levels.
+     * For example a fast resampler can be used for zoom levels close to the
+     * image level and a {@link LanczosResampler} for strong reductions. Tiles
+     * built from their children in the pyramid mode are not rendered by
+     * resamplers.
+     * 
+     * @param minZoom the minimal zoom level of tiles
+     * @param maxZoom the maximal zoom level of tiles
+     * @param resampler the resampler to set or <code>null</code> to use the
+     *        default resampler for these zoom levels
+     */
+    public void setResampler(
+        int minZoom,
+        int maxZoom,
+        ITileResampler resampler) {
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            if (resampler != null) {
+                fResamplers.put(zoom, resampler);
+            } else {
+                fResamplers.remove(zoom);
+            }
+        }
+    }
+
+    /**
+     * Sets the default resampler used to render tiles of all zoom levels
+     * without their own resampler.
+     * 
+     * @param resampler the resampler to set or <code>null</code> to use the
+     *        bicubic interpolation (see {@link GraphicsResampler#BICUBIC})
+     *        with the box filter of the raster fast path
+     */
+    public void setResampler(ITileResampler resampler) {
+        fResampler = resampler;
     }
 
-    public void setTileFormat(TileFormat tileFormat) {
+    /**
+     * Sets the pool used to reuse tile images. When a pool is defined each
+     * tile image is returned to the pool as soon as the tile listener
+     * returns, so listeners should not keep references to tile images after
+     * the end of the {@link ITileImageListener#onTile} call. If the pool is
+     * <code>null</code> then a new image is created for each tile.
+     * 
+     * @param tileBufferPool the pool of tile images
+     */
+    public void setTileBufferPool(TileBufferPool tileBufferPool) {
+        fTileBufferPool = tileBufferPool;
+    }
+
+    public synchronized void setTileFormat(TileFormat tileFormat) {
         fTileFormat = tileFormat != null ? tileFormat : TileFormat.JPG;
+        fTileBackground = null;
+        fBlankTile = null;
+    }
+
+    /**
+     * Returns the color reported for blank tiles; all fully transparent
+     * colors are replaced by 0.
+     */
+    private static int toBlankColor(int argb) {
+        return (argb >>> 24) == 0 ? 0 : argb;
     }
 
 }
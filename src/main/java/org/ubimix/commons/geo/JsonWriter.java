@@ -0,0 +1,369 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A minimal streaming JSON writer. Values are written directly to the
+ * underlying {@link Writer} as they are added, so documents of any size
+ * (like manifests of millions of tiles) are written without building them
+ * in memory. Each member of the root object is written on a separate line;
+ * all nested values are written without spaces. This class is not
+ * thread-safe.
+ * 
+ * @author kotelnikov
+ */
+public class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The maximal depth of nested objects and arrays.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The number of values written in each open object or array.
+     */
+    private final int[] fCounts = new int[MAX_DEPTH];
+
+    private int fDepth;
+
+    /**
+     * Buffer used to write digits of numbers.
+     */
+    private final char[] fDigits = new char[20];
+
+    /**
+     * This flag is <code>true</code> when a member name is written and its
+     * value is expected.
+     */
+    private boolean fName;
+
+    /**
+     * This flag defines if the open object or array of each level is an
+     * object.
+     */
+    private final boolean[] fObjects = new boolean[MAX_DEPTH];
+
+    private final Writer fWriter;
+
+    /**
+     * @param writer the writer receiving the JSON document
+     */
+    public JsonWriter(Writer writer) {
+        fWriter = writer;
+    }
+
+    /**
+     * Writes the separator required before the next value.
+     */
+    private void beforeValue() throws IOException {
+        if (fName) {
+            fName = false;
+            return;
+        }
+        if (fDepth > 0) {
+            if (fObjects[fDepth - 1]) {
+                throw new IllegalStateException("A member name is expected.");
+            }
+            if (fCounts[fDepth - 1]++ > 0) {
+                fWriter.write(',');
+            }
+        }
+    }
+
+    /**
+     * Starts a new array.
+     * 
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter beginArray() throws IOException {
+        return open('[', false);
+    }
+
+    /**
+     * Starts a new object.
+     * 
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter beginObject() throws IOException {
+        return open('{', true);
+    }
+
+    /**
+     * Closes the underlying writer.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        fWriter.close();
+    }
+
+    private JsonWriter close(char c, boolean object) throws IOException {
+        if (fDepth == 0 || fObjects[fDepth - 1] != object || fName) {
+            throw new IllegalStateException("Unexpected end of "
+                + (object ? "object" : "array")
+                + ".");
+        }
+        fDepth--;
+        if (fDepth == 0 && object) {
+            fWriter.write('\n');
+        }
+        fWriter.write(c);
+        return this;
+    }
+
+    /**
+     * Closes the current array.
+     * 
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter endArray() throws IOException {
+        return close(']', false);
+    }
+
+    /**
+     * Closes the current object.
+     * 
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter endObject() throws IOException {
+        return close('}', true);
+    }
+
+    /**
+     * Flushes the underlying writer.
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        fWriter.flush();
+    }
+
+    /**
+     * @return the underlying writer
+     */
+    public Writer getWriter() {
+        return fWriter;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     * 
+     * @param name the name of the member
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter name(String name) throws IOException {
+        if (fDepth == 0 || !fObjects[fDepth - 1] || fName) {
+            throw new IllegalStateException("A value is expected.");
+        }
+        if (fCounts[fDepth - 1]++ > 0) {
+            fWriter.write(',');
+        }
+        if (fDepth == 1) {
+            fWriter.write("\n  ");
+        }
+        writeString(name);
+        fWriter.write(':');
+        fName = true;
+        return this;
+    }
+
+    private JsonWriter open(char c, boolean object) throws IOException {
+        if (fDepth == MAX_DEPTH) {
+            throw new IllegalStateException("Too deep nesting.");
+        }
+        beforeValue();
+        fWriter.write(c);
+        fObjects[fDepth] = object;
+        fCounts[fDepth] = 0;
+        fDepth++;
+        return this;
+    }
+
+    /**
+     * Writes the specified object "as is" using its string representation.
+     * This method can be used to write values already serialized in JSON.
+     * 
+     * @param value the value to write
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter rawValue(Object value) throws IOException {
+        beforeValue();
+        fWriter.write(String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     * 
+     * @param value the value to write
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        fWriter.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a number. Infinite and NaN values are written as
+     * <code>null</code>.
+     * 
+     * @param value the value to write
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            fWriter.write("null");
+        } else {
+            fWriter.write(Double.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Writes an integer number.
+     * 
+     * @param value the value to write
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeNumber(value);
+        return this;
+    }
+
+    /**
+     * Writes a string; <code>null</code> values are written as
+     * <code>null</code>.
+     * 
+     * @param value the value to write
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            fWriter.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes bytes of the specified array as a string of hexadecimal digits.
+     * 
+     * @param value the bytes to write
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter valueHex(byte[] value) throws IOException {
+        beforeValue();
+        fWriter.write('"');
+        for (byte b : value) {
+            fWriter.write(HEX[(b >> 4) & 0xF]);
+            fWriter.write(HEX[b & 0xF]);
+        }
+        fWriter.write('"');
+        return this;
+    }
+
+    /**
+     * Writes digits of an integer number without intermediate strings. This
+     * method does not write separators, so it can be used to write numbers
+     * inside of strings (see {@link #writeRaw(char)}).
+     * 
+     * @param value the number to write
+     * @throws IOException
+     */
+    public void writeNumber(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            fWriter.write(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            fWriter.write('-');
+            value = -value;
+        }
+        int pos = fDigits.length;
+        do {
+            fDigits[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        fWriter.write(fDigits, pos, fDigits.length - pos);
+    }
+
+    /**
+     * Writes the specified character "as is". This method can be used with
+     * the {@link #writeNumber(long)} method to write strings composed of
+     * numbers; the caller is responsible for the validity of the document.
+     * 
+     * @param c the character to write
+     * @throws IOException
+     */
+    public void writeRaw(char c) throws IOException {
+        fWriter.write(c);
+    }
+
+    /**
+     * Writes the separator required before a value composed using
+     * {@link #writeRaw(char)} and {@link #writeNumber(long)} methods.
+     * 
+     * @return this writer
+     * @throws IOException
+     */
+    public JsonWriter writeSeparator() throws IOException {
+        beforeValue();
+        return this;
+    }
+
+    private void writeString(String str) throws IOException {
+        fWriter.write('"');
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    fWriter.write('\\');
+                    fWriter.write(c);
+                    break;
+                case '\n':
+                    fWriter.write("\\n");
+                    break;
+                case '\r':
+                    fWriter.write("\\r");
+                    break;
+                case '\t':
+                    fWriter.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        fWriter.write("\\u00");
+                        fWriter.write(HEX[(c >> 4) & 0xF]);
+                        fWriter.write(HEX[c & 0xF]);
+                    } else {
+                        fWriter.write(c);
+                    }
+            }
+        }
+        fWriter.write('"');
+    }
+
+}
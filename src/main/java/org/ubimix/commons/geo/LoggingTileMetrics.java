@@ -0,0 +1,78 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * These metrics periodically log the summary of counters. The summary is
+ * logged by the thread reporting a stage when the logging period is
+ * expired, so no additional thread is required. A summary is also logged
+ * when all tiles of a range are generated.
+ * 
+ * @author kotelnikov
+ */
+public class LoggingTileMetrics extends TileMetrics {
+
+    /**
+     * The default period between two summaries (in milliseconds).
+     */
+    public static final long DEFAULT_PERIOD = 10000;
+
+    private final static Logger log = Logger.getLogger(LoggingTileMetrics.class
+        .getName());
+
+    private final AtomicLong fNextLogTime;
+
+    private final long fPeriod;
+
+    public LoggingTileMetrics() {
+        this(DEFAULT_PERIOD);
+    }
+
+    /**
+     * @param period the period between two summaries (in milliseconds)
+     */
+    public LoggingTileMetrics(long period) {
+        fPeriod = period;
+        fNextLogTime = new AtomicLong(System.currentTimeMillis() + period);
+    }
+
+    @Override
+    public void endRange(TileRange range) {
+        super.endRange(range);
+        logSummary();
+    }
+
+    /**
+     * @return the period between two summaries (in milliseconds)
+     */
+    public long getPeriod() {
+        return fPeriod;
+    }
+
+    /**
+     * Logs the summary of counters.
+     */
+    public void logSummary() {
+        fNextLogTime.set(System.currentTimeMillis() + fPeriod);
+        if (log.isLoggable(Level.INFO)) {
+            log.info(getSummary());
+        }
+    }
+
+    @Override
+    public void onStage(Stage stage, int zoom, long amount, long nanos) {
+        super.onStage(stage, zoom, amount, nanos);
+        long next = fNextLogTime.get();
+        long now = System.currentTimeMillis();
+        // Only one of concurrent threads logs the summary
+        if (now >= next && fNextLogTime.compareAndSet(next, now + fPeriod)) {
+            logSummary();
+        }
+    }
+
+}
@@ -6,13 +6,20 @@ package org.ubimix.commons.geo;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.ubimix.commons.geo.ImageTilesGenerator.FileTileWriter;
+import org.ubimix.commons.geo.ImageTilesGenerator.ITileImageListener;
 import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
 
 /**
@@ -31,6 +38,34 @@ public class Main {
                 .println(" - dir (optional)    - the root directory for all generated tiles; default: './tmp'");
             System.out
                 .println(" - image (optional)  - the name of the image directory");
+            System.out
+                .println(" - threads (optional) - number of threads used to generate tiles; default: 1");
+            System.out
+                .println(" - pyramid (optional) - build lower zoom levels from tiles of higher levels; default: false");
+            System.out
+                .println(" - quality (optional) - quality of JPEG tiles (from 0 to 1); default: 0.75");
+            System.out
+                .println(" - pipeline (optional) - encode and write tiles in separate threads; default: false");
+            System.out
+                .println(" - streaming (optional) - decode the image band by band instead of loading it in memory; default: false");
+            System.out
+                .println(" - resume (optional) - record completed tiles and skip them when an interrupted run is restarted; default: false");
+            System.out
+                .println(" - memory (optional) - the memory budget of the generation (in MB); big images are streamed; default: not limited");
+            System.out
+                .println(" - metrics (optional) - log timings of generation stages; default: false");
+            System.out
+                .println(" - resampling (optional) - nearest, bilinear, bicubic, area or lanczos; default: bicubic with fast box reductions");
+            System.out
+                .println(" - cache (optional) - a raw pixel file decoded once and read from memory-mapped chunks by later runs");
+            System.out
+                .println(" - bbox (optional) - generate only tiles of the area lat1,lon1,lat2,lon2; default: the whole image");
+            System.out
+                .println(" - server (optional) - serve tiles rendered on demand on the given HTTP port instead of writing them");
+            System.out
+                .println(" - overzoom (optional) - do not store tiles above the image zoom level; they are derived from stored tiles when read; the manifest lists them in the overzoom member, not in maxzoom; default: false");
+            System.out
+                .println(" - manifest (optional) - write a TileJSON manifest listing paths, sizes and SHA-1 hashes of tiles to the given file");
             System.exit(-1);
         }
         new Main(args).run();
@@ -88,6 +123,53 @@ public class Main {
         return name;
     }
 
+    /**
+     * Returns a tag identifying the current version of the image with the
+     * specified URL. The tag is built from the URL, the modification time
+     * and the length of the image; it is used to detect stale pixel caches.
+     * If the image can not be checked then this method returns 0 and only the
+     * size of the image is compared with the cache.
+     */
+    protected long getImageTag(String imageUrl) {
+        try {
+            URLConnection connection = new URL(imageUrl).openConnection();
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).setRequestMethod("HEAD");
+            }
+            try {
+                long tag = imageUrl.hashCode();
+                tag = tag * 31 + connection.getLastModified();
+                tag = tag * 31 + connection.getContentLength();
+                return tag;
+            } finally {
+                if (connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).disconnect();
+                } else {
+                    connection.getInputStream().close();
+                }
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private int getIntParameter(String key, int defaultValue) {
+        String str = getParameter(key, null);
+        int value = defaultValue;
+        if (str != null) {
+            try {
+                value = Integer.parseInt(str.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad '"
+                    + key
+                    + "' parameter value: '"
+                    + str
+                    + "'.");
+            }
+        }
+        return value;
+    }
+
     private String getParameter(String key, String defaultValue) {
         String value = fParameters.get(key);
         if (value == null) {
@@ -99,6 +181,35 @@ public class Main {
         return value;
     }
 
+    /**
+     * Returns the resampler defined by the "resampling" parameter.
+     */
+    protected ITileResampler getResampler() {
+        String str = getParameter("resampling", null);
+        if (str == null) {
+            return null;
+        }
+        str = str.trim().toLowerCase();
+        if ("nearest".equals(str)) {
+            return GraphicsResampler.NEAREST;
+        }
+        if ("bilinear".equals(str)) {
+            return GraphicsResampler.BILINEAR;
+        }
+        if ("bicubic".equals(str)) {
+            return GraphicsResampler.BICUBIC;
+        }
+        if ("area".equals(str)) {
+            return AreaAverageResampler.INSTANCE;
+        }
+        if ("lanczos".equals(str)) {
+            return LanczosResampler.LANCZOS3;
+        }
+        throw new IllegalArgumentException("Unknown resampling: '"
+            + str
+            + "'.");
+    }
+
     protected void initParams(String... args) {
         for (int i = 0; i < args.length;) {
             String arg = args[i++];
@@ -132,8 +243,60 @@ public class Main {
 
         File outputDir = new File(fOutputDir, dirName);
         println("Loading " + fImageUrl + "...");
-        InputStream input = openImageStream(fImageUrl);
-        BufferedImage image = ImageTilesGenerator.readImage(input);
+        IImageSource source;
+        MemoryBudget budget = null;
+        long imageBytes = 0;
+        int memory = getIntParameter("memory", 0);
+        if (memory > 0) {
+            budget = new MemoryBudget(memory * 1024L * 1024L);
+        }
+        String cache = getParameter("cache", null);
+        boolean streaming = "true".equals(getParameter("streaming", null));
+        if (cache != null) {
+            File cacheFile = new File(cache);
+            long tag = getImageTag(fImageUrl);
+            // The decoder reads only the image header until pixels are needed
+            InputStream input = openImageStream(fImageUrl);
+            IImageSource decoder = new StreamedImageSource(input);
+            try {
+                if (MappedImageSource.isValid(
+                    cacheFile,
+                    decoder.getImageSize(),
+                    tag)) {
+                    println("Pixels are read from " + cacheFile + ".");
+                } else {
+                    println("Pixels are cached in " + cacheFile + "...");
+                }
+                source = MappedImageSource.open(cacheFile, decoder, tag);
+            } finally {
+                decoder.close();
+            }
+        } else if (streaming || budget != null) {
+            InputStream input = openImageStream(fImageUrl);
+            source = new StreamedImageSource(input);
+            ImagePoint size = source.getImageSize();
+            long bytes = MemoryBudget.getImageBytes(
+                size.getX(),
+                size.getY(),
+                BufferedImage.TYPE_INT_ARGB);
+            // Images taking less than half of the budget are decoded at once
+            if (!streaming && bytes <= budget.getMaxBytes() / 2) {
+                BufferedImage image;
+                try {
+                    image = source.readRegion(new ImagePoint(0, 0), size, 1);
+                } finally {
+                    source.close();
+                }
+                source = new BufferedImageSource(image);
+                imageBytes = bytes;
+                budget.reserve(imageBytes);
+            }
+        } else {
+            InputStream input = openImageStream(fImageUrl);
+            BufferedImage image = ImageTilesGenerator.readImage(input);
+            source = new BufferedImageSource(image);
+        }
+        ImagePoint imageSize = source.getImageSize();
         println("Image was successfully loaded.");
 
         GeoPoint pinPointGeo = new GeoPoint(0, 0);
@@ -142,7 +305,7 @@ public class Main {
 
         int maxZoom = 18;
         int imageZoomLevel = maxZoom - 1;
-        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        ImageTilesGenerator generator = new ImageTilesGenerator(source);
         generator.setPinPoint(pinPoint);
         generator.setPinPointGeo(pinPointGeo);
         generator.setImageZoomLevel(imageZoomLevel);
@@ -150,28 +313,175 @@ public class Main {
         TileFormat format = getFormat();
         generator.setTileFormat(format);
         generator.setBackgroundColor(Color.WHITE);
+        generator.setPyramidMode("true".equals(getParameter("pyramid", null)));
+        generator.setVirtualOverzoom("true".equals(getParameter(
+            "overzoom",
+            null)));
+        generator.setMemoryBudget(budget);
+        generator.setResampler(getResampler());
+
+        String port = getParameter("server", null);
+        if (port != null) {
+            TileServer server = new TileServer(
+                generator,
+                generator.getMinZoomLevel(maxZoom, imageSize),
+                maxZoom);
+            String quality = getParameter("quality", null);
+            if (quality != null) {
+                server.getTileEncoder().setJpegQuality(
+                    Float.parseFloat(quality));
+            }
+            int threads = getIntParameter("threads", 1);
+            server.start(
+                new InetSocketAddress(Integer.parseInt(port)),
+                Executors.newFixedThreadPool(threads));
+            println("Tiles are served on http://localhost:"
+                + server.getAddress().getPort()
+                + "/{zoom}/{x}/{y}."
+                + format
+                + " (statistics: /stats)");
+            return;
+        }
 
         println("Splitting the image to tiles.");
         println("Output directory: " + outputDir);
 
+        int threads = getIntParameter("threads", 1);
+        ExecutorService executor = null;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+            generator.setExecutor(executor);
+        }
+        // Tile files are written before the listener returns, so tile images
+        // can be reused.
+        generator.setTileBufferPool(new TileBufferPool(2 * threads + 16));
+
         final File rootDir = outputDir;
         final int[] minZoom = { maxZoom };
-        generator.generateTiles(maxZoom, new FileTileWriter(rootDir) {
+        FileTileWriter writer = new FileTileWriter(rootDir) {
             @Override
-            public void onTile(
+            protected void onTileData(
                 TileInfo tile,
-                BufferedImage tileImage,
-                TileFormat tileFormat) {
-                if (minZoom[0] > tile.getZoom()) {
-                    minZoom[0] = tile.getZoom();
+                TileFormat tileFormat,
+                byte[] data) throws IOException {
+                synchronized (minZoom) {
+                    if (minZoom[0] > tile.getZoom()) {
+                        minZoom[0] = tile.getZoom();
+                    }
                 }
                 println("Tile: " + tile.getTilePath(tileFormat.toString()));
-                super.onTile(tile, tileImage, tileFormat);
+                super.onTileData(tile, tileFormat, data);
             }
-        });
+        };
+        // Only stored data is intercepted, so blank tiles can be shared
+        writer.setBlankTilesEnabled(true);
+        TileCheckpoint checkpoint = null;
+        if ("true".equals(getParameter("resume", null))) {
+            outputDir.mkdirs();
+            checkpoint = new TileCheckpoint(new File(
+                outputDir,
+                "tiles.checkpoint"));
+            generator.setCheckpoint(checkpoint);
+            writer.setCheckpoint(checkpoint);
+            // Skipped tiles are not delivered to the writer
+            minZoom[0] = generator.getMinZoomLevel(maxZoom, imageSize);
+        }
+        LoggingTileMetrics metrics = null;
+        if ("true".equals(getParameter("metrics", null))) {
+            metrics = new LoggingTileMetrics();
+            generator.setMetrics(metrics);
+            writer.setMetrics(metrics);
+        }
+        TileManifestWriter manifest = null;
+        String manifestFile = getParameter("manifest", null);
+        if (manifestFile != null) {
+            manifest = new TileManifestWriter(new FileOutputStream(
+                manifestFile), true);
+            if (generator.isVirtualOverzoom() && imageZoomLevel < maxZoom) {
+                // Higher levels are not stored; they are derived from tiles
+                // of the image zoom level by the OverzoomTileReader
+                manifest.begin(
+                    imageSize,
+                    generator.getImageTiler(imageZoomLevel),
+                    generator.getMinZoomLevel(maxZoom, imageSize),
+                    imageZoomLevel,
+                    format,
+                    "name",
+                    dirName,
+                    "overzoom",
+                    maxZoom);
+            } else {
+                manifest.begin(
+                    imageSize,
+                    generator.getImageTiler(imageZoomLevel),
+                    generator.getMinZoomLevel(maxZoom, imageSize),
+                    maxZoom,
+                    format,
+                    "name",
+                    dirName);
+            }
+            writer.setManifest(manifest);
+        }
+        String quality = getParameter("quality", null);
+        if (quality != null) {
+            writer.getTileEncoder().setJpegQuality(Float.parseFloat(quality));
+        }
+        TilePipeline pipeline = null;
+        if ("true".equals(getParameter("pipeline", null))) {
+            pipeline = new TilePipeline(writer, threads, 2, 64);
+        }
+        ITileImageListener listener = pipeline != null ? pipeline : writer;
+        String bbox = getParameter("bbox", null);
+        try {
+            if (bbox != null) {
+                String[] array = bbox.split(",");
+                if (array.length != 4) {
+                    throw new IllegalArgumentException(
+                        "The bounding box should be defined as "
+                            + "lat1,lon1,lat2,lon2.");
+                }
+                generator.generateTiles(
+                    generator.getMinZoomLevel(maxZoom, imageSize),
+                    maxZoom,
+                    listener,
+                    new GeoPoint(
+                        Double.parseDouble(array[0].trim()),
+                        Double.parseDouble(array[1].trim())),
+                    new GeoPoint(
+                        Double.parseDouble(array[2].trim()),
+                        Double.parseDouble(array[3].trim())));
+            } else {
+                generator.generateTiles(maxZoom, listener);
+            }
+        } finally {
+            if (pipeline != null) {
+                try {
+                    pipeline.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (checkpoint != null) {
+                checkpoint.save();
+            }
+            if (metrics != null) {
+                metrics.logSummary();
+            }
+            if (manifest != null) {
+                manifest.close();
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
+            writer.getTileEncoder().close();
+            source.close();
+            if (imageBytes > 0) {
+                budget.release(imageBytes);
+            }
+        }
         ImageTiler tiler = generator.getImageTiler(imageZoomLevel);
         String json = TilesPrintUtil.toJson(
-            image,
+            imageSize,
             tiler,
             maxZoom,
             minZoom[0],
@@ -182,9 +492,9 @@ public class Main {
             "url",
             "\"" + fImageUrl + "\"",
             "width",
-            image.getWidth(),
+            imageSize.getX(),
             "height",
-            image.getHeight(),
+            imageSize.getY(),
             "format",
             "\"" + format + "\"");
         println(json);
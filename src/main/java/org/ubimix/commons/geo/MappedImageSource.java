@@ -0,0 +1,450 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An image source reading pixels from a raw pixel file mapped in memory. The
+ * file is written once from any other source (see
+ * {@link #write(IImageSource, File)}), so images are decoded only once and
+ * repeated runs read the pixels directly. Pixels are stored row by row with 3
+ * bytes per pixel (RGB) for opaque images and 4 bytes per pixel (ARGB) for
+ * images with transparency. Pixels are addressed with long offsets and the
+ * file is mapped by chunks smaller than 2GB, so the size of images is not
+ * limited by the size of Java arrays and the mapped pixels do not use the
+ * heap.
+ * <p>
+ * The header of the file contains the size of the image and a tag
+ * identifying the version of the source image (for example a hash of its
+ * URL, modification time and length). A file is reused by the
+ * {@link #open(File, IImageSource, long)} method only if the size and the
+ * tag match the source, so pixels of a changed or another image are never
+ * tiled by mistake.
+ * </p>
+ * <p>
+ * Regions are returned as images with integer pixels (
+ * <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code>), so tiles are
+ * copied from them using the raster fast path of the generator.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class MappedImageSource implements IImageSource {
+
+    /**
+     * The default size of mapped chunks of the file.
+     */
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    /**
+     * The size of the header of files in bytes.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * The signature of pixel files ("TRAW").
+     */
+    private static final int MAGIC = 0x54524157;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The maximal number of pixels in bands decoded when a file is written.
+     */
+    private static final int WRITE_BAND_PIXELS = 4 * 1024 * 1024;
+
+    /**
+     * Returns <code>true</code> if the specified file is a complete pixel
+     * file which can be opened by this source.
+     * 
+     * @param file the file to check
+     * @return <code>true</code> if the file is a valid pixel file
+     */
+    public static boolean isValid(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                return readHeader(input) != null;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the specified file is a complete pixel
+     * file of an image with the given size and source tag.
+     * 
+     * @param file the file to check
+     * @param imageSize the size of the source image
+     * @param sourceTag the tag identifying the version of the source image
+     * @return <code>true</code> if the file contains pixels of the image
+     */
+    public static boolean isValid(
+        File file,
+        ImagePoint imageSize,
+        long sourceTag) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                long[] header = readHeader(input);
+                return header != null
+                    && header[0] == imageSize.getX()
+                    && header[1] == imageSize.getY()
+                    && header[3] == sourceTag;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the specified pixel file if it contains pixels of the given
+     * source; otherwise the file is written from the source first. Only the
+     * size of the source is checked, so this method should be used only when
+     * the version of the source can not be identified (see
+     * {@link #open(File, IImageSource, long)}). The source is not closed by
+     * this method.
+     * 
+     * @param file the pixel file
+     * @param source the source of pixels used if the file is not valid
+     * @return an image source reading the pixel file
+     * @throws IOException
+     */
+    public static MappedImageSource open(File file, IImageSource source)
+        throws IOException {
+        return open(file, source, 0);
+    }
+
+    /**
+     * Opens the specified pixel file if it contains pixels of the given
+     * source: the file is complete and its image size and source tag are the
+     * same as the size and the tag of the source. Otherwise the file is
+     * written from the source first. The source is not closed by this method.
+     * 
+     * @param file the pixel file
+     * @param source the source of pixels used if the file is not valid
+     * @param sourceTag the tag identifying the version of the source image
+     * @return an image source reading the pixel file
+     * @throws IOException
+     */
+    public static MappedImageSource open(
+        File file,
+        IImageSource source,
+        long sourceTag) throws IOException {
+        if (!isValid(file, source.getImageSize(), sourceTag)) {
+            write(source, file, sourceTag);
+        }
+        return new MappedImageSource(file);
+    }
+
+    /**
+     * Reads and checks the header of a pixel file. Returns an array with the
+     * width, the height, the number of bytes per pixel and the source tag or
+     * <code>null</code> if the file is not a complete pixel file.
+     */
+    private static long[] readHeader(RandomAccessFile input)
+        throws IOException {
+        if (input.length() < HEADER_SIZE) {
+            return null;
+        }
+        input.seek(0);
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            return null;
+        }
+        int width = input.readInt();
+        int height = input.readInt();
+        int pixelBytes = input.readInt();
+        if (width <= 0 || height <= 0 || pixelBytes < 3 || pixelBytes > 4) {
+            return null;
+        }
+        long sourceTag = input.readLong();
+        long length = HEADER_SIZE + (long) width * height * pixelBytes;
+        if (input.length() != length) {
+            return null;
+        }
+        return new long[] { width, height, pixelBytes, sourceTag };
+    }
+
+    /**
+     * Writes all pixels of the specified source in a pixel file without a
+     * source tag.
+     * 
+     * @param source the source of pixels
+     * @param file the pixel file to write
+     * @throws IOException
+     * @see #write(IImageSource, File, long)
+     */
+    public static void write(IImageSource source, File file)
+        throws IOException {
+        write(source, file, 0);
+    }
+
+    /**
+     * Writes all pixels of the specified source in a pixel file. The image is
+     * read band by band, so sources decoding regions on demand (like
+     * {@link StreamedImageSource}) are never loaded in memory. Pixels are
+     * written in a temporary file renamed when all pixels are written, so
+     * interrupted writes never leave incomplete files.
+     * 
+     * @param source the source of pixels
+     * @param file the pixel file to write
+     * @param sourceTag the tag identifying the version of the source image
+     * @throws IOException
+     */
+    public static void write(IImageSource source, File file, long sourceTag)
+        throws IOException {
+        ImagePoint size = source.getImageSize();
+        int width = (int) size.getX();
+        int height = (int) size.getY();
+        int bandRows = Math.max(1, Math.min(height, WRITE_BAND_PIXELS
+            / width));
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(tmp),
+            1024 * 1024));
+        try {
+            int[] row = new int[width];
+            byte[] bytes = null;
+            int pixelBytes = 0;
+            for (int y = 0; y < height; y += bandRows) {
+                int rows = Math.min(bandRows, height - y);
+                BufferedImage band = source.readRegion(
+                    new ImagePoint(y, 0),
+                    new ImagePoint(y + rows, width),
+                    1);
+                if (bytes == null) {
+                    pixelBytes = band.getColorModel().hasAlpha() ? 4 : 3;
+                    bytes = new byte[width * pixelBytes];
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(width);
+                    out.writeInt(height);
+                    out.writeInt(pixelBytes);
+                    out.writeLong(sourceTag);
+                    out.write(new byte[HEADER_SIZE - 28]);
+                }
+                for (int i = 0; i < rows; i++) {
+                    RasterUtils.getRow(band, i, row);
+                    int pos = 0;
+                    for (int j = 0; j < width; j++) {
+                        int argb = row[j];
+                        if (pixelBytes == 4) {
+                            bytes[pos++] = (byte) (argb >>> 24);
+                        }
+                        bytes[pos++] = (byte) (argb >> 16);
+                        bytes[pos++] = (byte) (argb >> 8);
+                        bytes[pos++] = (byte) argb;
+                    }
+                    out.write(bytes);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can not replace the file '" + file + "'.");
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can not rename the file '"
+                + tmp
+                + "' to '"
+                + file
+                + "'.");
+        }
+    }
+
+    private MappedByteBuffer[] fChunks;
+
+    private final int fChunkSize;
+
+    private final RandomAccessFile fFile;
+
+    private final int fHeight;
+
+    private final int fPixelBytes;
+
+    private final long fSourceTag;
+
+    private final int fWidth;
+
+    /**
+     * Opens the specified pixel file.
+     * 
+     * @param file the pixel file
+     * @throws IOException if the file is not a valid pixel file
+     */
+    public MappedImageSource(File file) throws IOException {
+        this(file, CHUNK_SIZE);
+    }
+
+    /**
+     * Opens the specified pixel file mapped by chunks of the given size.
+     * 
+     * @param file the pixel file
+     * @param chunkSize the size of mapped chunks
+     * @throws IOException if the file is not a valid pixel file
+     */
+    MappedImageSource(File file, int chunkSize) throws IOException {
+        fChunkSize = chunkSize;
+        fFile = new RandomAccessFile(file, "r");
+        try {
+            long[] header = readHeader(fFile);
+            if (header == null) {
+                throw new IOException("The file '"
+                    + file
+                    + "' is not a valid pixel file.");
+            }
+            fWidth = (int) header[0];
+            fHeight = (int) header[1];
+            fPixelBytes = (int) header[2];
+            fSourceTag = header[3];
+            FileChannel channel = fFile.getChannel();
+            long length = (long) fWidth * fHeight * fPixelBytes;
+            int count = (int) ((length + chunkSize - 1) / chunkSize);
+            fChunks = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long offset = (long) i * chunkSize;
+                long size = Math.min(chunkSize, length - offset);
+                fChunks[i] = channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + offset,
+                    size);
+            }
+        } catch (IOException e) {
+            fFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the file. Note that mapped chunks are released only when they
+     * are garbage collected.
+     * 
+     * @see org.ubimix.commons.geo.IImageSource#close()
+     */
+    public void close() throws IOException {
+        fChunks = null;
+        fFile.close();
+    }
+
+    /**
+     * Pixels are never loaded in memory, so this method always returns
+     * <code>null</code>.
+     * 
+     * @see org.ubimix.commons.geo.IImageSource#getImage()
+     */
+    public BufferedImage getImage() {
+        return null;
+    }
+
+    public ImagePoint getImageSize() {
+        return new ImagePoint(fHeight, fWidth);
+    }
+
+    /**
+     * Returns the number of bytes used by each pixel in the file: 3 for
+     * opaque images and 4 for images with transparency.
+     * 
+     * @return the number of bytes per pixel
+     */
+    public int getPixelBytes() {
+        return fPixelBytes;
+    }
+
+    /**
+     * @return the tag identifying the version of the source image of the
+     *         file
+     */
+    public long getSourceTag() {
+        return fSourceTag;
+    }
+
+    /**
+     * Copies bytes of the mapped file starting from the specified offset (in
+     * pixel data) to the given array. Chunks are duplicated, so this method
+     * can be called concurrently.
+     */
+    private void read(long offset, byte[] array, int pos, int len)
+        throws IOException {
+        MappedByteBuffer[] chunks = fChunks;
+        if (chunks == null) {
+            throw new IOException("The source is closed.");
+        }
+        while (len > 0) {
+            int index = (int) (offset / fChunkSize);
+            int start = (int) (offset % fChunkSize);
+            ByteBuffer buffer = chunks[index].duplicate();
+            int n = Math.min(len, buffer.limit() - start);
+            buffer.position(start);
+            buffer.get(array, pos, n);
+            offset += n;
+            pos += n;
+            len -= n;
+        }
+    }
+
+    public BufferedImage readRegion(
+        ImagePoint leftTop,
+        ImagePoint bottomRight,
+        int subsampling) throws IOException {
+        int x = (int) leftTop.getX();
+        int y = (int) leftTop.getY();
+        int width = (int) (bottomRight.getX() - x);
+        int height = (int) (bottomRight.getY() - y);
+        int step = Math.max(1, subsampling);
+        int w = (width + step - 1) / step;
+        int h = (height + step - 1) / step;
+        boolean alpha = fPixelBytes == 4;
+        BufferedImage region = new BufferedImage(w, h, alpha
+            ? BufferedImage.TYPE_INT_ARGB
+            : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) region.getRaster().getDataBuffer())
+            .getData();
+        int span = ((w - 1) * step + 1) * fPixelBytes;
+        byte[] bytes = new byte[span];
+        int skip = step * fPixelBytes;
+        for (int i = 0; i < h; i++) {
+            long offset = ((long) (y + i * step) * fWidth + x) * fPixelBytes;
+            read(offset, bytes, 0, span);
+            int pos = 0;
+            int idx = i * w;
+            for (int j = 0; j < w; j++, pos += skip) {
+                int p = pos;
+                int a = alpha ? bytes[p++] & 0xFF : 0xFF;
+                int r = bytes[p++] & 0xFF;
+                int g = bytes[p++] & 0xFF;
+                int b = bytes[p] & 0xFF;
+                pixels[idx++] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+        return region;
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A memory budget shared by one or more tile generators. Generators reserve
+ * an estimation of memory required for each unit of work (a loaded image
+ * band with tiles rendered from it or an individual tile) before this work
+ * is started and release it when the work is finished. When the budget is
+ * exhausted the reservation blocks until other work is finished, so several
+ * generation jobs can share the same JVM without running out of memory.
+ * <p>
+ * A unit of work bigger than the whole budget is admitted only when nothing
+ * else is reserved.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class MemoryBudget {
+
+    /**
+     * Returns the number of bytes used to store one pixel of images of the
+     * specified type.
+     * 
+     * @param imageType the type of images (see {@link BufferedImage#getType()})
+     * @return the number of bytes in one pixel
+     */
+    public static int getBytesPerPixel(int imageType) {
+        switch (imageType) {
+            case BufferedImage.TYPE_BYTE_BINARY:
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                return 1;
+            case BufferedImage.TYPE_USHORT_555_RGB:
+            case BufferedImage.TYPE_USHORT_565_RGB:
+            case BufferedImage.TYPE_USHORT_GRAY:
+                return 2;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Returns the number of bytes used by an image with the specified size
+     * and type.
+     * 
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param imageType the type of the image
+     * @return the estimated size of the image in memory
+     */
+    public static long getImageBytes(long width, long height, int imageType) {
+        return width * height * getBytesPerPixel(imageType);
+    }
+
+    private final long fMaxBytes;
+
+    private long fPeakBytes;
+
+    private long fReservedBytes;
+
+    /**
+     * @param maxBytes the maximal number of bytes which could be reserved
+     */
+    public MemoryBudget(long maxBytes) {
+        fMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified amount of memory is less
+     * than the whole budget.
+     * 
+     * @param bytes the amount of memory
+     * @return <code>true</code> if the specified amount fits in the budget
+     */
+    public boolean fits(long bytes) {
+        return bytes <= fMaxBytes;
+    }
+
+    /**
+     * @return the maximal number of bytes which could be reserved
+     */
+    public long getMaxBytes() {
+        return fMaxBytes;
+    }
+
+    /**
+     * @return the maximal number of bytes reserved at the same time
+     */
+    public synchronized long getPeakBytes() {
+        return fPeakBytes;
+    }
+
+    /**
+     * @return the number of currently reserved bytes
+     */
+    public synchronized long getReservedBytes() {
+        return fReservedBytes;
+    }
+
+    /**
+     * Releases memory reserved by the {@link #reserve(long)} or
+     * {@link #tryReserve(long)} methods.
+     * 
+     * @param bytes the number of bytes to release
+     */
+    public synchronized void release(long bytes) {
+        fReservedBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Reserves the specified number of bytes. This method blocks while the
+     * reservation does not fit in the budget.
+     * 
+     * @param bytes the number of bytes to reserve
+     */
+    public synchronized void reserve(long bytes) {
+        try {
+            while (!tryReserve(bytes)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryBudget["
+            + fReservedBytes
+            + "/"
+            + fMaxBytes
+            + " bytes, peak: "
+            + fPeakBytes
+            + "]";
+    }
+
+    /**
+     * Reserves the specified number of bytes if they fit in the budget.
+     * 
+     * @param bytes the number of bytes to reserve
+     * @return <code>true</code> if the memory was reserved
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        if (fReservedBytes > 0 && fReservedBytes + bytes > fMaxBytes) {
+            return false;
+        }
+        fReservedBytes += bytes;
+        fPeakBytes = Math.max(fPeakBytes, fReservedBytes);
+        return true;
+    }
+
+}
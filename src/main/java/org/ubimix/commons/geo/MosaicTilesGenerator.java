@@ -0,0 +1,678 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.ITileImageListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * This generator builds one tile pyramid from many georeferenced images
+ * ("sheets"). Each sheet has its own pin point and image zoom level. Sheet
+ * footprints are indexed in a grid of tiles of the index zoom level, so only
+ * sheets intersecting a tile are loaded and drawn in this tile. Tiles are
+ * generated block by block (one block for each cell of the index), so
+ * neighbouring tiles use the same sheets; the most recently used sheets are
+ * kept decoded in memory.
+ * <p>
+ * Tiles of zoom levels lower than the index zoom level cover many cells of
+ * the index, so they are not rendered from sheets. Like in the pyramid mode of
+ * the {@link ImageTilesGenerator}, they are built by averaging 2x2 blocks of
+ * pixels of their (already composited) child tiles. Tiles of the index zoom
+ * level are generated in the order of a tile tree, so sheets are decoded only
+ * for the index zoom level and higher levels, and only one tile image is
+ * kept for each lower level.
+ * </p>
+ * <p>
+ * Sheets are drawn in the order of their addition: later sheets cover
+ * earlier ones. Tiles of a sheet are rendered by an
+ * {@link ImageTilesGenerator}, so starting from the index zoom level they
+ * are exactly the same as tiles of the sheet generated separately.
+ * </p>
+ * <p>
+ * The same tile image is reused for all generated tiles, so listeners should
+ * not keep references to received images.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class MosaicTilesGenerator {
+
+    /**
+     * Loaders are used to open images of sheets when they are required.
+     */
+    public interface ISheetLoader {
+
+        /**
+         * Opens the image of the sheet. The returned source is closed by the
+         * generator.
+         * 
+         * @return the source of the sheet image
+         * @throws IOException
+         */
+        IImageSource openSource() throws IOException;
+
+    }
+
+    /**
+     * A georeferenced image of the mosaic.
+     */
+    public static class Sheet {
+
+        private final int fId;
+
+        private final ImagePoint fImageSize;
+
+        private final int fImageZoomLevel;
+
+        private final ISheetLoader fLoader;
+
+        private final ImagePoint fPinPoint;
+
+        private final GeoPoint fPinPointGeo;
+
+        /**
+         * Footprints of the sheet (tile ranges) for each zoom level.
+         */
+        private final Map<Integer, TileRange> fRanges = new HashMap<Integer, TileRange>();
+
+        private Sheet(
+            int id,
+            ISheetLoader loader,
+            ImagePoint imageSize,
+            GeoPoint pinPointGeo,
+            ImagePoint pinPoint,
+            int imageZoomLevel) {
+            fId = id;
+            fLoader = loader;
+            fImageSize = imageSize;
+            fPinPointGeo = pinPointGeo;
+            fPinPoint = pinPoint;
+            fImageZoomLevel = imageZoomLevel;
+        }
+
+        public ImagePoint getImageSize() {
+            return fImageSize;
+        }
+
+        public int getImageZoomLevel() {
+            return fImageZoomLevel;
+        }
+
+        public ImagePoint getPinPoint() {
+            return fPinPoint;
+        }
+
+        public GeoPoint getPinPointGeo() {
+            return fPinPointGeo;
+        }
+
+        /**
+         * Returns the range of tiles covering this sheet on the specified zoom
+         * level.
+         * 
+         * @param zoomLevel the zoom level
+         * @param tileSize the size of tiles
+         * @return the range of tiles covering the sheet
+         */
+        public synchronized TileRange getTileRange(
+            int zoomLevel,
+            int tileSize) {
+            TileRange range = fRanges.get(zoomLevel);
+            if (range == null) {
+                double scale = AbstractImageTilesGenerator.getImageBlockScale(
+                    fImageZoomLevel,
+                    zoomLevel);
+                ImageTiler tiler = new ImageTiler(
+                    (int) (tileSize * scale),
+                    fPinPointGeo,
+                    fPinPoint,
+                    zoomLevel);
+                range = tiler.getTilesLoader(fImageSize).getTileRange(
+                    zoomLevel);
+                fRanges.put(zoomLevel, range);
+            }
+            return range;
+        }
+
+        @Override
+        public String toString() {
+            return "Sheet" + fId;
+        }
+
+    }
+
+    private Color fBackgroundColor;
+
+    private int fIndexZoomLevel = 10;
+
+    /**
+     * Decoded sheets in the access order.
+     */
+    private final LinkedHashMap<Sheet, ImageTilesGenerator> fLoaded = new LinkedHashMap<Sheet, ImageTilesGenerator>(
+        16,
+        0.75f,
+        true);
+
+    private int fLoadsNumber;
+
+    private int fMaxLoadedSheets = 8;
+
+    /**
+     * The grid index of sheets. Keys are keys of tiles of the index zoom
+     * level; values are sheets intersecting these tiles.
+     */
+    private Map<Long, List<Sheet>> fSheetIndex;
+
+    private final List<Sheet> fSheets = new ArrayList<Sheet>();
+
+    private TileFormat fTileFormat = TileFormat.JPG;
+
+    private int fTileSize = ImageTiler.DEFAULT_TILE_SIZE;
+
+    /**
+     * Adds a new sheet to the mosaic.
+     * 
+     * @param loader the loader of the sheet image
+     * @param imageSize the size of the sheet image
+     * @param pinPointGeo the geographic position of the pin point
+     * @param pinPoint the position of the pin point on the sheet image
+     * @param imageZoomLevel the zoom level of the sheet image
+     * @return the added sheet
+     */
+    public Sheet addSheet(
+        ISheetLoader loader,
+        ImagePoint imageSize,
+        GeoPoint pinPointGeo,
+        ImagePoint pinPoint,
+        int imageZoomLevel) {
+        Sheet sheet = new Sheet(
+            fSheets.size(),
+            loader,
+            imageSize,
+            pinPointGeo,
+            pinPoint,
+            imageZoomLevel);
+        fSheets.add(sheet);
+        fSheetIndex = null;
+        return sheet;
+    }
+
+    /**
+     * Closes sources of all decoded sheets.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        Iterator<ImageTilesGenerator> iterator = fLoaded.values().iterator();
+        while (iterator.hasNext()) {
+            ImageTilesGenerator generator = iterator.next();
+            iterator.remove();
+            generator.getImageSource().close();
+        }
+    }
+
+    /**
+     * Draws tiles of all specified sheets in the given tile image.
+     */
+    private void drawSheets(
+        TileInfo tile,
+        List<Sheet> sheets,
+        final BufferedImage tileImage) throws IOException {
+        ITileImageListener listener = new ITileImageListener() {
+            public void onTile(
+                TileInfo tile,
+                BufferedImage sheetTile,
+                TileFormat tileFormat) {
+                Graphics2D g = tileImage.createGraphics();
+                try {
+                    g.setComposite(AlphaComposite.SrcOver);
+                    g.drawImage(sheetTile, 0, 0, null);
+                } finally {
+                    g.dispose();
+                }
+            }
+        };
+        List<TileRange> ranges = Collections.singletonList(new TileRange(
+            tile,
+            tile));
+        for (Sheet sheet : sheets) {
+            ImageTilesGenerator generator = getSheetGenerator(sheet);
+            generator.generateTiles(ranges, listener);
+        }
+    }
+
+    /**
+     * Generates all tiles of the mosaic for the specified zoom levels. Tiles
+     * without sheets are not generated.
+     * 
+     * @param minZoomLevel the minimal zoom level
+     * @param maxZoomLevel the maximal zoom level
+     * @param listener the listener receiving generated tiles
+     * @throws IOException if an image of a sheet can not be loaded
+     */
+    public void generateTiles(
+        int minZoomLevel,
+        int maxZoomLevel,
+        ITileImageListener listener) throws IOException {
+        BufferedImage composite = newCompositeTile();
+        // Composited tiles are delivered directly if they are not flattened
+        // on the background
+        BufferedImage tileImage = fTileFormat == TileFormat.PNG
+            && fBackgroundColor == null ? null : new BufferedImage(
+            fTileSize,
+            fTileSize,
+            getTileType());
+        // Levels lower than the index zoom level are built from tiles of this
+        // level
+        int baseZoomLevel = Math.max(
+            minZoomLevel,
+            Math.min(maxZoomLevel, fIndexZoomLevel));
+        if (baseZoomLevel > minZoomLevel) {
+            TileRange[] ranges = new TileRange[baseZoomLevel
+                - minZoomLevel
+                + 1];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = getTileRange(minZoomLevel + i);
+            }
+            TileRange range = ranges[0];
+            if (range != null) {
+                BufferedImage[] images = new BufferedImage[ranges.length];
+                images[images.length - 1] = composite;
+                for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+                    for (int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                        generatePyramidTile(
+                            new TileInfo(y, x, minZoomLevel),
+                            ranges,
+                            images,
+                            tileImage,
+                            listener);
+                    }
+                }
+            }
+            minZoomLevel = baseZoomLevel + 1;
+        }
+        for (int zoom = minZoomLevel; zoom <= maxZoomLevel; zoom++) {
+            TileRange range = getTileRange(zoom);
+            if (range == null) {
+                continue;
+            }
+            // Tiles are generated in blocks corresponding to cells of the
+            // sheet index, so sheets are reused by neighbouring tiles.
+            int shift = Math.max(0, zoom - fIndexZoomLevel);
+            int minBlockY = range.getMinY() >> shift;
+            int minBlockX = range.getMinX() >> shift;
+            int maxBlockY = range.getMaxY() >> shift;
+            int maxBlockX = range.getMaxX() >> shift;
+            for (int blockY = minBlockY; blockY <= maxBlockY; blockY++) {
+                for (int blockX = minBlockX; blockX <= maxBlockX; blockX++) {
+                    TileRange block = new TileRange(
+                        blockY << shift,
+                        blockX << shift,
+                        ((blockY + 1) << shift) - 1,
+                        ((blockX + 1) << shift) - 1,
+                        zoom).intersect(range);
+                    generateTiles(block, composite, tileImage, listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Composites sheets of the specified tile and delivers the tile to the
+     * listener. Returns <code>false</code> if the tile does not intersect any
+     * sheet; such tiles are not delivered.
+     */
+    private boolean generateTile(
+        TileInfo tile,
+        BufferedImage composite,
+        BufferedImage tileImage,
+        ITileImageListener listener) throws IOException {
+        List<Sheet> sheets = getSheets(tile);
+        if (sheets.isEmpty()) {
+            return false;
+        }
+        int[] pixels = ((DataBufferInt) composite.getRaster().getDataBuffer())
+            .getData();
+        Arrays.fill(pixels, 0);
+        drawSheets(tile, sheets, composite);
+        notifyTile(tile, composite, tileImage, listener);
+        return true;
+    }
+
+    /**
+     * Generates the specified tile and all its descendants down to the last
+     * level of the given ranges. Tiles of the last level are composited from
+     * sheets; other tiles are built from their children. Returns
+     * <code>false</code> if the tile has no content; such tiles are not
+     * delivered.
+     * 
+     * @param tile the root of the tree of tiles to generate
+     * @param ranges ranges of tiles for each level starting from the root
+     *        level
+     * @param images images of tiles of each level; the last image is used to
+     *        composite sheets; images of other levels are created when they
+     *        are required
+     * @param tileImage the image used to flatten tiles on the background or
+     *        <code>null</code> if composited tiles are delivered directly
+     * @param listener the listener receiving generated tiles
+     */
+    private boolean generatePyramidTile(
+        TileInfo tile,
+        TileRange[] ranges,
+        BufferedImage[] images,
+        BufferedImage tileImage,
+        ITileImageListener listener) throws IOException {
+        int level = tile.getZoom() - ranges[0].getZoom();
+        if (level == ranges.length - 1) {
+            return generateTile(tile, images[level], tileImage, listener);
+        }
+        BufferedImage image = images[level];
+        if (image == null) {
+            image = newCompositeTile();
+            images[level] = image;
+        } else {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData();
+            Arrays.fill(pixels, 0);
+        }
+        TileRange childRange = ranges[level + 1];
+        int half = fTileSize / 2;
+        boolean found = false;
+        for (int i = 0; i < 4; i++) {
+            int childY = (tile.getY() << 1) + (i >> 1);
+            int childX = (tile.getX() << 1) + (i & 1);
+            if (childRange.contains(childY, childX)
+                && generatePyramidTile(new TileInfo(
+                    childY,
+                    childX,
+                    tile.getZoom() + 1), ranges, images, tileImage, listener)) {
+                RasterUtils.downsample2x2(
+                    images[level + 1],
+                    image,
+                    (childX & 1) * half,
+                    (childY & 1) * half);
+                found = true;
+            }
+        }
+        if (found) {
+            notifyTile(tile, image, tileImage, listener);
+        }
+        return found;
+    }
+
+    private void generateTiles(
+        TileRange block,
+        BufferedImage composite,
+        BufferedImage tileImage,
+        ITileImageListener listener) throws IOException {
+        int zoom = block.getZoom();
+        for (int y = block.getMinY(); y <= block.getMaxY(); y++) {
+            for (int x = block.getMinX(); x <= block.getMaxX(); x++) {
+                TileInfo tile = new TileInfo(y, x, zoom);
+                generateTile(tile, composite, tileImage, listener);
+            }
+        }
+    }
+
+    public Color getBackgroundColor() {
+        return fBackgroundColor;
+    }
+
+    /**
+     * @return the zoom level of tiles used as cells of the sheet index
+     */
+    public int getIndexZoomLevel() {
+        return fIndexZoomLevel;
+    }
+
+    /**
+     * @return the number of times sheet images were loaded
+     */
+    public int getLoadsNumber() {
+        return fLoadsNumber;
+    }
+
+    /**
+     * @return the maximal number of sheets kept decoded in memory
+     */
+    public int getMaxLoadedSheets() {
+        return fMaxLoadedSheets;
+    }
+
+    /**
+     * Returns a generator of tiles of the specified sheet. Generators of
+     * recently used sheets are kept in memory; the least recently used
+     * sheet is closed when the maximal number of loaded sheets is reached.
+     */
+    private ImageTilesGenerator getSheetGenerator(Sheet sheet)
+        throws IOException {
+        ImageTilesGenerator generator = fLoaded.get(sheet);
+        if (generator != null) {
+            return generator;
+        }
+        while (!fLoaded.isEmpty() && fLoaded.size() >= fMaxLoadedSheets) {
+            Iterator<ImageTilesGenerator> iterator = fLoaded
+                .values()
+                .iterator();
+            ImageTilesGenerator eldest = iterator.next();
+            iterator.remove();
+            eldest.getImageSource().close();
+        }
+        IImageSource source = sheet.fLoader.openSource();
+        if (source.getImage() == null) {
+            // Sheets are decoded entirely: tiles are rendered one by one and
+            // reading a band for each tile would be too expensive.
+            try {
+                BufferedImage image = source.readRegion(
+                    new ImagePoint(0, 0),
+                    source.getImageSize(),
+                    1);
+                source = new BufferedImageSource(image);
+            } finally {
+                source.close();
+            }
+        }
+        generator = new ImageTilesGenerator(source);
+        generator.setTileSize(fTileSize);
+        generator.setPinPointGeo(sheet.fPinPointGeo);
+        generator.setPinPoint(sheet.fPinPoint);
+        generator.setImageZoomLevel(sheet.fImageZoomLevel);
+        generator.setTileFormat(TileFormat.PNG);
+        generator.setBackgroundColor(null);
+        fLoaded.put(sheet, generator);
+        fLoadsNumber++;
+        return generator;
+    }
+
+    /**
+     * Returns the index of sheets; the index is built when it is requested
+     * for the first time after a modification of the list of sheets.
+     */
+    private Map<Long, List<Sheet>> getSheetIndex() {
+        if (fSheetIndex == null) {
+            Map<Long, List<Sheet>> index = new HashMap<Long, List<Sheet>>();
+            for (Sheet sheet : fSheets) {
+                TileRange range = sheet.getTileRange(
+                    fIndexZoomLevel,
+                    fTileSize);
+                for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+                    for (int x = range.getMinX(); x <= range.getMaxX(); x++) {
+                        long key = new TileInfo(y, x, fIndexZoomLevel)
+                            .getKey();
+                        List<Sheet> list = index.get(key);
+                        if (list == null) {
+                            list = new ArrayList<Sheet>();
+                            index.put(key, list);
+                        }
+                        list.add(sheet);
+                    }
+                }
+            }
+            fSheetIndex = index;
+        }
+        return fSheetIndex;
+    }
+
+    /**
+     * @return all sheets of the mosaic in the order of their addition
+     */
+    public List<Sheet> getSheets() {
+        return Collections.unmodifiableList(fSheets);
+    }
+
+    /**
+     * Returns all sheets intersecting the specified tile in the order of
+     * their addition.
+     * 
+     * @param tile the tile
+     * @return sheets intersecting the tile
+     */
+    public List<Sheet> getSheets(TileInfo tile) {
+        int zoom = tile.getZoom();
+        Iterable<Sheet> candidates;
+        if (zoom >= fIndexZoomLevel) {
+            int shift = zoom - fIndexZoomLevel;
+            long key = new TileInfo(
+                tile.getY() >> shift,
+                tile.getX() >> shift,
+                fIndexZoomLevel).getKey();
+            candidates = getSheetIndex().get(key);
+            if (candidates == null) {
+                return Collections.emptyList();
+            }
+        } else {
+            // Tiles of low zoom levels cover many cells of the index
+            candidates = fSheets;
+        }
+        List<Sheet> result = new ArrayList<Sheet>();
+        for (Sheet sheet : candidates) {
+            if (sheet.getTileRange(zoom, fTileSize).contains(tile)) {
+                result.add(sheet);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the range of tiles covering all sheets on the specified zoom
+     * level or <code>null</code> if the mosaic is empty.
+     * 
+     * @param zoomLevel the zoom level
+     * @return the range of tiles covering all sheets
+     */
+    public TileRange getTileRange(int zoomLevel) {
+        TileRange result = null;
+        for (Sheet sheet : fSheets) {
+            TileRange range = sheet.getTileRange(zoomLevel, fTileSize);
+            result = result != null ? result.union(range) : range;
+        }
+        return result;
+    }
+
+    public TileFormat getTileFormat() {
+        return fTileFormat;
+    }
+
+    public int getTileSize() {
+        return fTileSize;
+    }
+
+    private int getTileType() {
+        return fTileFormat == TileFormat.JPG
+            ? BufferedImage.TYPE_INT_RGB
+            : BufferedImage.TYPE_INT_ARGB;
+    }
+
+    private BufferedImage newCompositeTile() {
+        return new BufferedImage(
+            fTileSize,
+            fTileSize,
+            BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Delivers the specified composited tile to the listener. If the tile
+     * image is defined then the composited tile is flattened on the
+     * background in this image before the delivery.
+     */
+    private void notifyTile(
+        TileInfo tile,
+        BufferedImage composite,
+        BufferedImage tileImage,
+        ITileImageListener listener) {
+        if (tileImage == null) {
+            listener.onTile(tile, composite, fTileFormat);
+            return;
+        }
+        Graphics2D g = tileImage.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(fBackgroundColor != null
+                ? fBackgroundColor
+                : new Color(0, true));
+            g.fillRect(0, 0, fTileSize, fTileSize);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.drawImage(composite, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        listener.onTile(tile, tileImage, fTileFormat);
+    }
+
+    public void setBackgroundColor(Color backgroundColor) {
+        fBackgroundColor = backgroundColor;
+    }
+
+    /**
+     * Sets the zoom level of tiles used as cells of the sheet index. Cells
+     * should be comparable with sizes of sheets.
+     * 
+     * @param indexZoomLevel the zoom level of index cells
+     */
+    public void setIndexZoomLevel(int indexZoomLevel) {
+        fIndexZoomLevel = indexZoomLevel;
+        fSheetIndex = null;
+    }
+
+    /**
+     * Sets the maximal number of sheets kept decoded in memory. It should be
+     * not less than the number of sheets intersecting one cell of the index,
+     * otherwise sheets are loaded several times for each cell.
+     * 
+     * @param maxLoadedSheets the maximal number of decoded sheets
+     */
+    public void setMaxLoadedSheets(int maxLoadedSheets) {
+        fMaxLoadedSheets = Math.max(1, maxLoadedSheets);
+    }
+
+    public void setTileFormat(TileFormat tileFormat) {
+        fTileFormat = tileFormat != null ? tileFormat : TileFormat.JPG;
+    }
+
+    public void setTileSize(int tileSize) {
+        fTileSize = tileSize;
+        for (Sheet sheet : fSheets) {
+            synchronized (sheet) {
+                sheet.fRanges.clear();
+            }
+        }
+        fSheetIndex = null;
+    }
+
+}
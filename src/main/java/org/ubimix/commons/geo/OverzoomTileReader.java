@@ -0,0 +1,204 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * This reader derives tiles of overzoom levels (zoom levels higher than the
+ * zoom level of the image) from stored tiles instead of reading them. Each
+ * overzoom tile is the corresponding part of its ancestor on the native zoom
+ * level scaled to the tile size. Tiles of other levels are read from the
+ * underlying reader. With this reader pyramids can be generated in the
+ * virtual overzoom mode (see
+ * {@link AbstractImageTilesGenerator#setVirtualOverzoom(boolean)}), so each
+ * additional zoom level does not multiply the size of stored tiles by 4.
+ * <p>
+ * Children of the same ancestor are usually requested one after another, so
+ * the last decoded ancestor is kept in memory.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class OverzoomTileReader implements ITileReader {
+
+    private TileEncoder fEncoder = new TileEncoder();
+
+    /**
+     * The last decoded ancestor.
+     */
+    private BufferedImage fLastImage;
+
+    /**
+     * The key of the last decoded ancestor.
+     */
+    private long fLastKey = -1;
+
+    private final int fMaxZoomLevel;
+
+    private final int fNativeZoomLevel;
+
+    private final ITileReader fReader;
+
+    private ITileResampler fResampler = GraphicsResampler.BICUBIC;
+
+    /**
+     * @param reader the reader of stored tiles
+     * @param nativeZoomLevel the highest stored zoom level
+     * @param maxZoomLevel the highest zoom level of derived tiles; overzoom
+     *        tiles are derived while each of them covers at least one pixel
+     *        of the ancestor
+     */
+    public OverzoomTileReader(
+        ITileReader reader,
+        int nativeZoomLevel,
+        int maxZoomLevel) {
+        fReader = reader;
+        fNativeZoomLevel = nativeZoomLevel;
+        fMaxZoomLevel = maxZoomLevel;
+    }
+
+    public void close() throws IOException {
+        fEncoder.close();
+        fReader.close();
+    }
+
+    /**
+     * Returns the decoded image of the specified ancestor tile or
+     * <code>null</code> if the tile is not stored.
+     */
+    private BufferedImage getAncestorImage(TileInfo ancestor)
+        throws IOException {
+        long key = ancestor.getKey();
+        synchronized (this) {
+            if (fLastKey == key) {
+                return fLastImage;
+            }
+        }
+        byte[] data = fReader.getTileData(ancestor);
+        if (data == null) {
+            return null;
+        }
+        BufferedImage image = ImageTilesGenerator
+            .readImage(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new IOException("Can not decode the tile '"
+                + ancestor
+                + "'.");
+        }
+        synchronized (this) {
+            fLastKey = key;
+            fLastImage = image;
+        }
+        return image;
+    }
+
+    /**
+     * @return the highest zoom level of derived tiles
+     */
+    public int getMaxZoomLevel() {
+        return fMaxZoomLevel;
+    }
+
+    /**
+     * @return the highest stored zoom level
+     */
+    public int getNativeZoomLevel() {
+        return fNativeZoomLevel;
+    }
+
+    /**
+     * @return the resampler used to scale parts of ancestors
+     */
+    public ITileResampler getResampler() {
+        return fResampler;
+    }
+
+    /**
+     * Returns encoded data of the specified tile. Tiles of overzoom levels are
+     * derived from their ancestors on the native zoom level and encoded in
+     * the format of stored tiles.
+     * 
+     * @see org.ubimix.commons.geo.ITileReader#getTileData(org.ubimix.commons.geo.TileInfo)
+     */
+    public byte[] getTileData(TileInfo tile) throws IOException {
+        int zoom = tile.getZoom();
+        if (zoom <= fNativeZoomLevel) {
+            return fReader.getTileData(tile);
+        }
+        if (zoom > fMaxZoomLevel) {
+            return null;
+        }
+        int levels = zoom - fNativeZoomLevel;
+        TileInfo ancestor = new TileInfo(
+            tile.getY() >> levels,
+            tile.getX() >> levels,
+            fNativeZoomLevel);
+        BufferedImage image = getAncestorImage(ancestor);
+        if (image == null) {
+            return null;
+        }
+        int size = image.getWidth();
+        int part = size >> levels;
+        if (part == 0) {
+            return null;
+        }
+        int mask = (1 << levels) - 1;
+        int x = (tile.getX() & mask) * part;
+        int y = (tile.getY() & mask) * part;
+        TileFormat format = getTileFormat();
+        BufferedImage tileImage = new BufferedImage(
+            size,
+            size,
+            format == TileFormat.PNG
+                ? BufferedImage.TYPE_INT_ARGB
+                : BufferedImage.TYPE_INT_RGB);
+        fResampler.resample(
+            image,
+            x,
+            y,
+            x + part,
+            y + part,
+            tileImage,
+            0,
+            0,
+            size,
+            size);
+        return fEncoder.encode(tileImage, format);
+    }
+
+    /**
+     * @return the encoder used to encode derived tiles
+     */
+    public TileEncoder getTileEncoder() {
+        return fEncoder;
+    }
+
+    public TileFormat getTileFormat() {
+        return fReader.getTileFormat();
+    }
+
+    /**
+     * Sets the resampler used to scale parts of ancestors.
+     * 
+     * @param resampler the resampler to set
+     */
+    public void setResampler(ITileResampler resampler) {
+        fResampler = resampler;
+    }
+
+    /**
+     * Sets the encoder used to encode derived tiles.
+     * 
+     * @param encoder the encoder to set
+     */
+    public void setTileEncoder(TileEncoder encoder) {
+        fEncoder = encoder;
+    }
+
+}
@@ -0,0 +1,564 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * This class contains utility methods working directly with pixel arrays of
+ * tile images.
+ * 
+ * @author kotelnikov
+ */
+public class RasterUtils {
+
+    /**
+     * Copies pixels of the specified source area in the target image without
+     * any scaling. This method works directly with pixel arrays of images. It
+     * returns <code>false</code> if pixels of the source or of the target
+     * images can not be accessed directly; in this case nothing is copied.
+     * 
+     * @param source the source image
+     * @param sourceX the X coordinate of the source area
+     * @param sourceY the Y coordinate of the source area
+     * @param width the width of the area to copy
+     * @param height the height of the area to copy
+     * @param target the target image
+     * @param targetX the X coordinate of the area in the target image
+     * @param targetY the Y coordinate of the area in the target image
+     * @return <code>true</code> if pixels were copied
+     */
+    public static boolean copy(
+        BufferedImage source,
+        int sourceX,
+        int sourceY,
+        int width,
+        int height,
+        BufferedImage target,
+        int targetX,
+        int targetY) {
+        if (!isIntRGB(target) || !isReadable(source)) {
+            return false;
+        }
+        int[] targetPixels = getPixels(target);
+        int targetStride = getStride(target);
+        int targetPos = getOffset(target) + targetY * targetStride + targetX;
+        int targetType = target.getType();
+        if (isIntRGB(source)
+            && (source.getType() == targetType || targetType == BufferedImage.TYPE_INT_RGB)) {
+            // Bulk copy of integer pixels
+            int[] sourcePixels = getPixels(source);
+            int sourceStride = getStride(source);
+            int sourcePos = getOffset(source)
+                + sourceY
+                * sourceStride
+                + sourceX;
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(
+                    sourcePixels,
+                    sourcePos,
+                    targetPixels,
+                    targetPos,
+                    width);
+                sourcePos += sourceStride;
+                targetPos += targetStride;
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                int sourceRow = sourceY + y;
+                readRow(
+                    source,
+                    sourceX,
+                    sourceRow,
+                    width,
+                    targetPixels,
+                    targetPos);
+                targetPos += targetStride;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reduces the specified source area by the given factor using a box
+     * filter: each target pixel is the average of the corresponding
+     * factor x factor block of source pixels. This method works directly with
+     * pixel arrays of images. It returns <code>false</code> if pixels of the
+     * source or of the target images can not be accessed directly; in this
+     * case nothing is written in the target image.
+     * 
+     * @param source the source image
+     * @param sourceX the X coordinate of the source area
+     * @param sourceY the Y coordinate of the source area
+     * @param factor the reduction factor
+     * @param target the target image
+     * @param targetX the X coordinate of the area in the target image
+     * @param targetY the Y coordinate of the area in the target image
+     * @param width the width of the area in the target image
+     * @param height the height of the area in the target image
+     * @return <code>true</code> if the area was reduced
+     */
+    public static boolean downsample(
+        BufferedImage source,
+        int sourceX,
+        int sourceY,
+        int factor,
+        BufferedImage target,
+        int targetX,
+        int targetY,
+        int width,
+        int height) {
+        if (!isIntRGB(target) || !isReadable(source)) {
+            return false;
+        }
+        boolean alpha = source.getColorModel().hasAlpha();
+        int sourceWidth = width * factor;
+        int[] row = new int[sourceWidth];
+        int[] result = new int[width];
+        if (alpha || factor > 256) {
+            downsampleWeighted(
+                source,
+                sourceX,
+                sourceY,
+                factor,
+                width,
+                height,
+                alpha,
+                row,
+                result,
+                target,
+                targetX,
+                targetY);
+            return true;
+        }
+        // Sums of color components for opaque images fit into integers for
+        // factors up to 256.
+        int[] r = new int[width];
+        int[] g = new int[width];
+        int[] b = new int[width];
+        int count = factor * factor;
+        int half = count >> 1;
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < factor; i++) {
+                int sourceRow = sourceY + y * factor + i;
+                readRow(source, sourceX, sourceRow, sourceWidth, row, 0);
+                int pos = 0;
+                for (int x = 0; x < width; x++) {
+                    int red = 0;
+                    int green = 0;
+                    int blue = 0;
+                    for (int j = 0; j < factor; j++) {
+                        int pixel = row[pos++];
+                        red += (pixel >> 16) & 0xFF;
+                        green += (pixel >> 8) & 0xFF;
+                        blue += pixel & 0xFF;
+                    }
+                    r[x] += red;
+                    g[x] += green;
+                    b[x] += blue;
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                result[x] = 0xFF000000
+                    | (((r[x] + half) / count) << 16)
+                    | (((g[x] + half) / count) << 8)
+                    | ((b[x] + half) / count);
+                r[x] = g[x] = b[x] = 0;
+            }
+            setRow(target, targetX, targetY + y, result, width);
+        }
+        return true;
+    }
+
+    /**
+     * Reduces the source area with a box filter weighting colors of pixels by
+     * their opacity. This method is used for images with an alpha channel and
+     * for very big reduction factors.
+     */
+    private static void downsampleWeighted(
+        BufferedImage source,
+        int sourceX,
+        int sourceY,
+        int factor,
+        int width,
+        int height,
+        boolean alpha,
+        int[] row,
+        int[] result,
+        BufferedImage target,
+        int targetX,
+        int targetY) {
+        int sourceWidth = width * factor;
+        long[] a = new long[width];
+        long[] r = new long[width];
+        long[] g = new long[width];
+        long[] b = new long[width];
+        long count = (long) factor * factor;
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < factor; i++) {
+                int sourceRow = sourceY + y * factor + i;
+                readRow(source, sourceX, sourceRow, sourceWidth, row, 0);
+                for (int x = 0, pos = 0; x < width; x++) {
+                    for (int j = 0; j < factor; j++, pos++) {
+                        int pixel = row[pos];
+                        int w = alpha ? pixel >>> 24 : 1;
+                        a[x] += w;
+                        r[x] += ((pixel >> 16) & 0xFF) * w;
+                        g[x] += ((pixel >> 8) & 0xFF) * w;
+                        b[x] += (pixel & 0xFF) * w;
+                    }
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                long weight = a[x];
+                if (weight == 0) {
+                    result[x] = 0;
+                } else {
+                    long half = weight >> 1;
+                    int pixelAlpha = alpha
+                        ? (int) ((weight + (count >> 1)) / count)
+                        : 0xFF;
+                    result[x] = (pixelAlpha << 24)
+                        | ((int) ((r[x] + half) / weight) << 16)
+                        | ((int) ((g[x] + half) / weight) << 8)
+                        | (int) ((b[x] + half) / weight);
+                }
+                a[x] = r[x] = g[x] = b[x] = 0;
+            }
+            setRow(target, targetX, targetY + y, result, width);
+        }
+    }
+
+    /**
+     * Averages pixels of each 2x2 block of the source image and writes the
+     * resulting (two times smaller) image in the target image at the
+     * specified position. Colors of pixels with an alpha channel are weighted
+     * by their opacity, so fully transparent pixels do not change the color of
+     * the resulting pixel.
+     * 
+     * @param source the source image
+     * @param target the target image
+     * @param targetX the X position of the reduced image in the target image
+     * @param targetY the Y position of the reduced image in the target image
+     */
+    public static void downsample2x2(
+        BufferedImage source,
+        BufferedImage target,
+        int targetX,
+        int targetY) {
+        int width = Math.min(
+            source.getWidth() / 2,
+            target.getWidth() - targetX);
+        int height = Math.min(
+            source.getHeight() / 2,
+            target.getHeight() - targetY);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        boolean alpha = source.getColorModel().hasAlpha();
+        int[] sourcePixels = getPixels(source);
+        int sourceOffset = getOffset(source);
+        int sourceStride = getStride(source);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            int top = sourceOffset + (y << 1) * sourceStride;
+            int bottom = top + sourceStride;
+            for (int x = 0; x < width; x++) {
+                int pos = x << 1;
+                int a = sourcePixels[top + pos];
+                int b = sourcePixels[top + pos + 1];
+                int c = sourcePixels[bottom + pos];
+                int d = sourcePixels[bottom + pos + 1];
+                row[x] = alpha ? averageARGB(a, b, c, d) : averageRGB(
+                    a,
+                    b,
+                    c,
+                    d);
+            }
+            setRow(target, targetX, targetY + y, row, width);
+        }
+    }
+
+    private static int averageARGB(int a, int b, int c, int d) {
+        int aa = a >>> 24;
+        int ba = b >>> 24;
+        int ca = c >>> 24;
+        int da = d >>> 24;
+        int alpha = aa + ba + ca + da;
+        if (alpha == 0) {
+            return 0;
+        }
+        int red = ((a >> 16) & 0xFF)
+            * aa
+            + ((b >> 16) & 0xFF)
+            * ba
+            + ((c >> 16) & 0xFF)
+            * ca
+            + ((d >> 16) & 0xFF)
+            * da;
+        int green = ((a >> 8) & 0xFF)
+            * aa
+            + ((b >> 8) & 0xFF)
+            * ba
+            + ((c >> 8) & 0xFF)
+            * ca
+            + ((d >> 8) & 0xFF)
+            * da;
+        int blue = (a & 0xFF)
+            * aa
+            + (b & 0xFF)
+            * ba
+            + (c & 0xFF)
+            * ca
+            + (d & 0xFF)
+            * da;
+        int half = alpha >> 1;
+        return (((alpha + 2) >> 2) << 24)
+            | (((red + half) / alpha) << 16)
+            | (((green + half) / alpha) << 8)
+            | ((blue + half) / alpha);
+    }
+
+    private static int averageRGB(int a, int b, int c, int d) {
+        int red = ((a >> 16) & 0xFF)
+            + ((b >> 16) & 0xFF)
+            + ((c >> 16) & 0xFF)
+            + ((d >> 16) & 0xFF);
+        int green = ((a >> 8) & 0xFF)
+            + ((b >> 8) & 0xFF)
+            + ((c >> 8) & 0xFF)
+            + ((d >> 8) & 0xFF);
+        int blue = (a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF);
+        return 0xFF000000
+            | (((red + 2) >> 2) << 16)
+            | (((green + 2) >> 2) << 8)
+            | ((blue + 2) >> 2);
+    }
+
+    /**
+     * Returns the position of the top left pixel of the image in the array
+     * returned by the {@link #getPixels(BufferedImage)} method.
+     */
+    private static int getOffset(BufferedImage image) {
+        if (!isIntRGB(image)) {
+            return 0;
+        }
+        WritableRaster raster = image.getRaster();
+        int x = -raster.getSampleModelTranslateX();
+        int y = -raster.getSampleModelTranslateY();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        return buffer.getOffset() + y * getStride(image) + x;
+    }
+
+    /**
+     * Reads pixels of one row of the specified image in the default ARGB
+     * format. Pixel arrays are read directly if the layout of the image is
+     * supported; otherwise the {@link BufferedImage#getRGB} method is used.
+     * 
+     * @param image the image to read
+     * @param y the index of the row
+     * @param row the array receiving pixels; it should be at least as long as
+     *        the image width
+     */
+    public static void getRow(BufferedImage image, int y, int[] row) {
+        getRow(image, 0, y, image.getWidth(), row);
+    }
+
+    /**
+     * Reads pixels of a part of one row of the specified image in the default
+     * ARGB format.
+     * 
+     * @param image the image to read
+     * @param x the X coordinate of the first pixel to read
+     * @param y the index of the row
+     * @param width the number of pixels to read
+     * @param row the array receiving pixels; it should be at least as long as
+     *        the number of read pixels
+     */
+    public static void getRow(
+        BufferedImage image,
+        int x,
+        int y,
+        int width,
+        int[] row) {
+        if (isReadable(image)) {
+            readRow(image, x, y, width, row, 0);
+        } else {
+            image.getRGB(x, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Returns an array with pixels of the specified image. For images with
+     * integer RGB pixels this method returns the internal data array of the
+     * image; for all other images it returns a copy of pixels in the default
+     * ARGB color model.
+     */
+    private static int[] getPixels(BufferedImage image) {
+        if (isIntRGB(image)) {
+            DataBufferInt buffer = (DataBufferInt) image
+                .getRaster()
+                .getDataBuffer();
+            return buffer.getData();
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        return image.getRGB(0, 0, w, h, null, 0, w);
+    }
+
+    private static int getStride(BufferedImage image) {
+        if (!isIntRGB(image)) {
+            return image.getWidth();
+        }
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) image
+            .getSampleModel();
+        return model.getScanlineStride();
+    }
+
+    /**
+     * Returns <code>true</code> if all pixels of the specified image have the
+     * same value. Only images with integer pixels (<code>TYPE_INT_RGB</code>
+     * and <code>TYPE_INT_ARGB</code>) are checked; for all other images this
+     * method returns <code>false</code>. The scan stops on the first pixel
+     * which differs from the first one.
+     * 
+     * @param image the image to check
+     * @return <code>true</code> if all pixels of the image are the same
+     */
+    public static boolean isUniform(BufferedImage image) {
+        if (!isIntRGB(image)) {
+            return false;
+        }
+        int[] pixels = getPixels(image);
+        int offset = getOffset(image);
+        int stride = getStride(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int first = pixels[offset];
+        for (int y = 0; y < height; y++) {
+            int pos = offset + y * stride;
+            int end = pos + width;
+            for (; pos < end; pos++) {
+                if (pixels[pos] != first) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if pixels of the specified image can be read
+     * directly from its data buffer.
+     */
+    private static boolean isReadable(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if pixels of the specified image are stored
+     * as integers in the default (A)RGB format.
+     */
+    private static boolean isIntRGB(BufferedImage image) {
+        int type = image.getType();
+        return type == BufferedImage.TYPE_INT_RGB
+            || type == BufferedImage.TYPE_INT_ARGB;
+    }
+
+    /**
+     * Reads pixels of one row of the image in the default ARGB format and
+     * writes them in the given array starting from the specified position. The
+     * image should be readable (see {@link #isReadable(BufferedImage)}).
+     */
+    private static void readRow(
+        BufferedImage image,
+        int x,
+        int y,
+        int width,
+        int[] row,
+        int rowOffset) {
+        if (isIntRGB(image)) {
+            int[] pixels = getPixels(image);
+            int pos = getOffset(image) + y * getStride(image) + x;
+            System.arraycopy(pixels, pos, row, rowOffset, width);
+            if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+                int end = rowOffset + width;
+                for (int i = rowOffset; i < end; i++) {
+                    row[i] |= 0xFF000000;
+                }
+            }
+            return;
+        }
+        WritableRaster raster = image.getRaster();
+        ComponentSampleModel model = (ComponentSampleModel) image
+            .getSampleModel();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int pixelStride = model.getPixelStride();
+        int[] offsets = model.getBandOffsets();
+        int pos = ((DataBufferByte) raster.getDataBuffer()).getOffset()
+            + (y - raster.getSampleModelTranslateY())
+            * model.getScanlineStride()
+            + (x - raster.getSampleModelTranslateX())
+            * pixelStride;
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            int end = rowOffset + width;
+            for (int i = rowOffset; i < end; i++, pos += 3) {
+                row[i] = 0xFF000000
+                    | ((data[pos + 2] & 0xFF) << 16)
+                    | ((data[pos + 1] & 0xFF) << 8)
+                    | (data[pos] & 0xFF);
+            }
+        } else if (offsets.length == 1) {
+            int o = offsets[0];
+            int end = rowOffset + width;
+            for (int i = rowOffset; i < end; i++, pos += pixelStride) {
+                int v = data[pos + o] & 0xFF;
+                row[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+            }
+        } else {
+            int ro = offsets[0];
+            int go = offsets[1];
+            int bo = offsets[2];
+            int ao = offsets.length > 3 ? offsets[3] : -1;
+            int end = rowOffset + width;
+            for (int i = rowOffset; i < end; i++, pos += pixelStride) {
+                int alpha = ao >= 0 ? data[pos + ao] & 0xFF : 0xFF;
+                row[i] = (alpha << 24)
+                    | ((data[pos + ro] & 0xFF) << 16)
+                    | ((data[pos + go] & 0xFF) << 8)
+                    | (data[pos + bo] & 0xFF);
+            }
+        }
+    }
+
+    private static void setRow(
+        BufferedImage image,
+        int x,
+        int y,
+        int[] row,
+        int width) {
+        if (isIntRGB(image)) {
+            int[] pixels = getPixels(image);
+            int pos = getOffset(image) + y * getStride(image) + x;
+            System.arraycopy(row, 0, pixels, pos, width);
+        } else {
+            image.setRGB(x, y, width, 1, row, 0, width);
+        }
+    }
+
+}
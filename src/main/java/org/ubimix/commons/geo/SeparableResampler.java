@@ -0,0 +1,260 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Common superclass of resamplers convolving images with a separable
+ * kernel. The kernel is stretched by the reduction factor, so each target
+ * pixel averages all source pixels it covers and strong reductions are not
+ * aliased. Images are processed row by row over primitive arrays: each
+ * source row is filtered horizontally and accumulated in the target rows
+ * using it, so the memory used by the resampler is proportional to the
+ * size of the target area. Colors are averaged with premultiplied alpha.
+ * <p>
+ * Source pixels around the resampled area are taken into account, so
+ * adjacent tiles rendered from the same image do not have visible seams.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public abstract class SeparableResampler implements ITileResampler {
+
+    /**
+     * Weights of source pixels for each target pixel along one axis.
+     */
+    private static class Filter {
+
+        private final int[] fLength;
+
+        private final int fMax;
+
+        private final int fMin;
+
+        private final int[] fStart;
+
+        private final int fStride;
+
+        private final float[] fWeights;
+
+        public Filter(
+            int[] start,
+            int[] length,
+            float[] weights,
+            int stride,
+            int min,
+            int max) {
+            fStart = start;
+            fLength = length;
+            fWeights = weights;
+            fStride = stride;
+            fMin = min;
+            fMax = max;
+        }
+
+    }
+
+    private static int clamp(float value, float max) {
+        int result = Math.round(value);
+        return result < 0 ? 0 : result > max ? (int) max : result;
+    }
+
+    /**
+     * Composes the premultiplied color with the specified pixel using the
+     * "source over" rule. Values are clamped because kernels with negative
+     * lobes can produce values out of the valid range.
+     */
+    private static int compose(float a, float r, float g, float b, int argb) {
+        a = Math.max(0, Math.min(255, a));
+        if (a == 0) {
+            return argb;
+        }
+        r = Math.max(0, Math.min(a, r));
+        g = Math.max(0, Math.min(a, g));
+        b = Math.max(0, Math.min(a, b));
+        float rest = 1 - a / 255;
+        float da = (argb >>> 24) * rest;
+        float f = da / 255;
+        float oa = a + da;
+        float or = r + ((argb >> 16) & 0xFF) * f;
+        float og = g + ((argb >> 8) & 0xFF) * f;
+        float ob = b + (argb & 0xFF) * f;
+        float u = 255 / oa;
+        return (clamp(oa, 255) << 24)
+            | (clamp(or * u, 255) << 16)
+            | (clamp(og * u, 255) << 8)
+            | clamp(ob * u, 255);
+    }
+
+    /**
+     * Creates a new resampler.
+     */
+    protected SeparableResampler() {
+    }
+
+    /**
+     * Returns the weight of a source pixel at the specified distance from the
+     * center of the target pixel. The distance is measured in target pixels.
+     * 
+     * @param x the distance from the center of the target pixel
+     * @return the weight of the source pixel
+     */
+    protected abstract double getKernel(double x);
+
+    /**
+     * Returns the radius of the kernel in target pixels; the kernel is zero
+     * outside of this radius.
+     * 
+     * @return the support radius of the kernel
+     */
+    protected abstract double getSupport();
+
+    /**
+     * Calculates weights of source pixels for each target pixel along one
+     * axis.
+     * 
+     * @param sourceStart the first coordinate of the source area
+     * @param sourceEnd the last coordinate of the source area
+     * @param sourceSize the size of the source image
+     * @param targetSize the size of the target area
+     * @return the filter of the axis
+     */
+    private Filter newFilter(
+        int sourceStart,
+        int sourceEnd,
+        int sourceSize,
+        int targetSize) {
+        double scale = (double) (sourceEnd - sourceStart) / targetSize;
+        double filterScale = Math.max(1, scale);
+        double radius = getSupport() * filterScale;
+        int stride = (int) Math.ceil(radius) * 2 + 2;
+        int[] start = new int[targetSize];
+        int[] length = new int[targetSize];
+        float[] weights = new float[targetSize * stride];
+        int min = sourceSize;
+        int max = 0;
+        for (int i = 0; i < targetSize; i++) {
+            double center = sourceStart + (i + 0.5) * scale;
+            int first = Math.max(0, (int) Math.floor(center - radius));
+            int last = Math.min(sourceSize, (int) Math.ceil(center + radius));
+            last = Math.min(last, first + stride);
+            double sum = 0;
+            for (int k = first; k < last; k++) {
+                double w = getKernel((k + 0.5 - center) / filterScale);
+                weights[i * stride + k - first] = (float) w;
+                sum += w;
+            }
+            if (sum == 0) {
+                // The kernel does not cover any source pixel; the nearest
+                // pixel is used
+                first = Math.max(0, Math.min(sourceSize - 1, (int) center));
+                last = first + 1;
+                weights[i * stride] = 1;
+                sum = 1;
+            }
+            for (int k = 0; k < last - first; k++) {
+                weights[i * stride + k] /= sum;
+            }
+            start[i] = first;
+            length[i] = last - first;
+            min = Math.min(min, first);
+            max = Math.max(max, last);
+        }
+        return new Filter(start, length, weights, stride, min, max);
+    }
+
+    public void resample(
+        BufferedImage source,
+        int sx1,
+        int sy1,
+        int sx2,
+        int sy2,
+        BufferedImage target,
+        int tx1,
+        int ty1,
+        int tx2,
+        int ty2) {
+        int width = tx2 - tx1;
+        int height = ty2 - ty1;
+        if (width <= 0 || height <= 0 || sx2 <= sx1 || sy2 <= sy1) {
+            return;
+        }
+        Filter fx = newFilter(sx1, sx2, source.getWidth(), width);
+        Filter fy = newFilter(sy1, sy2, source.getHeight(), height);
+        int sourceX = fx.fMin;
+        int sourceWidth = fx.fMax - fx.fMin;
+        int[] row = new int[sourceWidth];
+        // Premultiplied channels of the current source row
+        float[] channels = new float[sourceWidth * 4];
+        // Premultiplied channels of the current row filtered horizontally
+        float[] line = new float[width * 4];
+        float[] result = new float[height * width * 4];
+        int firstRow = 0;
+        for (int y = fy.fMin; y < fy.fMax; y++) {
+            while (firstRow < height
+                && fy.fStart[firstRow] + fy.fLength[firstRow] <= y) {
+                firstRow++;
+            }
+            if (firstRow == height || fy.fStart[firstRow] > y) {
+                continue;
+            }
+            RasterUtils.getRow(source, sourceX, y, sourceWidth, row);
+            for (int i = 0; i < sourceWidth; i++) {
+                int argb = row[i];
+                float a = argb >>> 24;
+                float f = a / 255;
+                channels[i * 4] = a;
+                channels[i * 4 + 1] = ((argb >> 16) & 0xFF) * f;
+                channels[i * 4 + 2] = ((argb >> 8) & 0xFF) * f;
+                channels[i * 4 + 3] = (argb & 0xFF) * f;
+            }
+            for (int i = 0; i < width; i++) {
+                float a = 0;
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                int pos = (fx.fStart[i] - sourceX) * 4;
+                int weight = i * fx.fStride;
+                for (int k = 0; k < fx.fLength[i]; k++, pos += 4) {
+                    float w = fx.fWeights[weight + k];
+                    a += channels[pos] * w;
+                    r += channels[pos + 1] * w;
+                    g += channels[pos + 2] * w;
+                    b += channels[pos + 3] * w;
+                }
+                line[i * 4] = a;
+                line[i * 4 + 1] = r;
+                line[i * 4 + 2] = g;
+                line[i * 4 + 3] = b;
+            }
+            for (int j = firstRow; j < height && fy.fStart[j] <= y; j++) {
+                int k = y - fy.fStart[j];
+                if (k >= fy.fLength[j]) {
+                    continue;
+                }
+                float w = fy.fWeights[j * fy.fStride + k];
+                int pos = j * width * 4;
+                for (int i = 0; i < line.length; i++) {
+                    result[pos + i] += line[i] * w;
+                }
+            }
+        }
+        int[] pixels = new int[width];
+        for (int j = 0; j < height; j++) {
+            target.getRGB(tx1, ty1 + j, width, 1, pixels, 0, width);
+            int pos = j * width * 4;
+            for (int i = 0; i < width; i++, pos += 4) {
+                pixels[i] = compose(
+                    result[pos],
+                    result[pos + 1],
+                    result[pos + 2],
+                    result[pos + 3],
+                    pixels[i]);
+            }
+            target.setRGB(tx1, ty1 + j, width, 1, pixels, 0, width);
+        }
+    }
+
+}
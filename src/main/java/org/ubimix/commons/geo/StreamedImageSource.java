@@ -0,0 +1,137 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * This image source does not load the whole image in memory. Instead it
+ * decodes only requested regions of the image using an {@link ImageReader}
+ * with source regions and subsampling defined by {@link ImageReadParam}. Note
+ * that readers of sequential formats (like JPEG or PNG) have to decode all
+ * image rows preceding the requested region, so big regions (bands) should be
+ * preferred for such formats.
+ * 
+ * @author kotelnikov
+ */
+public class StreamedImageSource implements IImageSource {
+
+    private ImagePoint fImageSize;
+
+    private final ImageInputStream fInput;
+
+    private final ImageReader fReader;
+
+    /**
+     * The underlying input stream closed with this source; it could be
+     * <code>null</code>.
+     */
+    private InputStream fStream;
+
+    /**
+     * Opens a source for the specified image file.
+     * 
+     * @param file the image file
+     * @throws IOException
+     */
+    public StreamedImageSource(File file) throws IOException {
+        this(ImageIO.createImageInputStream(file));
+    }
+
+    /**
+     * Opens a source for the specified image input stream. The stream should
+     * be seekable because image regions are read one after another.
+     * 
+     * @param input the image input
+     * @throws IOException
+     */
+    public StreamedImageSource(ImageInputStream input) throws IOException {
+        if (input == null) {
+            throw new IOException("Image input is not defined.");
+        }
+        fInput = input;
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No image readers found.");
+        }
+        fReader = readers.next();
+        fReader.setInput(input, false, true);
+    }
+
+    /**
+     * Opens a source for the specified input stream. The content of the
+     * stream is cached by the underlying {@link ImageInputStream}. The stream
+     * is closed with this source.
+     * 
+     * @param input the input stream with the image
+     * @throws IOException
+     */
+    public StreamedImageSource(InputStream input) throws IOException {
+        this(ImageIO.createImageInputStream(input));
+        fStream = input;
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            fReader.dispose();
+            fInput.close();
+        } finally {
+            if (fStream != null) {
+                fStream.close();
+            }
+        }
+    }
+
+    /**
+     * This source never keeps the full image in memory.
+     * 
+     * @see org.ubimix.commons.geo.IImageSource#getImage()
+     */
+    public BufferedImage getImage() {
+        return null;
+    }
+
+    public synchronized ImagePoint getImageSize() {
+        if (fImageSize == null) {
+            try {
+                int width = fReader.getWidth(0);
+                int height = fReader.getHeight(0);
+                fImageSize = new ImagePoint(height, width);
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "Can not read the size of the image.",
+                    e);
+            }
+        }
+        return fImageSize;
+    }
+
+    public synchronized BufferedImage readRegion(
+        ImagePoint leftTop,
+        ImagePoint bottomRight,
+        int subsampling) throws IOException {
+        int x = (int) leftTop.getX();
+        int y = (int) leftTop.getY();
+        int width = (int) (bottomRight.getX() - x);
+        int height = (int) (bottomRight.getY() - y);
+        ImageReadParam param = fReader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, width, height));
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return fReader.read(0, param);
+    }
+
+}
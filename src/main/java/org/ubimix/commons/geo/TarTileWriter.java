@@ -0,0 +1,116 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This writer streams tiles in a TAR archive (the POSIX "ustar" format).
+ * Each tile is written as a 512-byte header followed by the tile data padded
+ * to the block size.
+ * 
+ * @author kotelnikov
+ */
+public class TarTileWriter extends TileStreamWriter {
+
+    /**
+     * The size of TAR blocks.
+     */
+    public static final int BLOCK_SIZE = 512;
+
+    private static void setNumber(
+        byte[] header,
+        int offset,
+        int length,
+        long value) throws IOException {
+        String str = Long.toOctalString(value);
+        if (str.length() > length - 1) {
+            throw new IOException("The value "
+                + value
+                + " is too big for the TAR header.");
+        }
+        // Zero-padded octal number terminated by a NUL character
+        int pos = offset + length - 1 - str.length();
+        Arrays.fill(header, offset, pos, (byte) '0');
+        setString(header, pos, str.length(), str);
+        header[offset + length - 1] = 0;
+    }
+
+    private static void setString(
+        byte[] header,
+        int offset,
+        int length,
+        String str) {
+        for (int i = 0; i < length && i < str.length(); i++) {
+            header[offset + i] = (byte) str.charAt(i);
+        }
+    }
+
+    private final byte[] fHeader = new byte[BLOCK_SIZE];
+
+    private final long fTime = System.currentTimeMillis() / 1000;
+
+    /**
+     * @param output the stream where the archive is written
+     */
+    public TarTileWriter(OutputStream output) {
+        super(output);
+    }
+
+    /**
+     * Writes two empty blocks marking the end of the archive.
+     */
+    @Override
+    protected void finish() throws IOException {
+        Arrays.fill(fHeader, (byte) 0);
+        OutputStream out = getOutput();
+        out.write(fHeader);
+        out.write(fHeader);
+    }
+
+    @Override
+    protected void writeEntry(String path, byte[] data) throws IOException {
+        String name = path;
+        String prefix = "";
+        if (name.length() > 100) {
+            // Long paths are split in the prefix and the name fields
+            int idx = path.lastIndexOf('/', 155);
+            if (idx <= 0 || path.length() - idx - 1 > 100) {
+                throw new IOException("The path '"
+                    + path
+                    + "' is too long for the TAR archive.");
+            }
+            prefix = path.substring(0, idx);
+            name = path.substring(idx + 1);
+        }
+        byte[] header = fHeader;
+        Arrays.fill(header, (byte) 0);
+        setString(header, 0, 100, name);
+        setNumber(header, 100, 8, 0644);
+        setNumber(header, 108, 8, 0);
+        setNumber(header, 116, 8, 0);
+        setNumber(header, 124, 12, data.length);
+        setNumber(header, 136, 12, fTime);
+        header[156] = '0';
+        setString(header, 257, 6, "ustar");
+        setString(header, 263, 2, "00");
+        setString(header, 345, 155, prefix);
+        // The checksum is calculated with spaces in the checksum field
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        setNumber(header, 148, 7, checksum);
+        OutputStream out = getOutput();
+        out.write(header);
+        out.write(data);
+        int padding = (BLOCK_SIZE - data.length % BLOCK_SIZE) % BLOCK_SIZE;
+        Arrays.fill(header, 0, padding, (byte) 0);
+        out.write(header, 0, padding);
+    }
+
+}
@@ -0,0 +1,225 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Reads tiles from archives created by the {@link TileArchiveWriter}. The
+ * index of the archive is mapped in memory and tiles are found using a binary
+ * search, so each lookup costs O(log n) without opening any file. The index
+ * is mapped by chunks containing whole entries, so indexes bigger than 2GB
+ * (more than 100 millions of tiles) can be read. This reader is thread-safe.
+ * 
+ * @author kotelnikov
+ */
+public class TileArchiveReader implements ITileReader {
+
+    /**
+     * The default number of index entries in one mapped chunk of the index.
+     */
+    private static final int CHUNK_ENTRIES = (1 << 30)
+        / TileArchiveWriter.ENTRY_SIZE;
+
+    private static TileFormat getTileFormat(String ext) {
+        for (TileFormat format : TileFormat.values()) {
+            if (format.toString().equals(ext)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private final FileChannel fChannel;
+
+    private final int fChunkEntries;
+
+    private final RandomAccessFile fFile;
+
+    /**
+     * Mapped chunks of the index.
+     */
+    private final MappedByteBuffer[] fIndex;
+
+    private final TileFormat fTileFormat;
+
+    private final int fTilesNumber;
+
+    public TileArchiveReader(File file) throws IOException {
+        this(file, CHUNK_ENTRIES);
+    }
+
+    /**
+     * Opens the specified archive with the index mapped by chunks of the
+     * given number of entries.
+     * 
+     * @param file the archive file
+     * @param chunkEntries the number of index entries in one mapped chunk
+     * @throws IOException if the file is not a valid archive
+     */
+    TileArchiveReader(File file, int chunkEntries) throws IOException {
+        fChunkEntries = chunkEntries;
+        fFile = new RandomAccessFile(file, "r");
+        try {
+            fChannel = fFile.getChannel();
+            long size = fChannel.size();
+            if (size < TileArchiveWriter.HEADER_SIZE
+                + TileArchiveWriter.FOOTER_SIZE) {
+                throw new IOException("The file '"
+                    + file
+                    + "' is not a tile archive.");
+            }
+            ByteBuffer header = read(0, TileArchiveWriter.HEADER_SIZE);
+            ByteBuffer footer = read(
+                size - TileArchiveWriter.FOOTER_SIZE,
+                TileArchiveWriter.FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            fTilesNumber = footer.getInt();
+            byte[] ext = new byte[4];
+            footer.get(ext);
+            if (header.getInt() != TileArchiveWriter.MAGIC
+                || footer.getInt() != TileArchiveWriter.MAGIC) {
+                throw new IOException("The file '"
+                    + file
+                    + "' is not a tile archive.");
+            }
+            int version = header.getInt();
+            if (version != TileArchiveWriter.VERSION) {
+                throw new IOException("Unsupported version of the archive '"
+                    + file
+                    + "': "
+                    + version
+                    + ".");
+            }
+            fTileFormat = getTileFormat(new String(ext, "US-ASCII").trim());
+            int count = (fTilesNumber + chunkEntries - 1) / chunkEntries;
+            fIndex = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                int first = i * chunkEntries;
+                int entries = Math.min(chunkEntries, fTilesNumber - first);
+                fIndex[i] = fChannel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    indexOffset + (long) first * TileArchiveWriter.ENTRY_SIZE,
+                    (long) entries * TileArchiveWriter.ENTRY_SIZE);
+            }
+        } catch (IOException e) {
+            fFile.close();
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        fFile.close();
+    }
+
+    /**
+     * Returns the position of the index entry with the specified key or a
+     * negative value if there is no such an entry.
+     */
+    private int find(long key) {
+        int low = 0;
+        int high = fTilesNumber - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = getKey(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the mapped chunk of the index containing the entry with the
+     * specified position.
+     */
+    private ByteBuffer getChunk(int pos) {
+        return fIndex[pos / fChunkEntries];
+    }
+
+    /**
+     * Returns the offset of the entry with the specified position in its
+     * chunk of the index.
+     */
+    private int getEntryOffset(int pos) {
+        return (pos % fChunkEntries) * TileArchiveWriter.ENTRY_SIZE;
+    }
+
+    /**
+     * Returns the tile key of the index entry with the specified position.
+     */
+    private long getKey(int pos) {
+        return getChunk(pos).getLong(getEntryOffset(pos));
+    }
+
+    /**
+     * Returns the tile corresponding to the index entry with the specified
+     * position. Entries are sorted by tile keys.
+     * 
+     * @param pos the position of the index entry
+     * @return the tile of the entry
+     */
+    public TileInfo getTile(int pos) {
+        return TileInfo.getTileByKey(getKey(pos));
+    }
+
+    /**
+     * Returns encoded data of the specified tile or <code>null</code> if the
+     * archive does not contain this tile.
+     * 
+     * @param tile the tile to read
+     * @return encoded data of the tile
+     * @throws IOException
+     */
+    public byte[] getTileData(TileInfo tile) throws IOException {
+        int pos = find(tile.getKey());
+        if (pos < 0) {
+            return null;
+        }
+        ByteBuffer chunk = getChunk(pos);
+        int entry = getEntryOffset(pos);
+        long offset = chunk.getLong(entry + 8);
+        int length = chunk.getInt(entry + 16);
+        return read(offset, length).array();
+    }
+
+    /**
+     * @return the format of tiles in the archive or <code>null</code> if the
+     *         archive is empty
+     */
+    public TileFormat getTileFormat() {
+        return fTileFormat;
+    }
+
+    /**
+     * @return the number of tiles in the archive
+     */
+    public int getTilesNumber() {
+        return fTilesNumber;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            int len = fChannel.read(buf, position + buf.position());
+            if (len < 0) {
+                throw new IOException("Unexpected end of the archive.");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * This writer packs all tiles in one archive file. The archive has the
+ * following structure:
+ * <ul>
+ * <li>header: the {@link #MAGIC} number and the {@link #VERSION} of the
+ * format (two integers);</li>
+ * <li>data: encoded tiles appended one after another in the order of their
+ * generation;</li>
+ * <li>index: one entry of {@link #ENTRY_SIZE} bytes for each tile, sorted by
+ * tile keys (see {@link TileInfo#getKey()}); each entry contains the tile key
+ * (long), the offset of the tile data (long) and the length of the data
+ * (integer);</li>
+ * <li>footer: the offset of the index (long), the number of index entries
+ * (integer), the extension of tiles (four ASCII bytes padded with zeros) and
+ * the {@link #MAGIC} number.</li>
+ * </ul>
+ * The index is written when the writer is closed. Use the
+ * {@link TileArchiveReader} to read tiles from archives.
+ * 
+ * @author kotelnikov
+ */
+public class TileArchiveWriter extends TileDataWriter {
+
+    /**
+     * The size of one index entry.
+     */
+    public static final int ENTRY_SIZE = 20;
+
+    /**
+     * The size of the footer of archives.
+     */
+    public static final int FOOTER_SIZE = 20;
+
+    /**
+     * The size of the header of archives.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * The "TILA" string used to recognize archives.
+     */
+    public static final int MAGIC = 0x54494C41;
+
+    /**
+     * The version of the archive format.
+     */
+    public static final int VERSION = 1;
+
+    private final FileChannel fChannel;
+
+    private boolean fClosed;
+
+    private final RandomAccessFile fFile;
+
+    /**
+     * Lengths of tiles. This index contains the same keys as the index of
+     * offsets.
+     */
+    private final TileIndex fLengths = new TileIndex();
+
+    /**
+     * Offsets of tiles.
+     */
+    private final TileIndex fOffsets = new TileIndex();
+
+    private long fPosition;
+
+    private TileFormat fTileFormat;
+
+    public TileArchiveWriter(File file) throws IOException {
+        fFile = new RandomAccessFile(file, "rw");
+        fFile.setLength(0);
+        fChannel = fFile.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Writes the index and the footer of the archive and closes the file.
+     * 
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (fClosed) {
+            return;
+        }
+        fClosed = true;
+        try {
+            long indexOffset = fPosition;
+            int size = fOffsets.size();
+            ByteBuffer buf = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+            for (int i = 0; i < size; i++) {
+                if (buf.remaining() < ENTRY_SIZE) {
+                    buf.flip();
+                    write(buf);
+                    buf.clear();
+                }
+                buf.putLong(fOffsets.getKey(i));
+                buf.putLong(fOffsets.getValue(i));
+                buf.putInt((int) fLengths.getValue(i));
+            }
+            if (buf.remaining() < FOOTER_SIZE) {
+                buf.flip();
+                write(buf);
+                buf.clear();
+            }
+            buf.putLong(indexOffset);
+            buf.putInt(size);
+            byte[] ext = new byte[4];
+            if (fTileFormat != null) {
+                byte[] str = fTileFormat.toString().getBytes("US-ASCII");
+                int len = Math.min(ext.length, str.length);
+                System.arraycopy(str, 0, ext, 0, len);
+            }
+            buf.put(ext);
+            buf.putInt(MAGIC);
+            buf.flip();
+            write(buf);
+        } finally {
+            fFile.close();
+        }
+    }
+
+    /**
+     * @return the number of tiles in the archive
+     */
+    public synchronized int getTilesNumber() {
+        return fOffsets.size();
+    }
+
+    @Override
+    protected synchronized void onTileData(
+        TileInfo tile,
+        TileFormat tileFormat,
+        byte[] data) throws IOException {
+        if (fClosed) {
+            throw new IOException("The archive is closed.");
+        }
+        if (fTileFormat == null) {
+            fTileFormat = tileFormat;
+        } else if (fTileFormat != tileFormat) {
+            throw new IOException("Tiles of the archive should have the '"
+                + fTileFormat
+                + "' format.");
+        }
+        long offset = fPosition;
+        write(ByteBuffer.wrap(data));
+        fOffsets.put(tile.getKey(), offset);
+        fLengths.put(tile.getKey(), data.length);
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            fPosition += fChannel.write(buf, fPosition);
+        }
+    }
+
+}
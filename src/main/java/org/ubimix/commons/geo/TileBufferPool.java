@@ -0,0 +1,151 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of tile images shared by all generation threads. Released
+ * images are reset with the background color using bulk array copies of a
+ * pre-rendered background row. Only images with integer pixels
+ * (<code>TYPE_INT_RGB</code> and <code>TYPE_INT_ARGB</code>) are managed by
+ * this pool.
+ * 
+ * @author kotelnikov
+ */
+public class TileBufferPool {
+
+    /**
+     * A pre-rendered row of background pixels.
+     */
+    private static class BackgroundRow {
+
+        private final int fPixel;
+
+        private final int[] fRow;
+
+        public BackgroundRow(int pixel, int width) {
+            fPixel = pixel;
+            fRow = new int[width];
+            for (int i = 0; i < width; i++) {
+                fRow[i] = pixel;
+            }
+        }
+
+        public boolean isCompatible(int pixel, int width) {
+            return fPixel == pixel && fRow.length >= width;
+        }
+    }
+
+    /**
+     * Fills all pixels of the specified image with the given value. The image
+     * should have integer pixels.
+     * 
+     * @param image the image to fill
+     * @param row a row of pixels with the background value; it should be at
+     *        least as long as the image width
+     */
+    private static void fill(BufferedImage image, int[] row) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+            .getData();
+        int width = image.getWidth();
+        for (int pos = 0; pos < pixels.length; pos += width) {
+            System.arraycopy(row, 0, pixels, pos, width);
+        }
+    }
+
+    private final AtomicLong fAllocated = new AtomicLong();
+
+    private volatile BackgroundRow fBackground;
+
+    private final BlockingQueue<BufferedImage> fBuffers;
+
+    private final AtomicLong fReused = new AtomicLong();
+
+    /**
+     * @param capacity the maximal number of idle images kept by this pool
+     */
+    public TileBufferPool(int capacity) {
+        fBuffers = new ArrayBlockingQueue<BufferedImage>(Math.max(1, capacity));
+    }
+
+    /**
+     * Returns an image with the specified size and type filled with the given
+     * background pixel. The image is taken from the pool if possible;
+     * otherwise a new image is created.
+     * 
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param imageType the type of the image; it should be
+     *        <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code>
+     * @param background the background pixel value in the image format
+     * @return an image filled with the background pixel
+     */
+    public BufferedImage acquire(
+        int width,
+        int height,
+        int imageType,
+        int background) {
+        BufferedImage image = fBuffers.poll();
+        if (image != null
+            && (image.getWidth() != width
+                || image.getHeight() != height || image.getType() != imageType)) {
+            image = null;
+        }
+        if (image != null) {
+            fReused.incrementAndGet();
+        } else {
+            image = new BufferedImage(width, height, imageType);
+            fAllocated.incrementAndGet();
+            if (background == 0) {
+                return image;
+            }
+        }
+        fill(image, getBackgroundRow(background, width));
+        return image;
+    }
+
+    /**
+     * @return the number of images created by this pool
+     */
+    public long getAllocatedNumber() {
+        return fAllocated.get();
+    }
+
+    private int[] getBackgroundRow(int pixel, int width) {
+        BackgroundRow row = fBackground;
+        if (row == null || !row.isCompatible(pixel, width)) {
+            row = new BackgroundRow(pixel, width);
+            fBackground = row;
+        }
+        return row.fRow;
+    }
+
+    /**
+     * @return the number of images taken from the pool instead of being
+     *         created
+     */
+    public long getReusedNumber() {
+        return fReused.get();
+    }
+
+    /**
+     * Returns the specified image to this pool. If the pool is full then the
+     * image is just dropped. The image should not be used after this call.
+     * 
+     * @param image the image to release
+     */
+    public void release(BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB
+            || type == BufferedImage.TYPE_INT_ARGB) {
+            fBuffers.offer(image);
+        }
+    }
+
+}
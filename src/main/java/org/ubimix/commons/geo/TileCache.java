@@ -0,0 +1,169 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of encoded tiles bounded by the total size of cached data. Tiles
+ * are indexed by their keys (see {@link TileInfo#getKey()}); when the cache
+ * is full the least recently used tiles are removed. All methods of this
+ * class are thread-safe.
+ * 
+ * @author kotelnikov
+ */
+public class TileCache {
+
+    /**
+     * The estimated number of bytes used by each cache entry in addition to
+     * the tile data.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private long fBytes;
+
+    private long fEvictions;
+
+    private long fHits;
+
+    private final long fMaxBytes;
+
+    private long fMisses;
+
+    /**
+     * Cached tiles in the access order: the least recently used tiles are the
+     * first ones.
+     */
+    private final LinkedHashMap<Long, byte[]> fTiles = new LinkedHashMap<Long, byte[]>(
+        16,
+        0.75f,
+        true);
+
+    /**
+     * @param maxBytes the maximal total size of cached tiles
+     */
+    public TileCache(long maxBytes) {
+        fMaxBytes = maxBytes;
+    }
+
+    /**
+     * Removes all tiles from this cache.
+     */
+    public synchronized void clear() {
+        fTiles.clear();
+        fBytes = 0;
+    }
+
+    /**
+     * Returns data of the specified tile or <code>null</code> if the tile is
+     * not in the cache.
+     * 
+     * @param tile the tile to return
+     * @return data of the tile or <code>null</code>
+     */
+    public synchronized byte[] get(TileInfo tile) {
+        byte[] data = fTiles.get(tile.getKey());
+        if (data != null) {
+            fHits++;
+        } else {
+            fMisses++;
+        }
+        return data;
+    }
+
+    /**
+     * @return the estimated number of bytes used by cached tiles
+     */
+    public synchronized long getBytes() {
+        return fBytes;
+    }
+
+    /**
+     * @return the number of tiles removed to free space for new tiles
+     */
+    public synchronized long getEvictions() {
+        return fEvictions;
+    }
+
+    /**
+     * @return the number of found tiles
+     */
+    public synchronized long getHits() {
+        return fHits;
+    }
+
+    /**
+     * @return the maximal total size of cached tiles
+     */
+    public long getMaxBytes() {
+        return fMaxBytes;
+    }
+
+    /**
+     * @return the number of requested tiles which were not in the cache
+     */
+    public synchronized long getMisses() {
+        return fMisses;
+    }
+
+    private long getSize(byte[] data) {
+        return data.length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Puts data of the specified tile in the cache. The least recently used
+     * tiles are removed if the cache is full. Tiles bigger than the cache are
+     * not stored.
+     * 
+     * @param tile the tile
+     * @param data encoded data of the tile
+     */
+    public synchronized void put(TileInfo tile, byte[] data) {
+        long size = getSize(data);
+        if (size > fMaxBytes) {
+            return;
+        }
+        byte[] prev = fTiles.put(tile.getKey(), data);
+        if (prev != null) {
+            fBytes -= getSize(prev);
+        }
+        fBytes += size;
+        Iterator<Map.Entry<Long, byte[]>> iterator = fTiles
+            .entrySet()
+            .iterator();
+        while (fBytes > fMaxBytes && iterator.hasNext()) {
+            Map.Entry<Long, byte[]> entry = iterator.next();
+            fBytes -= getSize(entry.getValue());
+            iterator.remove();
+            fEvictions++;
+        }
+    }
+
+    /**
+     * @return the number of cached tiles
+     */
+    public synchronized int size() {
+        return fTiles.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TileCache[tiles="
+            + fTiles.size()
+            + ", bytes="
+            + fBytes
+            + "/"
+            + fMaxBytes
+            + ", hits="
+            + fHits
+            + ", misses="
+            + fMisses
+            + ", evictions="
+            + fEvictions
+            + "]";
+    }
+
+}
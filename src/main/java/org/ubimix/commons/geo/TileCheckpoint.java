@@ -0,0 +1,287 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class keeps track of stored tiles and periodically saves them in a
+ * compact manifest file, so an interrupted generation can be resumed without
+ * checking existing tiles one by one. For each zoom level the manifest
+ * contains the range of generated tiles and runs of completed tiles in this
+ * range (in the row-major order); tiles are usually completed row by row, so
+ * the manifest contains only a few runs for each zoom level.
+ * <p>
+ * Tiles are marked as completed by the {@link TileDataWriter} when they are
+ * stored; the generator skips completed tiles (see
+ * {@link AbstractImageTilesGenerator#setCheckpoint(TileCheckpoint)}). The
+ * {@link #save()} method should be called when the generation is finished.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class TileCheckpoint {
+
+    /**
+     * Completed tiles of one zoom level.
+     */
+    private static class ZoomState {
+
+        private final BitSet fDone;
+
+        private final TileRange fRange;
+
+        public ZoomState(TileRange range) {
+            fRange = range;
+            fDone = new BitSet();
+        }
+
+        public int getIndex(int y, int x) {
+            int width = fRange.getMaxX() - fRange.getMinX() + 1;
+            return (y - fRange.getMinY()) * width + (x - fRange.getMinX());
+        }
+
+    }
+
+    /**
+     * The "TILC" string used to recognize manifest files.
+     */
+    public static final int MAGIC = 0x54494C43;
+
+    /**
+     * The version of the manifest format.
+     */
+    public static final int VERSION = 1;
+
+    private int fDoneNumber;
+
+    private final File fFile;
+
+    private long fLastSaveTime = System.currentTimeMillis();
+
+    private long fSaveInterval = 10000;
+
+    private final Map<Integer, ZoomState> fZooms = new TreeMap<Integer, ZoomState>();
+
+    /**
+     * Creates a new checkpoint and loads completed tiles from the specified
+     * file if it exists.
+     * 
+     * @param file the manifest file
+     * @throws IOException if the existing file can not be read
+     */
+    public TileCheckpoint(File file) throws IOException {
+        fFile = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * @return the number of tiles marked as completed since this checkpoint
+     *         was created or loaded
+     */
+    public synchronized int getDoneNumber() {
+        return fDoneNumber;
+    }
+
+    /**
+     * @return the manifest file
+     */
+    public File getFile() {
+        return fFile;
+    }
+
+    /**
+     * @return the minimal interval between two automatic saves (in
+     *         milliseconds)
+     */
+    public synchronized long getSaveInterval() {
+        return fSaveInterval;
+    }
+
+    /**
+     * Defines the range of tiles generated for the zoom level of the
+     * specified range. Completed tiles of this level are forgotten if the
+     * range is different from the range of the loaded manifest (for example
+     * if the image was changed).
+     * 
+     * @param range the range of tiles generated for one zoom level
+     */
+    public synchronized void init(TileRange range) {
+        ZoomState state = fZooms.get(range.getZoom());
+        if (state == null || !state.fRange.equals(range)) {
+            fZooms.put(range.getZoom(), new ZoomState(range));
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the specified tile is completed.
+     * 
+     * @param tile the tile to check
+     * @return <code>true</code> if the tile is completed
+     */
+    public synchronized boolean isDone(TileInfo tile) {
+        ZoomState state = fZooms.get(tile.getZoom());
+        if (state == null || !state.fRange.contains(tile)) {
+            return false;
+        }
+        return state.fDone.get(state.getIndex(tile.getY(), tile.getX()));
+    }
+
+    /**
+     * Returns <code>true</code> if all tiles of the specified range are
+     * completed.
+     * 
+     * @param range the range to check
+     * @return <code>true</code> if all tiles of the range are completed
+     */
+    public synchronized boolean isDone(TileRange range) {
+        ZoomState state = fZooms.get(range.getZoom());
+        if (state == null || !range.equals(state.fRange.intersect(range))) {
+            return false;
+        }
+        int width = range.getMaxX() - range.getMinX() + 1;
+        for (int y = range.getMinY(); y <= range.getMaxY(); y++) {
+            int from = state.getIndex(y, range.getMinX());
+            if (state.fDone.nextClearBit(from) < from + width) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(fFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The file '"
+                    + fFile
+                    + "' is not a checkpoint manifest.");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version of the manifest '"
+                    + fFile
+                    + "': "
+                    + version
+                    + ".");
+            }
+            int zoomNumber = in.readInt();
+            for (int i = 0; i < zoomNumber; i++) {
+                int zoom = in.readInt();
+                int minY = in.readInt();
+                int minX = in.readInt();
+                int maxY = in.readInt();
+                int maxX = in.readInt();
+                ZoomState state = new ZoomState(new TileRange(
+                    minY,
+                    minX,
+                    maxY,
+                    maxX,
+                    zoom));
+                int runNumber = in.readInt();
+                for (int j = 0; j < runNumber; j++) {
+                    int start = in.readInt();
+                    int length = in.readInt();
+                    state.fDone.set(start, start + length);
+                }
+                fZooms.put(zoom, state);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes completed tiles in the manifest file. The manifest is written in
+     * a temporary file first and then it replaces the existing one, so an
+     * interruption of this method does not corrupt the manifest.
+     * 
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(fFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fZooms.size());
+            for (ZoomState state : fZooms.values()) {
+                TileRange range = state.fRange;
+                out.writeInt(range.getZoom());
+                out.writeInt(range.getMinY());
+                out.writeInt(range.getMinX());
+                out.writeInt(range.getMaxY());
+                out.writeInt(range.getMaxX());
+                BitSet done = state.fDone;
+                int runNumber = 0;
+                for (int i = done.nextSetBit(0); i >= 0; i = done
+                    .nextSetBit(done.nextClearBit(i))) {
+                    runNumber++;
+                }
+                out.writeInt(runNumber);
+                for (int i = done.nextSetBit(0); i >= 0;) {
+                    int end = done.nextClearBit(i);
+                    out.writeInt(i);
+                    out.writeInt(end - i);
+                    i = done.nextSetBit(end);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(fFile)) {
+            fFile.delete();
+            if (!tmp.renameTo(fFile)) {
+                throw new IOException("Can not write the manifest '"
+                    + fFile
+                    + "'.");
+            }
+        }
+        fLastSaveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the specified tile as completed. The manifest is saved if the
+     * save interval is elapsed since the last save. Tiles outside of ranges
+     * defined by the {@link #init(TileRange)} method are ignored.
+     * 
+     * @param tile the completed tile
+     * @throws IOException if the manifest can not be saved
+     */
+    public synchronized void setDone(TileInfo tile) throws IOException {
+        ZoomState state = fZooms.get(tile.getZoom());
+        if (state == null || !state.fRange.contains(tile)) {
+            return;
+        }
+        state.fDone.set(state.getIndex(tile.getY(), tile.getX()));
+        fDoneNumber++;
+        if (System.currentTimeMillis() - fLastSaveTime >= fSaveInterval) {
+            save();
+        }
+    }
+
+    /**
+     * Sets the minimal interval between two automatic saves of the manifest.
+     * 
+     * @param saveInterval the interval in milliseconds
+     */
+    public synchronized void setSaveInterval(long saveInterval) {
+        fSaveInterval = saveInterval;
+    }
+
+}
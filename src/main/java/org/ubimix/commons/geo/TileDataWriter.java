@@ -0,0 +1,315 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.IBlankTileListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Common superclass of tile sinks storing encoded tiles. It encodes each
+ * received tile image and delivers the resulting bytes to the
+ * {@link #onTileData(TileInfo, TileFormat, byte[])} method. Tiles can be
+ * delivered concurrently, so implementations of the
+ * {@link #onTileData(TileInfo, TileFormat, byte[])} method should be
+ * thread-safe.
+ * <p>
+ * If blank tiles are enabled (see {@link #setBlankTilesEnabled(boolean)})
+ * then tiles filled with a single color are not delivered to the
+ * {@link #onTile(TileInfo, BufferedImage, TileFormat)} method; they are
+ * encoded only once for each format, size and color. By default all tiles
+ * are delivered to the {@link #onTile(TileInfo, BufferedImage, TileFormat)}
+ * method.
+ * </p>
+ * <p>
+ * If a checkpoint is defined then each stored tile is marked as completed in
+ * this checkpoint (see {@link #setCheckpoint(TileCheckpoint)}).
+ * </p>
+ * <p>
+ * If metrics are defined then encoding and storage of tiles are reported in
+ * these metrics (see {@link #setMetrics(ITileMetrics)}).
+ * </p>
+ * <p>
+ * If a manifest is defined then each stored tile is added to this manifest
+ * (see {@link #setManifest(TileManifestWriter)}).
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public abstract class TileDataWriter implements IBlankTileListener {
+
+    private final static Logger log = Logger.getLogger(TileDataWriter.class
+        .getName());
+
+    /**
+     * Encoded blank tiles. Keys of this map contain the format, the size and
+     * the color of tiles.
+     */
+    private final Map<String, byte[]> fBlankTiles = new ConcurrentHashMap<String, byte[]>();
+
+    private boolean fBlankTilesEnabled;
+
+    private TileCheckpoint fCheckpoint;
+
+    private TileEncoder fEncoder = new TileEncoder();
+
+    private TileManifestWriter fManifest;
+
+    private ITileMetrics fMetrics;
+
+    /**
+     * Encodes the specified tile image in the given format.
+     * 
+     * @param tileImage the image to encode
+     * @param tileFormat the format of the tile
+     * @return the encoded image
+     * @throws IOException
+     */
+    protected byte[] encode(BufferedImage tileImage, TileFormat tileFormat)
+        throws IOException {
+        return fEncoder.encode(tileImage, tileFormat);
+    }
+
+    /**
+     * Encodes the image of the specified tile and reports the encoding in the
+     * metrics.
+     * 
+     * @param tile the encoded tile
+     * @param tileImage the image to encode
+     * @param tileFormat the format of the tile
+     * @return the encoded image
+     * @throws IOException
+     */
+    protected byte[] encodeTile(
+        TileInfo tile,
+        BufferedImage tileImage,
+        TileFormat tileFormat) throws IOException {
+        ITileMetrics metrics = fMetrics;
+        if (metrics == null) {
+            return encode(tileImage, tileFormat);
+        }
+        long start = System.nanoTime();
+        byte[] data = encode(tileImage, tileFormat);
+        metrics.onStage(
+            ITileMetrics.Stage.ENCODE,
+            tile.getZoom(),
+            data.length,
+            System.nanoTime() - start);
+        return data;
+    }
+
+    /**
+     * Returns encoded data of a blank tile. Blank tiles are encoded only once
+     * for each format, size and color.
+     * 
+     * @param tileImage the image of the blank tile
+     * @param argb the color of the blank tile
+     * @param tileFormat the format of the tile
+     * @return encoded data of the tile
+     * @throws IOException
+     */
+    protected byte[] getBlankTileData(
+        BufferedImage tileImage,
+        int argb,
+        TileFormat tileFormat) throws IOException {
+        String key = tileFormat
+            + ":"
+            + tileImage.getWidth()
+            + ":"
+            + Integer.toHexString(argb);
+        byte[] data = fBlankTiles.get(key);
+        if (data == null) {
+            data = encode(tileImage, tileFormat);
+            fBlankTiles.put(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * @return the checkpoint where stored tiles are marked as completed
+     */
+    public TileCheckpoint getCheckpoint() {
+        return fCheckpoint;
+    }
+
+    /**
+     * @return the manifest where stored tiles are added
+     */
+    public TileManifestWriter getManifest() {
+        return fManifest;
+    }
+
+    /**
+     * @return the metrics where encoding and storage of tiles are reported
+     */
+    public ITileMetrics getMetrics() {
+        return fMetrics;
+    }
+
+    /**
+     * @return the encoder used to encode tiles
+     */
+    public TileEncoder getTileEncoder() {
+        return fEncoder;
+    }
+
+    protected void handleError(String msg, Throwable t) {
+        log.log(Level.WARNING, msg, t);
+    }
+
+    /**
+     * @return <code>true</code> if blank tiles are encoded only once for each
+     *         color and are not delivered to the
+     *         {@link #onTile(TileInfo, BufferedImage, TileFormat)} method
+     * @see #setBlankTilesEnabled(boolean)
+     */
+    public boolean isBlankTilesEnabled() {
+        return fBlankTilesEnabled;
+    }
+
+    /**
+     * Blank tiles are encoded only once for each color; all blank tiles with
+     * the same color are delivered with the same bytes.
+     */
+    @Override
+    public void onBlankTile(
+        TileInfo tile,
+        BufferedImage tileImage,
+        int argb,
+        TileFormat tileFormat) {
+        try {
+            byte[] data = getBlankTileData(tileImage, argb, tileFormat);
+            writeTileData(tile, tileFormat, data);
+        } catch (Throwable t) {
+            handleError("Can not write the tile '" + tile + "'.", t);
+        }
+    }
+
+    @Override
+    public void onTile(
+        TileInfo tile,
+        BufferedImage tileImage,
+        TileFormat tileFormat) {
+        try {
+            byte[] data = encodeTile(tile, tileImage, tileFormat);
+            writeTileData(tile, tileFormat, data);
+        } catch (Throwable t) {
+            handleError("Can not write the tile '" + tile + "'.", t);
+        }
+    }
+
+    /**
+     * Enables or disables the separate delivery of blank tiles. If this flag
+     * is <code>true</code> then tiles filled with a single color are encoded
+     * only once for each color and they are not delivered to the
+     * {@link #onTile(TileInfo, BufferedImage, TileFormat)} method, so
+     * subclasses overriding this method should enable it only if they also
+     * handle the
+     * {@link #onBlankTile(TileInfo, BufferedImage, int, TileFormat)} method
+     * or if they override only the
+     * {@link #onTileData(TileInfo, TileFormat, byte[])} method. This flag
+     * should be changed before tiles are generated.
+     * 
+     * @param enabled the flag to set
+     */
+    public void setBlankTilesEnabled(boolean enabled) {
+        fBlankTilesEnabled = enabled;
+    }
+
+    /**
+     * Sets the checkpoint where stored tiles are marked as completed.
+     * 
+     * @param checkpoint the checkpoint to set
+     */
+    public void setCheckpoint(TileCheckpoint checkpoint) {
+        fCheckpoint = checkpoint;
+    }
+
+    /**
+     * Sets the manifest where stored tiles are added.
+     * 
+     * @param manifest the manifest to set or <code>null</code> if tiles are
+     *        not added to a manifest
+     */
+    public void setManifest(TileManifestWriter manifest) {
+        fManifest = manifest;
+    }
+
+    /**
+     * Sets the metrics where encoding and storage of tiles are reported.
+     * 
+     * @param metrics the metrics to set or <code>null</code> to disable the
+     *        instrumentation
+     */
+    public void setMetrics(ITileMetrics metrics) {
+        fMetrics = metrics;
+    }
+
+    /**
+     * Sets the encoder used to encode tiles. The encoder should be changed
+     * before the first tile is written.
+     * 
+     * @param encoder the encoder to set
+     */
+    public void setTileEncoder(TileEncoder encoder) {
+        fEncoder = encoder;
+        fBlankTiles.clear();
+    }
+
+    /**
+     * Stores the encoded tile. The given array can be shared between several
+     * tiles, so it should not be modified.
+     * 
+     * @param tile the tile to store
+     * @param tileFormat the format of the tile
+     * @param data the encoded tile image
+     * @throws IOException
+     */
+    protected abstract void onTileData(
+        TileInfo tile,
+        TileFormat tileFormat,
+        byte[] data) throws IOException;
+
+    /**
+     * Stores the encoded tile using the
+     * {@link #onTileData(TileInfo, TileFormat, byte[])} method, reports it in
+     * the metrics, adds it to the manifest and marks it as completed in the
+     * checkpoint.
+     * 
+     * @param tile the tile to store
+     * @param tileFormat the format of the tile
+     * @param data the encoded tile image
+     * @throws IOException
+     */
+    protected void writeTileData(
+        TileInfo tile,
+        TileFormat tileFormat,
+        byte[] data) throws IOException {
+        ITileMetrics metrics = fMetrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        onTileData(tile, tileFormat, data);
+        if (metrics != null) {
+            metrics.onStage(
+                ITileMetrics.Stage.WRITE,
+                tile.getZoom(),
+                data.length,
+                System.nanoTime() - start);
+        }
+        TileManifestWriter manifest = fManifest;
+        if (manifest != null) {
+            manifest.addTile(tile, tileFormat, data);
+        }
+        TileCheckpoint checkpoint = fCheckpoint;
+        if (checkpoint != null) {
+            checkpoint.setDone(tile);
+        }
+    }
+
+}
@@ -0,0 +1,658 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Encodes tile images in the formats defined by {@link TileFormat}. Each
+ * encoding uses a reusable state: a JPEG {@link ImageWriter} with its image
+ * output stream, a {@link Deflater}, row buffers and an intermediate image.
+ * So the service registry is not consulted for each tile and no per-tile
+ * writers or streams are created. States are acquired from a pool of this
+ * encoder and returned when the image is encoded, so the number of states is
+ * limited by the number of concurrently encoding threads and states are not
+ * bound to threads. Instances of this class are thread-safe; the
+ * {@link #close()} method releases native resources of pooled states.
+ * <p>
+ * JPEG tiles are converted to the <code>TYPE_3BYTE_BGR</code> layout
+ * natively handled by the JPEG writer and written with the configured
+ * quality. PNG tiles are written by this class directly with the configured
+ * deflate level and row filter strategy; tiles without transparent pixels are
+ * written as RGB images, other tiles as RGBA images.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class TileEncoder {
+
+    /**
+     * Row filter strategies of PNG images.
+     */
+    public enum PngFilter {
+        /**
+         * Each row uses the filter giving the minimal sum of absolute values
+         * of filtered bytes. This strategy gives the best compression in most
+         * cases but it is the slowest one.
+         */
+        ADAPTIVE(-1),
+        /**
+         * The average of the left and upper pixels is subtracted.
+         */
+        AVERAGE(3),
+        /**
+         * Rows are not filtered.
+         */
+        NONE(0),
+        /**
+         * The Paeth predictor is subtracted.
+         */
+        PAETH(4),
+        /**
+         * The left pixel is subtracted.
+         */
+        SUB(1),
+        /**
+         * The upper pixel is subtracted.
+         */
+        UP(2);
+
+        private final int fType;
+
+        private PngFilter(int type) {
+            fType = type;
+        }
+
+    }
+
+    /**
+     * An image output stream writing in a growing byte array. Unlike the
+     * {@link javax.imageio.stream.MemoryCacheImageOutputStream} this stream
+     * is reused for all tiles encoded by one thread (see {@link #clear()}).
+     */
+    private static class ByteImageOutputStream extends ImageOutputStreamImpl {
+
+        private byte[] fData = new byte[16 * 1024];
+
+        private int fLength;
+
+        /**
+         * Removes all written bytes and moves the stream to the beginning.
+         */
+        public void clear() {
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+            fLength = 0;
+        }
+
+        private void ensureCapacity(long size) throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The image is too big.");
+            }
+            if (size > fData.length) {
+                fData = Arrays.copyOf(
+                    fData,
+                    (int) Math.min(
+                        Integer.MAX_VALUE,
+                        Math.max(size, 2L * fData.length)));
+            }
+        }
+
+        @Override
+        public long length() {
+            return fLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= fLength) {
+                return -1;
+            }
+            return fData[(int) streamPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= fLength) {
+                return -1;
+            }
+            int n = (int) Math.min(len, fLength - streamPos);
+            System.arraycopy(fData, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            flushBits();
+            ensureCapacity(streamPos + len);
+            System.arraycopy(b, off, fData, (int) streamPos, len);
+            streamPos += len;
+            fLength = (int) Math.max(fLength, streamPos);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkClosed();
+            flushBits();
+            ensureCapacity(streamPos + 1);
+            fData[(int) streamPos++] = (byte) b;
+            fLength = (int) Math.max(fLength, streamPos);
+        }
+
+        /**
+         * Writes all bytes of this stream in the specified output stream.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(fData, 0, fLength);
+        }
+
+    }
+
+    /**
+     * Reusable state of the encoder. Each state is used by one thread at a
+     * time.
+     */
+    private static class EncoderState {
+
+        private BufferedImage fBgrImage;
+
+        private byte[] fBuffer = new byte[8192];
+
+        private final CRC32 fCrc = new CRC32();
+
+        private Deflater fDeflater;
+
+        private byte[][] fFiltered = new byte[5][];
+
+        private final ByteImageOutputStream fJpegOut = new ByteImageOutputStream();
+
+        private ImageWriter fJpegWriter;
+
+        private final ByteArrayOutputStream fOut = new ByteArrayOutputStream();
+
+        private int[] fPixels = new int[0];
+
+        private byte[] fPrevRow = new byte[0];
+
+        private byte[] fRow = new byte[0];
+
+        /**
+         * Releases the JPEG writer and the deflater of this state. They are
+         * created again if this state is used later.
+         */
+        private void dispose() {
+            if (fJpegWriter != null) {
+                fJpegWriter.dispose();
+                fJpegWriter = null;
+            }
+            if (fDeflater != null) {
+                fDeflater.end();
+                fDeflater = null;
+            }
+        }
+
+        private BufferedImage getBgrImage(int width, int height) {
+            if (fBgrImage == null
+                || fBgrImage.getWidth() != width
+                || fBgrImage.getHeight() != height) {
+                fBgrImage = new BufferedImage(
+                    width,
+                    height,
+                    BufferedImage.TYPE_3BYTE_BGR);
+            }
+            return fBgrImage;
+        }
+
+        private Deflater getDeflater() {
+            if (fDeflater == null) {
+                fDeflater = new Deflater();
+            }
+            return fDeflater;
+        }
+
+        private ImageWriter getJpegWriter() throws IOException {
+            if (fJpegWriter == null) {
+                Iterator<ImageWriter> writers = ImageIO
+                    .getImageWritersByFormatName("jpeg");
+                if (!writers.hasNext()) {
+                    throw new IOException("JPEG writer is not available.");
+                }
+                fJpegWriter = writers.next();
+            }
+            return fJpegWriter;
+        }
+
+        private int[] getPixels(int width) {
+            if (fPixels.length < width) {
+                fPixels = new int[width];
+            }
+            return fPixels;
+        }
+
+        private void setRowSize(int rowSize) {
+            if (fRow.length != rowSize) {
+                fRow = new byte[rowSize];
+                fPrevRow = new byte[rowSize];
+                for (int i = 0; i < fFiltered.length; i++) {
+                    fFiltered[i] = new byte[rowSize];
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The default deflate level of PNG images. Higher levels give slightly
+     * smaller tiles but they are much slower.
+     */
+    public static final int DEFAULT_PNG_COMPRESSION_LEVEL = 4;
+
+    private static final byte[] PNG_SIGNATURE = {
+        (byte) 137,
+        80,
+        78,
+        71,
+        13,
+        10,
+        26,
+        10 };
+
+    private static int filter(
+        int type,
+        byte[] row,
+        byte[] prev,
+        int bpp,
+        byte[] out) {
+        int sum = 0;
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int value;
+            switch (type) {
+                case 1:
+                    value = x - a;
+                    break;
+                case 2:
+                    value = x - b;
+                    break;
+                case 3:
+                    value = x - ((a + b) >> 1);
+                    break;
+                case 4:
+                    int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                    value = x - paeth(a, b, c);
+                    break;
+                default:
+                    value = x;
+            }
+            byte v = (byte) value;
+            out[i] = v;
+            sum += v < 0 ? -v : v;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns <code>true</code> if all pixels of the specified image are
+     * opaque.
+     */
+    private static boolean isOpaque(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return true;
+        }
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData();
+            if (pixels.length != image.getWidth() * image.getHeight()) {
+                // Sub-images are not checked
+                return false;
+            }
+            for (int pixel : pixels) {
+                if ((pixel >>> 24) != 0xFF) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private float fJpegQuality = 0.75f;
+
+    private int fPngCompressionLevel = DEFAULT_PNG_COMPRESSION_LEVEL;
+
+    private PngFilter fPngFilter = PngFilter.ADAPTIVE;
+
+    /**
+     * States which are not used by encoding threads.
+     */
+    private final Queue<EncoderState> fStates = new ConcurrentLinkedQueue<EncoderState>();
+
+    /**
+     * Returns a state from the pool or a new state if the pool is empty.
+     */
+    private EncoderState acquireState() {
+        EncoderState state = fStates.poll();
+        return state != null ? state : new EncoderState();
+    }
+
+    /**
+     * Releases JPEG writers and deflaters of all pooled states and removes
+     * them from the pool. This method should be called when no tiles are
+     * encoded; the encoder can be used again after it is closed.
+     */
+    public void close() {
+        EncoderState state;
+        while ((state = fStates.poll()) != null) {
+            state.dispose();
+        }
+    }
+
+    private void deflate(EncoderState state, byte[] data, OutputStream out)
+        throws IOException {
+        Deflater deflater = state.getDeflater();
+        deflater.setInput(data);
+        byte[] buf = state.fBuffer;
+        while (!deflater.needsInput()) {
+            int len = deflater.deflate(buf);
+            out.write(buf, 0, len);
+        }
+    }
+
+    /**
+     * Encodes the specified image in the given format.
+     * 
+     * @param image the image to encode
+     * @param format the format of the image
+     * @return the encoded image
+     * @throws IOException
+     */
+    public byte[] encode(BufferedImage image, TileFormat format)
+        throws IOException {
+        EncoderState state = acquireState();
+        try {
+            state.fOut.reset();
+            encode(state, image, format, state.fOut);
+            return state.fOut.toByteArray();
+        } finally {
+            fStates.offer(state);
+        }
+    }
+
+    private void encode(
+        EncoderState state,
+        BufferedImage image,
+        TileFormat format,
+        OutputStream out) throws IOException {
+        if (format == TileFormat.JPG) {
+            writeJpeg(state, image, out);
+        } else {
+            writePng(state, image, out);
+        }
+    }
+
+    /**
+     * Encodes the specified image in the given format and writes the result
+     * in the output stream. The stream is not closed by this method.
+     * 
+     * @param image the image to encode
+     * @param format the format of the image
+     * @param out the output stream
+     * @throws IOException
+     */
+    public void encode(BufferedImage image, TileFormat format, OutputStream out)
+        throws IOException {
+        EncoderState state = acquireState();
+        try {
+            encode(state, image, format, out);
+        } finally {
+            fStates.offer(state);
+        }
+    }
+
+    /**
+     * @return the quality of JPEG images (from 0 to 1)
+     */
+    public float getJpegQuality() {
+        return fJpegQuality;
+    }
+
+    /**
+     * @return the deflate level of PNG images (from 0 to 9 or -1 for the
+     *         default level)
+     */
+    public int getPngCompressionLevel() {
+        return fPngCompressionLevel;
+    }
+
+    /**
+     * @return the row filter strategy of PNG images
+     */
+    public PngFilter getPngFilter() {
+        return fPngFilter;
+    }
+
+    /**
+     * @return the number of pooled states
+     */
+    int getStatesNumber() {
+        return fStates.size();
+    }
+
+    /**
+     * Sets the quality of JPEG images: a value between 0 (the smallest files)
+     * and 1 (the best quality). The default quality is 0.75.
+     * 
+     * @param jpegQuality the quality of JPEG images
+     */
+    public void setJpegQuality(float jpegQuality) {
+        fJpegQuality = Math.max(0, Math.min(1, jpegQuality));
+    }
+
+    /**
+     * Sets the deflate level of PNG images: a value between 0 (no
+     * compression) and 9 (the best compression); -1 means the default level
+     * of the {@link Deflater}. The default value is
+     * {@link #DEFAULT_PNG_COMPRESSION_LEVEL}.
+     * 
+     * @param pngCompressionLevel the deflate level
+     */
+    public void setPngCompressionLevel(int pngCompressionLevel) {
+        fPngCompressionLevel = Math.max(-1, Math.min(9, pngCompressionLevel));
+    }
+
+    /**
+     * Sets the row filter strategy of PNG images. By default each row uses the
+     * best filter ({@link PngFilter#ADAPTIVE}).
+     * 
+     * @param pngFilter the row filter strategy
+     */
+    public void setPngFilter(PngFilter pngFilter) {
+        fPngFilter = pngFilter != null ? pngFilter : PngFilter.ADAPTIVE;
+    }
+
+    private void writeChunk(
+        EncoderState state,
+        OutputStream out,
+        String type,
+        byte[] data,
+        int len) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        writeInt(out, len);
+        out.write(typeBytes);
+        out.write(data, 0, len);
+        CRC32 crc = state.fCrc;
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, len);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private void writeJpeg(
+        EncoderState state,
+        BufferedImage image,
+        OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage bgr = image;
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            bgr = state.getBgrImage(width, height);
+            byte[] data = ((DataBufferByte) bgr.getRaster().getDataBuffer())
+                .getData();
+            int[] row = state.getPixels(width);
+            int pos = 0;
+            for (int y = 0; y < height; y++) {
+                RasterUtils.getRow(image, y, row);
+                for (int x = 0; x < width; x++) {
+                    int pixel = row[x];
+                    data[pos++] = (byte) pixel;
+                    data[pos++] = (byte) (pixel >> 8);
+                    data[pos++] = (byte) (pixel >> 16);
+                }
+            }
+        }
+        ImageWriter writer = state.getJpegWriter();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(fJpegQuality);
+        ByteImageOutputStream output = state.fJpegOut;
+        output.clear();
+        try {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(bgr, null, null), param);
+        } finally {
+            writer.reset();
+        }
+        output.writeTo(out);
+    }
+
+    private void writePng(
+        EncoderState state,
+        BufferedImage image,
+        OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = !isOpaque(image);
+        int bpp = alpha ? 4 : 3;
+        int rowSize = width * bpp;
+        state.setRowSize(rowSize);
+
+        out.write(PNG_SIGNATURE);
+        byte[] header = new byte[13];
+        header[0] = (byte) (width >>> 24);
+        header[1] = (byte) (width >>> 16);
+        header[2] = (byte) (width >>> 8);
+        header[3] = (byte) width;
+        header[4] = (byte) (height >>> 24);
+        header[5] = (byte) (height >>> 16);
+        header[6] = (byte) (height >>> 8);
+        header[7] = (byte) height;
+        header[8] = 8; // bit depth
+        header[9] = (byte) (alpha ? 6 : 2); // color type: RGBA or RGB
+        writeChunk(state, out, "IHDR", header, header.length);
+
+        Deflater deflater = state.getDeflater();
+        deflater.reset();
+        deflater.setLevel(fPngCompressionLevel);
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        byte[] row = state.fRow;
+        byte[] prev = state.fPrevRow;
+        Arrays.fill(prev, (byte) 0);
+        int[] pixels = state.getPixels(width);
+        byte[] filterType = new byte[1];
+        for (int y = 0; y < height; y++) {
+            RasterUtils.getRow(image, y, pixels);
+            int pos = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[x];
+                row[pos++] = (byte) (pixel >> 16);
+                row[pos++] = (byte) (pixel >> 8);
+                row[pos++] = (byte) pixel;
+                if (alpha) {
+                    row[pos++] = (byte) (pixel >>> 24);
+                }
+            }
+            int type = fPngFilter.fType;
+            byte[] filtered;
+            if (type >= 0) {
+                filtered = state.fFiltered[type];
+                filter(type, row, prev, bpp, filtered);
+            } else {
+                type = 0;
+                int min = Integer.MAX_VALUE;
+                for (int t = 0; t < state.fFiltered.length; t++) {
+                    int sum = filter(t, row, prev, bpp, state.fFiltered[t]);
+                    if (sum < min) {
+                        min = sum;
+                        type = t;
+                    }
+                }
+                filtered = state.fFiltered[type];
+            }
+            filterType[0] = (byte) type;
+            deflate(state, filterType, idat);
+            deflate(state, filtered, idat);
+            byte[] tmp = prev;
+            prev = row;
+            row = tmp;
+        }
+        state.fRow = row;
+        state.fPrevRow = prev;
+        deflater.finish();
+        byte[] buf = state.fBuffer;
+        while (!deflater.finished()) {
+            int len = deflater.deflate(buf);
+            idat.write(buf, 0, len);
+        }
+        byte[] data = idat.toByteArray();
+        writeChunk(state, out, "IDAT", data, data.length);
+        writeChunk(state, out, "IEND", data, 0);
+    }
+
+}
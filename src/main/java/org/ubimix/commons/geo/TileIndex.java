@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.util.Arrays;
+
+/**
+ * A compact map of tile keys (see {@link TileInfo#getKey()}) to long values.
+ * Entries are kept in two growing arrays and sorted by keys only when they
+ * are requested, so adding an entry costs only two array assignments. If the
+ * same key is added several times then the last value is kept.
+ * 
+ * @author kotelnikov
+ */
+public class TileIndex {
+
+    private long[] fKeys = new long[1024];
+
+    private int fSize;
+
+    /**
+     * This flag is <code>true</code> if entries are sorted by keys and
+     * contain no duplicates.
+     */
+    private boolean fSorted = true;
+
+    private long[] fValues = new long[1024];
+
+    /**
+     * Returns the value associated with the specified key.
+     * 
+     * @param key the key of the tile
+     * @param defaultValue the value returned if the key is not found
+     * @return the value associated with the key
+     */
+    public synchronized long get(long key, long defaultValue) {
+        sort();
+        int pos = Arrays.binarySearch(fKeys, 0, fSize, key);
+        return pos >= 0 ? fValues[pos] : defaultValue;
+    }
+
+    /**
+     * Returns the key of the entry with the specified position. Entries are
+     * sorted by keys.
+     * 
+     * @param pos the position of the entry
+     * @return the key of the entry
+     */
+    public synchronized long getKey(int pos) {
+        sort();
+        return fKeys[pos];
+    }
+
+    /**
+     * Returns the value of the entry with the specified position. Entries are
+     * sorted by keys.
+     * 
+     * @param pos the position of the entry
+     * @return the value of the entry
+     */
+    public synchronized long getValue(int pos) {
+        sort();
+        return fValues[pos];
+    }
+
+    /**
+     * Associates the specified value with the given key.
+     * 
+     * @param key the key of the tile
+     * @param value the value to set
+     */
+    public synchronized void put(long key, long value) {
+        if (fSize == fKeys.length) {
+            int size = Math.max(1024, fKeys.length * 2);
+            fKeys = Arrays.copyOf(fKeys, size);
+            fValues = Arrays.copyOf(fValues, size);
+        }
+        if (fSize > 0 && fKeys[fSize - 1] >= key) {
+            fSorted = false;
+        }
+        fKeys[fSize] = key;
+        fValues[fSize] = value;
+        fSize++;
+    }
+
+    /**
+     * @return the number of entries in this index
+     */
+    public synchronized int size() {
+        sort();
+        return fSize;
+    }
+
+    /**
+     * Sorts entries by keys and removes duplicated keys.
+     */
+    private void sort() {
+        if (fSorted) {
+            return;
+        }
+        long[] keys = Arrays.copyOf(fKeys, fSize);
+        Arrays.sort(keys);
+        int size = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (size == 0 || keys[size - 1] != keys[i]) {
+                keys[size++] = keys[i];
+            }
+        }
+        long[] values = new long[keys.length];
+        for (int i = 0; i < fSize; i++) {
+            int pos = Arrays.binarySearch(keys, 0, size, fKeys[i]);
+            values[pos] = fValues[i];
+        }
+        fKeys = keys;
+        fValues = values;
+        fSize = size;
+        fSorted = true;
+    }
+
+}
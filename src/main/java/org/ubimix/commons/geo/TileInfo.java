@@ -8,6 +8,27 @@ package org.ubimix.commons.geo;
  */
 public class TileInfo {
 
+    /**
+     * The mask of tile positions packed in tile keys.
+     * 
+     * @see #getKey()
+     */
+    private static final long KEY_MASK = (1L << 29) - 1;
+
+    /**
+     * Returns a tile corresponding to the specified key.
+     * 
+     * @param key the key of the tile
+     * @return a tile corresponding to the specified key
+     * @see #getKey()
+     */
+    public static TileInfo getTileByKey(long key) {
+        int zoom = (int) (key >>> 58);
+        int y = (int) ((key >>> 29) & KEY_MASK);
+        int x = (int) (key & KEY_MASK);
+        return new TileInfo(y, x, zoom);
+    }
+
     public static ImagePoint getTileNumber(
         GeoPoint first,
         GeoPoint second,
@@ -89,6 +110,18 @@ public class TileInfo {
         return distance;
     }
 
+    /**
+     * Returns the zoom level and the position of this tile packed in one long
+     * value. Keys are ordered by zoom levels, then by Y and X positions of
+     * tiles. Tile positions are stored in 29 bits, so keys can be used for
+     * zoom levels up to 29.
+     * 
+     * @return the key of this tile
+     */
+    public long getKey() {
+        return ((long) fZoom << 58) | ((fY & KEY_MASK) << 29) | (fX & KEY_MASK);
+    }
+
     public double getLatitude() {
         return GeoUtils.getTileLatitudeByY(fY, fZoom);
     }
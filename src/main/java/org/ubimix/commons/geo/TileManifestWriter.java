@@ -0,0 +1,208 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Writes a TileJSON manifest of generated tiles. The manifest is streamed to
+ * the underlying writer while tiles are generated: the description of the
+ * pyramid is written by the
+ * {@link #begin(ImagePoint, ImageTiler, int, int, TileFormat, Object...)}
+ * method, each stored tile can be listed with its path, size and SHA-1 hash
+ * and the totals are written when the manifest is closed. Tiles are added by
+ * tile writers (see {@link TileDataWriter#setManifest(TileManifestWriter)}),
+ * so the manifest is produced in the same pass as tiles. Tiles are listed in
+ * the order of their delivery. All methods of this class are thread-safe.
+ * 
+ * @author kotelnikov
+ */
+public class TileManifestWriter {
+
+    /**
+     * The version of the TileJSON specification.
+     */
+    public static final String TILEJSON_VERSION = "2.2.0";
+
+    private long fBytes;
+
+    private long fCount;
+
+    private final ThreadLocal<MessageDigest> fDigest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final JsonWriter fJson;
+
+    private final boolean fListTiles;
+
+    /**
+     * @param out the stream receiving the manifest in UTF-8
+     * @param listTiles if this flag is <code>true</code> then all tiles are
+     *        listed in the manifest
+     */
+    public TileManifestWriter(OutputStream out, boolean listTiles) {
+        this(new BufferedWriter(new OutputStreamWriter(out, Charset
+            .forName("UTF-8"))), listTiles);
+    }
+
+    /**
+     * @param writer the writer receiving the manifest
+     * @param listTiles if this flag is <code>true</code> then all tiles are
+     *        listed in the manifest
+     */
+    public TileManifestWriter(Writer writer, boolean listTiles) {
+        fJson = new JsonWriter(writer);
+        fListTiles = listTiles;
+    }
+
+    /**
+     * Adds the specified tile to the manifest. If tiles are listed then the
+     * path, the size and the SHA-1 hash of the tile are written immediately.
+     * 
+     * @param tile the stored tile
+     * @param tileFormat the format of the tile
+     * @param data encoded data of the tile
+     * @throws IOException
+     */
+    public void addTile(TileInfo tile, TileFormat tileFormat, byte[] data)
+        throws IOException {
+        byte[] hash = null;
+        if (fListTiles) {
+            MessageDigest digest = fDigest.get();
+            hash = digest.digest(data);
+        }
+        synchronized (this) {
+            fCount++;
+            fBytes += data.length;
+            if (hash != null) {
+                fJson.beginObject();
+                fJson.name("path").writeSeparator();
+                fJson.writeRaw('"');
+                fJson.writeNumber(tile.getZoom());
+                fJson.writeRaw('/');
+                fJson.writeNumber(tile.getX());
+                fJson.writeRaw('/');
+                fJson.writeNumber(tile.getY());
+                fJson.writeRaw('.');
+                String ext = tileFormat.toString();
+                for (int i = 0; i < ext.length(); i++) {
+                    fJson.writeRaw(ext.charAt(i));
+                }
+                fJson.writeRaw('"');
+                fJson.name("bytes").value(data.length);
+                fJson.name("sha1").valueHex(hash);
+                fJson.endObject();
+            }
+        }
+    }
+
+    /**
+     * Writes the description of the pyramid. The bounds of the pyramid are
+     * defined by the image size and the tiler of the image zoom level.
+     * Additional members of the manifest are defined by pairs of names and
+     * values; string values are escaped, numbers and booleans are written "as
+     * is".
+     * 
+     * @param imageSize the size of the image
+     * @param tiler the tiler of the image zoom level
+     * @param minZoom the minimal zoom level of tiles
+     * @param maxZoom the maximal zoom level of tiles
+     * @param tileFormat the format of tiles
+     * @param args pairs of names and values of additional members
+     * @throws IOException
+     */
+    public synchronized void begin(
+        ImagePoint imageSize,
+        ImageTiler tiler,
+        int minZoom,
+        int maxZoom,
+        TileFormat tileFormat,
+        Object... args) throws IOException {
+        GeoPoint topLeft = tiler.getGeoPosition(new ImagePoint(0, 0));
+        GeoPoint bottomRight = tiler.getGeoPosition(imageSize);
+        double west = topLeft.getLongitude();
+        double north = topLeft.getLatitude();
+        double east = bottomRight.getLongitude();
+        double south = bottomRight.getLatitude();
+        fJson.beginObject();
+        fJson.name("tilejson").value(TILEJSON_VERSION);
+        fJson.name("scheme").value("xyz");
+        fJson.name("format").value(tileFormat.toString());
+        fJson.name("minzoom").value(minZoom);
+        fJson.name("maxzoom").value(maxZoom);
+        fJson.name("bounds").beginArray();
+        fJson.value(west).value(south).value(east).value(north);
+        fJson.endArray();
+        fJson.name("center").beginArray();
+        fJson.value((west + east) / 2).value((south + north) / 2);
+        fJson.value(minZoom);
+        fJson.endArray();
+        fJson.name("tiles").beginArray();
+        fJson.value("{z}/{x}/{y}." + tileFormat);
+        fJson.endArray();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            fJson.name(String.valueOf(args[i]));
+            Object value = args[i + 1];
+            if (value instanceof Number || value instanceof Boolean) {
+                fJson.rawValue(value);
+            } else {
+                fJson.value(value != null ? value.toString() : null);
+            }
+        }
+        if (fListTiles) {
+            fJson.name("tileList").beginArray();
+        }
+    }
+
+    /**
+     * Writes the number and the total size of tiles, finishes the manifest
+     * and closes the underlying writer.
+     * 
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        try {
+            if (fListTiles) {
+                fJson.endArray();
+            }
+            fJson.name("tileCount").value(fCount);
+            fJson.name("tileBytes").value(fBytes);
+            fJson.endObject();
+        } finally {
+            fJson.close();
+        }
+    }
+
+    /**
+     * @return the total size of added tiles
+     */
+    public synchronized long getBytes() {
+        return fBytes;
+    }
+
+    /**
+     * @return the number of added tiles
+     */
+    public synchronized long getCount() {
+        return fCount;
+    }
+
+}
@@ -0,0 +1,299 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This implementation of the {@link ITileMetrics} interface accumulates
+ * counters of each stage and each zoom level. Counters are striped: each
+ * thread updates its own stripe (selected by the thread identifier) and
+ * stripes are summed only when values are read, so concurrent rendering,
+ * encoding and writing threads do not contend on the same counters.
+ * 
+ * @author kotelnikov
+ */
+public class TileMetrics implements ITileMetrics {
+
+    /**
+     * The maximal zoom level with its own counters; counters of deeper levels
+     * are accumulated with this level.
+     */
+    public static final int MAX_ZOOM = 31;
+
+    private static final int AMOUNT = 1;
+
+    private static final int COUNT = 0;
+
+    private static final int NANOS = 2;
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final int VALUES = 3;
+
+    private static int getIndex(Stage stage, int zoom, int value) {
+        zoom = Math.max(0, Math.min(MAX_ZOOM, zoom));
+        return ((stage.ordinal() * (MAX_ZOOM + 1)) + zoom) * VALUES + value;
+    }
+
+    private final int fMask;
+
+    private final AtomicIntegerArray fMaxQueueDepth = new AtomicIntegerArray(
+        STAGES.length);
+
+    private final AtomicIntegerArray fQueueDepth = new AtomicIntegerArray(
+        STAGES.length);
+
+    private final AtomicLongArray fRangeStart = new AtomicLongArray(
+        MAX_ZOOM + 1);
+
+    private volatile long fStartTime = System.nanoTime();
+
+    private final AtomicLongArray[] fStripes;
+
+    private final AtomicLongArray fZoomNanos = new AtomicLongArray(
+        MAX_ZOOM + 1);
+
+    /**
+     * Creates metrics with one stripe of counters for each processor.
+     */
+    public TileMetrics() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripesNumber the minimal number of stripes of counters
+     */
+    public TileMetrics(int stripesNumber) {
+        int size = 1;
+        while (size < stripesNumber) {
+            size <<= 1;
+        }
+        fMask = size - 1;
+        fStripes = new AtomicLongArray[size];
+        for (int i = 0; i < size; i++) {
+            fStripes[i] = new AtomicLongArray(STAGES.length
+                * (MAX_ZOOM + 1)
+                * VALUES);
+        }
+    }
+
+    public void beginRange(TileRange range) {
+        fRangeStart.set(getZoom(range), System.nanoTime());
+    }
+
+    public void endRange(TileRange range) {
+        int zoom = getZoom(range);
+        fZoomNanos.addAndGet(zoom, System.nanoTime() - fRangeStart.get(zoom));
+    }
+
+    /**
+     * @param stage the stage
+     * @return the amount of data processed by the stage on all zoom levels
+     */
+    public long getAmount(Stage stage) {
+        return getTotal(stage, AMOUNT);
+    }
+
+    /**
+     * @param stage the stage
+     * @param zoom the zoom level
+     * @return the amount of data processed by the stage on the zoom level
+     */
+    public long getAmount(Stage stage, int zoom) {
+        return getValue(getIndex(stage, zoom, AMOUNT));
+    }
+
+    /**
+     * @param stage the stage
+     * @return the number of executions of the stage on all zoom levels
+     */
+    public long getCount(Stage stage) {
+        return getTotal(stage, COUNT);
+    }
+
+    /**
+     * @param stage the stage
+     * @param zoom the zoom level
+     * @return the number of executions of the stage on the zoom level
+     */
+    public long getCount(Stage stage, int zoom) {
+        return getValue(getIndex(stage, zoom, COUNT));
+    }
+
+    /**
+     * @return the time elapsed since these metrics were created or reset
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - fStartTime;
+    }
+
+    /**
+     * @param stage the stage
+     * @return the maximal number of tiles waiting for the stage
+     */
+    public int getMaxQueueDepth(Stage stage) {
+        return fMaxQueueDepth.get(stage.ordinal());
+    }
+
+    /**
+     * @param stage the stage
+     * @return the total execution time of the stage on all zoom levels
+     */
+    public long getNanos(Stage stage) {
+        return getTotal(stage, NANOS);
+    }
+
+    /**
+     * @param stage the stage
+     * @param zoom the zoom level
+     * @return the total execution time of the stage on the zoom level
+     */
+    public long getNanos(Stage stage, int zoom) {
+        return getValue(getIndex(stage, zoom, NANOS));
+    }
+
+    /**
+     * @param stage the stage
+     * @return the last reported number of tiles waiting for the stage
+     */
+    public int getQueueDepth(Stage stage) {
+        return fQueueDepth.get(stage.ordinal());
+    }
+
+    /**
+     * Returns the number of executions of the specified stage per second
+     * since these metrics were created or reset. For the {@link Stage#WRITE}
+     * stage it is the number of stored tiles per second.
+     * 
+     * @param stage the stage
+     * @return the number of executions per second
+     */
+    public double getRate(Stage stage) {
+        long nanos = Math.max(1, getElapsedNanos());
+        return getCount(stage) * 1e9 / nanos;
+    }
+
+    /**
+     * Returns a human-readable summary of all counters.
+     * 
+     * @return the summary of counters
+     */
+    public String getSummary() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(String.format(
+            "Tiling metrics (%.1f s):",
+            getElapsedNanos() / 1e9));
+        for (Stage stage : STAGES) {
+            long count = getCount(stage);
+            if (count == 0) {
+                continue;
+            }
+            long nanos = getNanos(stage);
+            buf.append(String.format(
+                "%n  %-6s %d ops, %d %s, %.1f s (%.3f ms/op), %.1f ops/s",
+                stage,
+                count,
+                getAmount(stage),
+                stage == Stage.LOAD || stage == Stage.RENDER ? "px" : "bytes",
+                nanos / 1e9,
+                nanos / 1e6 / count,
+                getRate(stage)));
+            int maxDepth = getMaxQueueDepth(stage);
+            if (maxDepth > 0) {
+                buf.append(String.format(
+                    ", queue: %d (max %d)",
+                    getQueueDepth(stage),
+                    maxDepth));
+            }
+        }
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            long nanos = fZoomNanos.get(zoom);
+            if (nanos == 0) {
+                continue;
+            }
+            buf.append(String.format(
+                "%n  zoom %d: %.1f s, %d render ops, %d tiles written",
+                zoom,
+                nanos / 1e9,
+                getCount(Stage.RENDER, zoom),
+                getCount(Stage.WRITE, zoom)));
+        }
+        return buf.toString();
+    }
+
+    private long getTotal(Stage stage, int value) {
+        long result = 0;
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            result += getValue(getIndex(stage, zoom, value));
+        }
+        return result;
+    }
+
+    private long getValue(int index) {
+        long result = 0;
+        for (AtomicLongArray stripe : fStripes) {
+            result += stripe.get(index);
+        }
+        return result;
+    }
+
+    private int getZoom(TileRange range) {
+        return Math.max(0, Math.min(MAX_ZOOM, range.getZoom()));
+    }
+
+    /**
+     * @param zoom the zoom level
+     * @return the time spent in ranges of tiles of the zoom level
+     */
+    public long getZoomNanos(int zoom) {
+        return fZoomNanos.get(zoom);
+    }
+
+    public void onQueueDepth(Stage stage, int depth) {
+        int idx = stage.ordinal();
+        fQueueDepth.set(idx, depth);
+        int max = fMaxQueueDepth.get(idx);
+        while (depth > max && !fMaxQueueDepth.compareAndSet(idx, max, depth)) {
+            max = fMaxQueueDepth.get(idx);
+        }
+    }
+
+    public void onStage(Stage stage, int zoom, long amount, long nanos) {
+        AtomicLongArray stripe = fStripes[(int) Thread
+            .currentThread()
+            .getId()
+            & fMask];
+        int idx = getIndex(stage, zoom, COUNT);
+        stripe.incrementAndGet(idx + COUNT);
+        stripe.addAndGet(idx + AMOUNT, amount);
+        stripe.addAndGet(idx + NANOS, nanos);
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : fStripes) {
+            for (int i = 0; i < stripe.length(); i++) {
+                stripe.set(i, 0);
+            }
+        }
+        for (int i = 0; i < STAGES.length; i++) {
+            fQueueDepth.set(i, 0);
+            fMaxQueueDepth.set(i, 0);
+        }
+        for (int i = 0; i <= MAX_ZOOM; i++) {
+            fZoomNanos.set(i, 0);
+        }
+        fStartTime = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+
+}
@@ -0,0 +1,335 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.IBlankTileListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * This listener decouples rendering of tiles from their encoding and
+ * storage. Received tiles are copied and put in a bounded queue of encoder
+ * threads; encoded tiles are put in a bounded queue of writer threads which
+ * store them using the {@link TileDataWriter#onTileData} method of the
+ * target writer. When a queue is full the producing stage is blocked, so the
+ * memory used by the pipeline is limited by sizes of queues. Rendering
+ * threads (the caller thread or threads of the generator executor) are
+ * blocked only when the encoding stage is saturated.
+ * <p>
+ * The {@link #close()} method should be called when all tiles are generated;
+ * it waits until all queued tiles are written.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class TilePipeline
+    implements
+    IBlankTileListener,
+    TilesLoader.ILoadListener {
+
+    /**
+     * A tile passed between stages of the pipeline.
+     */
+    private static class PipelineTile {
+
+        private final byte[] fData;
+
+        private final BufferedImage fImage;
+
+        private final TileInfo fTile;
+
+        private final TileFormat fTileFormat;
+
+        public PipelineTile(
+            TileInfo tile,
+            TileFormat tileFormat,
+            BufferedImage image,
+            byte[] data) {
+            fTile = tile;
+            fTileFormat = tileFormat;
+            fImage = image;
+            fData = data;
+        }
+
+    }
+
+    /**
+     * This tile notifies stage threads that there are no more tiles.
+     */
+    private static final PipelineTile END = new PipelineTile(
+        null,
+        null,
+        null,
+        null);
+
+    private final BlockingQueue<PipelineTile> fEncodeQueue;
+
+    private final Thread[] fEncoders;
+
+    /**
+     * Copies of tile images waiting for encoding are taken from this pool.
+     */
+    private final TileBufferPool fPool;
+
+    private final BlockingQueue<PipelineTile> fWriteQueue;
+
+    private final TileDataWriter fWriter;
+
+    private final Thread[] fWriters;
+
+    /**
+     * @param writer the writer encoding and storing tiles
+     * @param encodersNumber the number of encoder threads
+     * @param writersNumber the number of writer threads
+     * @param queueSize the maximal number of tiles waiting in each queue
+     */
+    public TilePipeline(
+        TileDataWriter writer,
+        int encodersNumber,
+        int writersNumber,
+        int queueSize) {
+        fWriter = writer;
+        fEncodeQueue = new ArrayBlockingQueue<PipelineTile>(queueSize);
+        fWriteQueue = new ArrayBlockingQueue<PipelineTile>(queueSize);
+        fPool = new TileBufferPool(queueSize + encodersNumber);
+        fEncoders = new Thread[encodersNumber];
+        for (int i = 0; i < fEncoders.length; i++) {
+            fEncoders[i] = new Thread("tile-encoder-" + i) {
+                @Override
+                public void run() {
+                    runEncoder();
+                }
+            };
+        }
+        fWriters = new Thread[writersNumber];
+        for (int i = 0; i < fWriters.length; i++) {
+            fWriters[i] = new Thread("tile-writer-" + i) {
+                @Override
+                public void run() {
+                    runWriter();
+                }
+            };
+        }
+        start(fEncoders);
+        start(fWriters);
+    }
+
+    /**
+     * Ranges of tiles are forwarded to the target writer if it implements the
+     * {@link TilesLoader.ILoadListener} interface (for example to prepare
+     * directories of tiles).
+     */
+    public void begin(
+        TileInfo minTile,
+        TileInfo maxTile,
+        GeoPoint min,
+        GeoPoint max) {
+        if (fWriter instanceof TilesLoader.ILoadListener) {
+            ((TilesLoader.ILoadListener) fWriter).begin(
+                minTile,
+                maxTile,
+                min,
+                max);
+        }
+    }
+
+    /**
+     * Waits until all queued tiles are encoded and written and stops threads
+     * of the pipeline. The target writer is not closed by this method.
+     * 
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        stop(fEncoders, fEncodeQueue);
+        stop(fWriters, fWriteQueue);
+    }
+
+    /**
+     * Returns a copy of the specified tile image. Copies are taken from the
+     * internal pool and returned back when they are encoded.
+     */
+    private BufferedImage copyImage(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB) {
+            type = BufferedImage.TYPE_INT_ARGB;
+        }
+        BufferedImage copy = fPool.acquire(w, h, type, 0);
+        if (!RasterUtils.copy(image, 0, 0, w, h, copy, 0, 0)) {
+            Graphics2D g = copy.createGraphics();
+            try {
+                g.drawImage(image, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * The end of a range is not forwarded to the writer because tiles of the
+     * range can still be waiting in queues.
+     */
+    public void end(
+        TileInfo minTile,
+        TileInfo maxTile,
+        GeoPoint min,
+        GeoPoint max) {
+    }
+
+    /**
+     * @return the number of tiles waiting for encoding
+     */
+    public int getEncodeQueueSize() {
+        return fEncodeQueue.size();
+    }
+
+    /**
+     * @return the number of encoded tiles waiting for writing
+     */
+    public int getWriteQueueSize() {
+        return fWriteQueue.size();
+    }
+
+    /**
+     * Blank tiles are delivered separately if they are enabled in the target
+     * writer.
+     * 
+     * @see TileDataWriter#setBlankTilesEnabled(boolean)
+     */
+    public boolean isBlankTilesEnabled() {
+        return fWriter.isBlankTilesEnabled();
+    }
+
+    /**
+     * Blank tiles are encoded by the caller thread (the writer encodes them
+     * only once for each color) and put directly in the queue of writers.
+     */
+    @Override
+    public void onBlankTile(
+        TileInfo tile,
+        BufferedImage tileImage,
+        int argb,
+        TileFormat tileFormat) {
+        try {
+            byte[] data = fWriter
+                .getBlankTileData(tileImage, argb, tileFormat);
+            put(fWriteQueue, new PipelineTile(tile, tileFormat, null, data));
+        } catch (IOException e) {
+            fWriter.handleError("Can not encode the tile '" + tile + "'.", e);
+        }
+    }
+
+    @Override
+    public void onTile(
+        TileInfo tile,
+        BufferedImage tileImage,
+        TileFormat tileFormat) {
+        BufferedImage copy = copyImage(tileImage);
+        put(fEncodeQueue, new PipelineTile(tile, tileFormat, copy, null));
+    }
+
+    public void onTile(TileInfo tile) {
+    }
+
+    private void put(BlockingQueue<PipelineTile> queue, PipelineTile tile) {
+        try {
+            queue.put(tile);
+            reportQueueDepth(queue);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("The tile pipeline was interrupted.", e);
+        }
+    }
+
+    /**
+     * Reports the size of the specified queue in metrics of the writer.
+     */
+    private void reportQueueDepth(BlockingQueue<PipelineTile> queue) {
+        ITileMetrics metrics = fWriter.getMetrics();
+        if (metrics != null) {
+            ITileMetrics.Stage stage = queue == fEncodeQueue
+                ? ITileMetrics.Stage.ENCODE
+                : ITileMetrics.Stage.WRITE;
+            metrics.onQueueDepth(stage, queue.size());
+        }
+    }
+
+    private void runEncoder() {
+        try {
+            while (true) {
+                PipelineTile t = fEncodeQueue.take();
+                if (t == END) {
+                    break;
+                }
+                try {
+                    byte[] data = fWriter.encodeTile(
+                        t.fTile,
+                        t.fImage,
+                        t.fTileFormat);
+                    fWriteQueue.put(new PipelineTile(
+                        t.fTile,
+                        t.fTileFormat,
+                        null,
+                        data));
+                    reportQueueDepth(fWriteQueue);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    fWriter.handleError("Can not encode the tile '"
+                        + t.fTile
+                        + "'.", e);
+                } finally {
+                    fPool.release(t.fImage);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        try {
+            while (true) {
+                PipelineTile t = fWriteQueue.take();
+                if (t == END) {
+                    break;
+                }
+                try {
+                    fWriter.writeTileData(t.fTile, t.fTileFormat, t.fData);
+                } catch (Throwable e) {
+                    fWriter.handleError("Can not write the tile '"
+                        + t.fTile
+                        + "'.", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void start(Thread[] threads) {
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void stop(Thread[] threads, BlockingQueue<PipelineTile> queue)
+        throws InterruptedException {
+        for (int i = 0; i < threads.length; i++) {
+            queue.put(END);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+/**
+ * Instances of this type define rectangular ranges of tiles on the same zoom
+ * level. Both borders of the range are inclusive.
+ * 
+ * @author kotelnikov
+ */
+public class TileRange {
+
+    private final int fMaxX;
+
+    private final int fMaxY;
+
+    private final int fMinX;
+
+    private final int fMinY;
+
+    private final int fZoom;
+
+    /**
+     * @param minY the minimal Y coordinate of tiles
+     * @param minX the minimal X coordinate of tiles
+     * @param maxY the maximal Y coordinate of tiles
+     * @param maxX the maximal X coordinate of tiles
+     * @param zoom the zoom level of tiles
+     */
+    public TileRange(int minY, int minX, int maxY, int maxX, int zoom) {
+        fMinY = Math.min(minY, maxY);
+        fMinX = Math.min(minX, maxX);
+        fMaxY = Math.max(minY, maxY);
+        fMaxX = Math.max(minX, maxX);
+        fZoom = zoom;
+    }
+
+    /**
+     * @param first the first tile of the range
+     * @param second the second tile of the range; it should have the same
+     *        zoom level as the first one
+     */
+    public TileRange(TileInfo first, TileInfo second) {
+        this(first.getY(), first.getX(), second.getY(), second.getX(), first
+            .getZoom());
+    }
+
+    /**
+     * Returns <code>true</code> if a tile with the specified coordinates
+     * belongs to this range.
+     * 
+     * @param y the Y coordinate of the tile
+     * @param x the X coordinate of the tile
+     * @return <code>true</code> if the tile belongs to this range
+     */
+    public boolean contains(int y, int x) {
+        return y >= fMinY && y <= fMaxY && x >= fMinX && x <= fMaxX;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified tile belongs to this range.
+     * 
+     * @param tile the tile to check
+     * @return <code>true</code> if the specified tile belongs to this range
+     */
+    public boolean contains(TileInfo tile) {
+        return tile.getZoom() == fZoom && contains(tile.getY(), tile.getX());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TileRange)) {
+            return false;
+        }
+        TileRange o = (TileRange) obj;
+        return fMinY == o.fMinY
+            && fMinX == o.fMinX
+            && fMaxY == o.fMaxY
+            && fMaxX == o.fMaxX
+            && fZoom == o.fZoom;
+    }
+
+    /**
+     * Returns the number of children of the specified tile belonging to this
+     * range. The specified tile should be on the previous zoom level.
+     * 
+     * @param parent the parent tile
+     * @return the number of children of the tile in this range
+     */
+    public int getChildrenNumber(TileInfo parent) {
+        int result = 0;
+        if (parent.getZoom() + 1 == fZoom) {
+            int y = parent.getY() << 1;
+            int x = parent.getX() << 1;
+            for (int i = 0; i < 4; i++) {
+                if (contains(y + (i >> 1), x + (i & 1))) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the first (top left) tile of this range
+     */
+    public TileInfo getFirstTile() {
+        return new TileInfo(fMinY, fMinX, fZoom);
+    }
+
+    /**
+     * @return the last (bottom right) tile of this range
+     */
+    public TileInfo getLastTile() {
+        return new TileInfo(fMaxY, fMaxX, fZoom);
+    }
+
+    public int getMaxX() {
+        return fMaxX;
+    }
+
+    public int getMaxY() {
+        return fMaxY;
+    }
+
+    public int getMinX() {
+        return fMinX;
+    }
+
+    public int getMinY() {
+        return fMinY;
+    }
+
+    /**
+     * @return the total number of tiles in this range
+     */
+    public long getTileNumber() {
+        return (long) (fMaxX - fMinX + 1) * (fMaxY - fMinY + 1);
+    }
+
+    /**
+     * @return the zoom level of tiles in this range
+     */
+    public int getZoom() {
+        return fZoom;
+    }
+
+    @Override
+    public int hashCode() {
+        return fMinY ^ (fMinX << 8) ^ (fMaxY << 16) ^ (fMaxX << 24) ^ fZoom;
+    }
+
+    /**
+     * Returns the intersection of this range with the specified one or
+     * <code>null</code> if these ranges do not intersect.
+     * 
+     * @param range the range to intersect with
+     * @return the intersection of two ranges or <code>null</code>
+     */
+    public TileRange intersect(TileRange range) {
+        if (range.fZoom != fZoom) {
+            return null;
+        }
+        int minY = Math.max(fMinY, range.fMinY);
+        int minX = Math.max(fMinX, range.fMinX);
+        int maxY = Math.min(fMaxY, range.fMaxY);
+        int maxX = Math.min(fMaxX, range.fMaxX);
+        if (minY > maxY || minX > maxX) {
+            return null;
+        }
+        return new TileRange(minY, minX, maxY, maxX, fZoom);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getFirstTile() + "-" + getLastTile() + "]";
+    }
+
+    /**
+     * Returns the smallest range containing this range and the specified one.
+     * Both ranges should have the same zoom level.
+     * 
+     * @param range the range to add
+     * @return the range containing both ranges
+     */
+    public TileRange union(TileRange range) {
+        return new TileRange(
+            Math.min(fMinY, range.fMinY),
+            Math.min(fMinX, range.fMinX),
+            Math.max(fMaxY, range.fMaxY),
+            Math.max(fMaxX, range.fMaxX),
+            fZoom);
+    }
+
+}
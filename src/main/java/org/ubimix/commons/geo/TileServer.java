@@ -0,0 +1,479 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This server renders tiles on demand instead of generating all tiles in
+ * advance. Tiles are requested by HTTP using paths like
+ * <code>/{zoom}/{x}/{y}.{ext}</code>; each tile is rendered by the generator
+ * only when it is requested for the first time and its encoded data are kept
+ * in a {@link TileCache} bounded by size. Concurrent requests of the same
+ * tile wait for one rendering of the tile. Statistics of the server (the
+ * number of requests, rendering times of tiles missing in the cache and the
+ * memory used by the cache) are returned for the <code>/stats</code> path.
+ * <p>
+ * The generator keeps the state of the generated range, so tiles are
+ * rendered one after another; the generator should not be used by other
+ * threads while the server is running.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class TileServer {
+
+    /**
+     * Handles HTTP requests of tiles and statistics.
+     */
+    private class TileHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath();
+                if ("/stats".equals(path)) {
+                    byte[] data = getStats().getBytes("UTF-8");
+                    send(exchange, 200, "text/plain; charset=UTF-8", data);
+                    return;
+                }
+                TileInfo tile = getTile(path);
+                byte[] data = tile != null ? getTileData(tile) : null;
+                if (data == null) {
+                    send(exchange, 404, "text/plain", new byte[0]);
+                } else {
+                    send(exchange, 200, getContentType(), data);
+                }
+            } catch (Throwable t) {
+                log.log(Level.WARNING, "Can not handle the request '"
+                    + exchange.getRequestURI()
+                    + "'.", t);
+                send(exchange, 500, "text/plain", new byte[0]);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void send(
+            HttpExchange exchange,
+            int code,
+            String contentType,
+            byte[] data) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(code, data.length > 0
+                ? data.length
+                : -1);
+            if (data.length > 0) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(data);
+                out.close();
+            }
+        }
+
+    }
+
+    /**
+     * Keeps encoded data of the rendered tile. Blank tiles of the same color
+     * are encoded only once.
+     */
+    private static class TileWriter extends TileDataWriter {
+
+        private byte[] fData;
+
+        private Throwable fError;
+
+        @Override
+        protected void handleError(String msg, Throwable t) {
+            fError = t;
+        }
+
+        @Override
+        protected void onTileData(
+            TileInfo tile,
+            TileFormat tileFormat,
+            byte[] data) throws IOException {
+            fData = data;
+        }
+
+    }
+
+    /**
+     * The default size of the tile cache (64MB).
+     */
+    public static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private final static Logger log = Logger.getLogger(TileServer.class
+        .getName());
+
+    private final TileCache fCache;
+
+    private final AtomicLong fCoalesced = new AtomicLong();
+
+    private final ImageTilesGenerator fGenerator;
+
+    private final AtomicLong fMaxRenderNanos = new AtomicLong();
+
+    private final int fMaxZoomLevel;
+
+    private final int fMinZoomLevel;
+
+    /**
+     * Tiles which are rendered now. Threads requesting the same tile wait for
+     * the task rendering it.
+     */
+    private final ConcurrentMap<Long, FutureTask<byte[]>> fPending = new ConcurrentHashMap<Long, FutureTask<byte[]>>();
+
+    private final AtomicLong fRenderNanos = new AtomicLong();
+
+    private final AtomicLong fRenders = new AtomicLong();
+
+    private final AtomicLong fRequests = new AtomicLong();
+
+    private HttpServer fServer;
+
+    /**
+     * Encodes rendered tiles; it is used only by the thread holding the lock
+     * of the generator.
+     */
+    private final TileWriter fWriter = new TileWriter();
+
+    /**
+     * @param generator the generator rendering tiles
+     * @param minZoomLevel the minimal zoom level of served tiles
+     * @param maxZoomLevel the maximal zoom level of served tiles
+     */
+    public TileServer(
+        ImageTilesGenerator generator,
+        int minZoomLevel,
+        int maxZoomLevel) {
+        this(generator, minZoomLevel, maxZoomLevel, new TileCache(
+            DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * @param generator the generator rendering tiles
+     * @param minZoomLevel the minimal zoom level of served tiles
+     * @param maxZoomLevel the maximal zoom level of served tiles
+     * @param cache the cache of encoded tiles
+     */
+    public TileServer(
+        ImageTilesGenerator generator,
+        int minZoomLevel,
+        int maxZoomLevel,
+        TileCache cache) {
+        fGenerator = generator;
+        fMinZoomLevel = minZoomLevel;
+        fMaxZoomLevel = maxZoomLevel;
+        fCache = cache;
+    }
+
+    /**
+     * @return the address of the running server or <code>null</code> if the
+     *         server is not started
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return fServer != null ? fServer.getAddress() : null;
+    }
+
+    /**
+     * @return the cache of encoded tiles
+     */
+    public TileCache getCache() {
+        return fCache;
+    }
+
+    /**
+     * @return the number of requests which waited for tiles rendered for
+     *         other requests
+     */
+    public long getCoalesced() {
+        return fCoalesced.get();
+    }
+
+    private String getContentType() {
+        return fGenerator.getTileFormat() == TileFormat.PNG
+            ? "image/png"
+            : "image/jpeg";
+    }
+
+    /**
+     * @return the maximal time of rendering and encoding of one tile in
+     *         nanoseconds
+     */
+    public long getMaxRenderNanos() {
+        return fMaxRenderNanos.get();
+    }
+
+    /**
+     * @return the total time of rendering and encoding of tiles in
+     *         nanoseconds
+     */
+    public long getRenderNanos() {
+        return fRenderNanos.get();
+    }
+
+    /**
+     * @return the number of rendered tiles
+     */
+    public long getRenders() {
+        return fRenders.get();
+    }
+
+    /**
+     * @return the number of requested tiles
+     */
+    public long getRequests() {
+        return fRequests.get();
+    }
+
+    /**
+     * Returns statistics of the server: the number of requests, the number
+     * and rendering times of tiles missing in the cache, the state of the
+     * cache and the memory used by the JVM.
+     * 
+     * @return statistics of the server
+     */
+    public String getStats() {
+        long renders = fRenders.get();
+        long avg = renders > 0 ? fRenderNanos.get() / renders : 0;
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        return "requests="
+            + fRequests.get()
+            + "\nrenders="
+            + renders
+            + "\ncoalesced="
+            + fCoalesced.get()
+            + "\nrenderAvgMs="
+            + (avg / 1000000.0)
+            + "\nrenderMaxMs="
+            + (fMaxRenderNanos.get() / 1000000.0)
+            + "\ncacheTiles="
+            + fCache.size()
+            + "\ncacheBytes="
+            + fCache.getBytes()
+            + "\ncacheMaxBytes="
+            + fCache.getMaxBytes()
+            + "\ncacheHits="
+            + fCache.getHits()
+            + "\ncacheMisses="
+            + fCache.getMisses()
+            + "\ncacheEvictions="
+            + fCache.getEvictions()
+            + "\nheapBytes="
+            + heap
+            + "\n";
+    }
+
+    /**
+     * Returns the tile corresponding to the specified request path or
+     * <code>null</code> if the path does not correspond to a tile in the
+     * format of the generator.
+     */
+    private TileInfo getTile(String path) {
+        String[] array = path.split("/");
+        if (array.length != 4 || array[0].length() != 0) {
+            return null;
+        }
+        String name = array[3];
+        int idx = name.lastIndexOf('.');
+        if (idx < 0) {
+            return null;
+        }
+        String ext = name.substring(idx + 1);
+        if (!ext.equals(fGenerator.getTileFormat().toString())) {
+            return null;
+        }
+        try {
+            int zoom = Integer.parseInt(array[1]);
+            int x = Integer.parseInt(array[2]);
+            int y = Integer.parseInt(name.substring(0, idx));
+            return new TileInfo(y, x, zoom);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns encoded data of the specified tile. The tile is rendered only if
+     * it is not found in the cache; if the same tile is already rendered for
+     * another request then this method waits for the result.
+     * 
+     * @param tile the requested tile
+     * @return encoded data of the tile or <code>null</code> if the tile does
+     *         not belong to served tiles
+     * @throws IOException
+     */
+    public byte[] getTileData(final TileInfo tile) throws IOException {
+        fRequests.incrementAndGet();
+        int zoom = tile.getZoom();
+        if (zoom < fMinZoomLevel || zoom > fMaxZoomLevel) {
+            return null;
+        }
+        byte[] data = fCache.get(tile);
+        if (data != null) {
+            return data;
+        }
+        Long key = tile.getKey();
+        FutureTask<byte[]> task = fPending.get(key);
+        boolean owner = false;
+        if (task == null) {
+            FutureTask<byte[]> newTask = new FutureTask<byte[]>(
+                new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        return render(tile);
+                    }
+                });
+            task = fPending.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                fPending.remove(key);
+            }
+        } else {
+            fCoalesced.incrementAndGet();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Can not render the tile '" + tile + "'.");
+        }
+    }
+
+    /**
+     * @return the encoder used to encode tiles
+     */
+    public TileEncoder getTileEncoder() {
+        return fWriter.getTileEncoder();
+    }
+
+    /**
+     * Renders and caches the specified tile and reports the rendering time.
+     */
+    private byte[] render(TileInfo tile) throws IOException {
+        long start = System.nanoTime();
+        byte[] data = renderTile(tile);
+        if (data != null) {
+            fCache.put(tile, data);
+        }
+        long nanos = System.nanoTime() - start;
+        fRenders.incrementAndGet();
+        fRenderNanos.addAndGet(nanos);
+        long max = fMaxRenderNanos.get();
+        while (nanos > max && !fMaxRenderNanos.compareAndSet(max, nanos)) {
+            max = fMaxRenderNanos.get();
+        }
+        return data;
+    }
+
+    /**
+     * Renders and encodes the specified tile. Tiles are rendered one after
+     * another because the generator is not thread-safe.
+     * 
+     * @param tile the tile to render
+     * @return encoded data of the tile or <code>null</code> if the tile does
+     *         not cover the image
+     * @throws IOException
+     */
+    protected byte[] renderTile(TileInfo tile) throws IOException {
+        synchronized (fGenerator) {
+            fWriter.fData = null;
+            fWriter.fError = null;
+            try {
+                fGenerator.generateTiles(Collections.singleton(new TileRange(
+                    tile,
+                    tile)), fWriter);
+                if (fWriter.fError != null) {
+                    IOException e = new IOException("Can not render the tile '"
+                        + tile
+                        + "'.");
+                    e.initCause(fWriter.fError);
+                    throw e;
+                }
+                return fWriter.fData;
+            } finally {
+                fWriter.fData = null;
+                fWriter.fError = null;
+            }
+        }
+    }
+
+    /**
+     * Sets the encoder used to encode tiles.
+     * 
+     * @param encoder the encoder to set
+     */
+    public void setTileEncoder(TileEncoder encoder) {
+        synchronized (fGenerator) {
+            fWriter.setTileEncoder(encoder);
+        }
+    }
+
+    /**
+     * Starts the HTTP server on the specified address.
+     * 
+     * @param address the address of the server; if the port is 0 then a free
+     *        port is used (see {@link #getAddress()})
+     * @param executor the executor handling requests; if it is
+     *        <code>null</code> then all requests are handled by one thread
+     * @throws IOException
+     */
+    public synchronized void start(InetSocketAddress address, Executor executor)
+        throws IOException {
+        if (fServer != null) {
+            throw new IllegalStateException("The server is already started.");
+        }
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/", new TileHandler());
+        server.setExecutor(executor);
+        server.start();
+        fServer = server;
+    }
+
+    /**
+     * Stops the HTTP server and releases resources of the tile encoder.
+     * 
+     * @param delay the maximal time (in seconds) to wait until current
+     *        requests are handled
+     */
+    public synchronized void stop(int delay) {
+        if (fServer != null) {
+            fServer.stop(delay);
+            fServer = null;
+        }
+        getTileEncoder().close();
+    }
+
+}
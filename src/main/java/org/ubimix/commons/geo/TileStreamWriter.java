@@ -0,0 +1,134 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Common superclass of writers streaming encoded tiles in one archive stream
+ * (see {@link ZipTileWriter} and {@link TarTileWriter}). Tiles are stored
+ * under their <code>z/x/y.ext</code> paths in the order of their generation,
+ * so an archive is produced in one pass without intermediate files. The
+ * stream is written sequentially through a large buffer.
+ * <p>
+ * The {@link #close()} method should be called when all tiles are generated;
+ * it finishes the archive and closes the stream.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public abstract class TileStreamWriter extends TileDataWriter {
+
+    /**
+     * The default size of the output buffer.
+     */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    private boolean fClosed;
+
+    private int fEntriesNumber;
+
+    private final OutputStream fOutput;
+
+    private String fPathPrefix = "";
+
+    /**
+     * @param output the stream where the archive is written
+     */
+    protected TileStreamWriter(OutputStream output) {
+        this(output, BUFFER_SIZE);
+    }
+
+    /**
+     * @param output the stream where the archive is written
+     * @param bufferSize the size of the output buffer
+     */
+    protected TileStreamWriter(OutputStream output, int bufferSize) {
+        fOutput = new BufferedOutputStream(output, bufferSize);
+    }
+
+    /**
+     * Finishes the archive and closes the stream.
+     * 
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (fClosed) {
+            return;
+        }
+        fClosed = true;
+        try {
+            finish();
+        } finally {
+            fOutput.close();
+        }
+    }
+
+    /**
+     * Writes the end of the archive. This method is called once when the
+     * writer is closed.
+     * 
+     * @throws IOException
+     */
+    protected abstract void finish() throws IOException;
+
+    /**
+     * @return the number of entries written in the archive
+     */
+    public synchronized int getEntriesNumber() {
+        return fEntriesNumber;
+    }
+
+    /**
+     * @return the buffered stream where the archive is written
+     */
+    protected OutputStream getOutput() {
+        return fOutput;
+    }
+
+    /**
+     * @return the prefix added to paths of all tiles in the archive
+     */
+    public String getPathPrefix() {
+        return fPathPrefix;
+    }
+
+    @Override
+    protected synchronized void onTileData(
+        TileInfo tile,
+        TileFormat tileFormat,
+        byte[] data) throws IOException {
+        if (fClosed) {
+            throw new IOException("The archive is closed.");
+        }
+        String path = fPathPrefix + tile.getTilePath(tileFormat.toString());
+        writeEntry(path, data);
+        fEntriesNumber++;
+    }
+
+    /**
+     * Sets the prefix added to paths of all tiles in the archive. For example
+     * the "map/" prefix puts all tiles in the "map" directory.
+     * 
+     * @param pathPrefix the prefix of tile paths
+     */
+    public void setPathPrefix(String pathPrefix) {
+        fPathPrefix = pathPrefix != null ? pathPrefix : "";
+    }
+
+    /**
+     * Writes one entry in the archive. Calls of this method are synchronized.
+     * 
+     * @param path the path of the entry
+     * @param data the content of the entry
+     * @throws IOException
+     */
+    protected abstract void writeEntry(String path, byte[] data)
+        throws IOException;
+
+}
@@ -208,39 +208,66 @@ public class TilesLoader {
         return num;
     }
 
+    /**
+     * Returns the range of tiles loaded by this object on the specified zoom
+     * level.
+     * 
+     * @param zoom the zoom level
+     * @return the range of tiles loaded on the specified zoom level
+     */
+    public TileRange getTileRange(int zoom) {
+        GeoPoint[] area = getArea();
+        return getTileRange(area[0], area[1], zoom);
+    }
+
+    /**
+     * Returns the top left and the bottom right corners of the loaded area.
+     */
+    private GeoPoint[] getArea() {
+        GeoPoint min = GeoPoint.min(fFirst, fSecond);
+        GeoPoint max = GeoPoint.max(fFirst, fSecond);
+        GeoPoint first = new GeoPoint(max.getLatitude(), min.getLongitude());
+        GeoPoint second = new GeoPoint(min.getLatitude(), max.getLongitude());
+        return new GeoPoint[] { first, second };
+    }
+
+    private TileRange getTileRange(GeoPoint first, GeoPoint second, int zoom) {
+        TileInfo firstTile = new TileInfo(first, zoom);
+        TileInfo secondTile = new TileInfo(second, zoom);
+
+        int yMin = firstTile.getY();
+        int yMax = secondTile.getY();
+        int xMin = firstTile.getX();
+        int xMax = secondTile.getX();
+        int deltaX = Math.max(fScreenAreaWidth
+            - (xMax - xMin)
+            * TILE_SIZE_IN_PIXELS, 0);
+        int deltaY = Math.max(fScreenAreaHeight
+            - (yMax - yMin)
+            * TILE_SIZE_IN_PIXELS, 0);
+        if (deltaX > 0 || deltaY > 0) {
+            int dX = getTilesNumber((deltaX + 1) / 2);
+            int dY = getTilesNumber((deltaY + 1) / 2);
+            firstTile = firstTile.getNextTile(-dY, -dX);
+            secondTile = secondTile.getNextTile(dY, dX);
+        }
+        return new TileRange(firstTile, secondTile);
+    }
+
     public void load(ILoadListener listener) {
-        GeoPoint first = fFirst;
-        GeoPoint second = fSecond;
-        GeoPoint min = GeoPoint.min(first, second);
-        GeoPoint max = GeoPoint.max(first, second);
-        first = new GeoPoint(max.getLatitude(), min.getLongitude());
-        second = new GeoPoint(min.getLatitude(), max.getLongitude());
+        GeoPoint[] area = getArea();
+        GeoPoint first = area[0];
+        GeoPoint second = area[1];
         for (int zoom = Math.min(fZoomMin, fZoomMax); zoom <= Math.max(
             fZoomMin,
             fZoomMax); zoom++) {
-            TileInfo firstTile = new TileInfo(first, zoom);
-            TileInfo secondTile = new TileInfo(second, zoom);
-
-            int yMin = firstTile.getY();
-            int yMax = secondTile.getY();
-            int xMin = firstTile.getX();
-            int xMax = secondTile.getX();
-            int deltaX = Math.max(fScreenAreaWidth
-                - (xMax - xMin)
-                * TILE_SIZE_IN_PIXELS, 0);
-            int deltaY = Math.max(fScreenAreaHeight
-                - (yMax - yMin)
-                * TILE_SIZE_IN_PIXELS, 0);
-            if (deltaX > 0 || deltaY > 0) {
-                int dX = getTilesNumber((deltaX + 1) / 2);
-                int dY = getTilesNumber((deltaY + 1) / 2);
-                firstTile = firstTile.getNextTile(-dY, -dX);
-                secondTile = secondTile.getNextTile(dY, dX);
-                yMin = firstTile.getY();
-                yMax = secondTile.getY();
-                xMin = firstTile.getX();
-                xMax = secondTile.getX();
-            }
+            TileRange range = getTileRange(first, second, zoom);
+            TileInfo firstTile = range.getFirstTile();
+            TileInfo secondTile = range.getLastTile();
+            int yMin = range.getMinY();
+            int yMax = range.getMaxY();
+            int xMin = range.getMinX();
+            int xMax = range.getMaxX();
 
             listener.begin(firstTile, secondTile, first, second);
             for (int x = xMin; x <= xMax; x++) {
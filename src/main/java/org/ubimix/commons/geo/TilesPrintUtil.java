@@ -1,6 +1,8 @@
 package org.ubimix.commons.geo;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringWriter;
 
 public class TilesPrintUtil {
 
@@ -10,56 +12,61 @@ public class TilesPrintUtil {
         int maxZoom,
         int minZoom,
         Object... args) {
+        ImagePoint imageSize = new ImagePoint(
+            image.getHeight(),
+            image.getWidth());
+        return toJson(imageSize, tiler, maxZoom, minZoom, args);
+    }
+
+    public static String toJson(
+        ImagePoint imageSize,
+        ImageTiler tiler,
+        int maxZoom,
+        int minZoom,
+        Object... args) {
         ImagePoint pinPoint = new ImagePoint(0, 0);
         GeoPoint topLeftGeo = tiler.getGeoPosition(pinPoint);
         TileInfo firstTile = tiler.getTile(pinPoint);
         GeoPoint topLeftMaxGeo = firstTile.getTopLeftCoordinates();
 
-        ImagePoint imageSize = new ImagePoint(
-            image.getHeight(),
-            image.getWidth());
         GeoPoint bottomRightGeo = tiler.getGeoPosition(imageSize);
         TileInfo lastTile = tiler.getTile(imageSize);
         GeoPoint bottomRightMaxGeo = lastTile.getBottomRightCoordinates();
 
-        StringBuilder buf = new StringBuilder();
-        buf.append("{");
-        toJsonParams(
-            buf,
-            "minZoom",
-            minZoom,
-            "maxZoom",
-            maxZoom,
-            "area",
-            "["
-                + toJsonArray(
-                    null,
-                    topLeftGeo.getLatitude(),
-                    topLeftGeo.getLongitude())
-                + ","
-                + toJsonArray(
-                    null,
-                    bottomRightGeo.getLatitude(),
-                    bottomRightGeo.getLongitude()) + "]",
-            "areaMax",
-            "["
-                + toJsonArray(
-                    null,
-                    topLeftMaxGeo.getLatitude(),
-                    topLeftMaxGeo.getLongitude())
-                + ","
-                + toJsonArray(
-                    null,
-                    bottomRightMaxGeo.getLatitude(),
-                    bottomRightMaxGeo.getLongitude()) + "]");
-        if (args.length > 0) {
-            buf.append(",");
-            toJsonParams(buf, args);
+        StringWriter buf = new StringWriter();
+        JsonWriter json = new JsonWriter(buf);
+        try {
+            json.beginObject();
+            json.name("minZoom").value(minZoom);
+            json.name("maxZoom").value(maxZoom);
+            json.name("area").beginArray();
+            toJsonArray(json, topLeftGeo);
+            toJsonArray(json, bottomRightGeo);
+            json.endArray();
+            json.name("areaMax").beginArray();
+            toJsonArray(json, topLeftMaxGeo);
+            toJsonArray(json, bottomRightMaxGeo);
+            json.endArray();
+            for (int i = 0; i < args.length;) {
+                String key = args[i++] + "";
+                Object value = i < args.length ? args[i++] : null;
+                json.name(key).rawValue(value);
+            }
+            json.endObject();
+        } catch (IOException e) {
+            // Should not happen: the output is written in memory
+            throw new IllegalStateException(e);
         }
-        buf.append("\n}");
         return buf.toString();
     }
 
+    private static void toJsonArray(JsonWriter json, GeoPoint point)
+        throws IOException {
+        json.beginArray();
+        json.value(point.getLatitude()).value(point.getLongitude());
+        json.endArray();
+    }
+
     public static String toJsonArray(StringBuilder buf, Object... objs) {
         if (buf == null) {
             buf = new StringBuilder();
@@ -0,0 +1,153 @@
+/**
+ * 
+ */
+package org.ubimix.commons.geo;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This writer streams tiles in a ZIP archive. Tiles are already compressed,
+ * so they are stored without compression ({@link ZipEntry#STORED} entries);
+ * it makes writing and reading of tiles as cheap as copying.
+ * <p>
+ * Archives are written in the classic ZIP format without ZIP64 extensions
+ * (they are not supported by the {@link ZipOutputStream} of Java 6). So an
+ * archive can contain at most {@link #MAX_ENTRIES} tiles and its size can
+ * not exceed {@link #MAX_SIZE} bytes. Tiles exceeding these limits are
+ * rejected with an {@link IOException} instead of producing a corrupted
+ * central directory; use the {@link TarTileWriter} or the
+ * {@link TileArchiveWriter} for bigger pyramids.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class ZipTileWriter extends TileStreamWriter {
+
+    /**
+     * Counts bytes written in the underlying stream.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long fCount;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            fCount += len;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            fCount++;
+        }
+
+    }
+
+    /**
+     * The size of fixed fields of an entry of the central directory.
+     */
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    /**
+     * The size of the end of the central directory record.
+     */
+    private static final int END_SIZE = 22;
+
+    /**
+     * The size of fixed fields of a local entry header.
+     */
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    /**
+     * The maximal number of entries of an archive without ZIP64 extensions.
+     */
+    public static final int MAX_ENTRIES = 0xFFFF;
+
+    /**
+     * The maximal size of an archive without ZIP64 extensions.
+     */
+    public static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    /**
+     * The size of the central directory written when the archive is
+     * finished.
+     */
+    private long fCentralSize;
+
+    private final CountingOutputStream fCounter;
+
+    private final CRC32 fCrc = new CRC32();
+
+    private final long fTime = System.currentTimeMillis();
+
+    private final ZipOutputStream fZip;
+
+    /**
+     * @param output the stream where the archive is written
+     */
+    public ZipTileWriter(OutputStream output) {
+        super(output);
+        fCounter = new CountingOutputStream(getOutput());
+        fZip = new ZipOutputStream(fCounter);
+        fZip.setMethod(ZipOutputStream.STORED);
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        fZip.finish();
+    }
+
+    @Override
+    protected void writeEntry(String path, byte[] data) throws IOException {
+        if (getEntriesNumber() >= MAX_ENTRIES) {
+            throw new IOException("A ZIP archive can not contain more than "
+                + MAX_ENTRIES
+                + " tiles; the tile '"
+                + path
+                + "' is not written.");
+        }
+        int nameLength = path.getBytes("UTF-8").length;
+        long start = fCounter.fCount;
+        long size = start
+            + LOCAL_HEADER_SIZE
+            + nameLength
+            + data.length
+            + fCentralSize
+            + CENTRAL_HEADER_SIZE
+            + nameLength
+            + END_SIZE;
+        if (size > MAX_SIZE) {
+            throw new IOException("A ZIP archive can not be bigger than "
+                + MAX_SIZE
+                + " bytes; the tile '"
+                + path
+                + "' is not written.");
+        }
+        fCrc.reset();
+        fCrc.update(data);
+        ZipEntry entry = new ZipEntry(path);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(fCrc.getValue());
+        entry.setTime(fTime);
+        fZip.putNextEntry(entry);
+        fZip.write(data);
+        fZip.closeEntry();
+        // The central entry contains the same name and extra fields as the
+        // local header
+        long header = fCounter.fCount - start - data.length;
+        fCentralSize += CENTRAL_HEADER_SIZE - LOCAL_HEADER_SIZE + header;
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+import org.ubimix.commons.geo.ImageTilesGeneratorTest.TileCollector;
+
+public class DeduplicatingTileWriterTest extends TestCase {
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File fDir;
+
+    public DeduplicatingTileWriterTest(String name) {
+        super(name);
+    }
+
+    private ImageTilesGenerator newGenerator() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImage image = ImageTilesGenerator.readImage(input);
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        generator.setTileFormat(TileFormat.PNG);
+        return generator;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fDir = File.createTempFile("tiles", "");
+        fDir.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(fDir);
+        super.tearDown();
+    }
+
+    public void test() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+        Map<TileInfo, int[]> tiles = control.getTiles();
+
+        DeduplicatingTileWriter writer = new DeduplicatingTileWriter(fDir);
+        generator.generateTiles(18, writer);
+        writer.close();
+
+        assertEquals(tiles.size(), writer.getTilesNumber());
+        assertTrue(writer.getDuplicatesNumber() > 0);
+        assertEquals(
+            writer.getTilesNumber(),
+            writer.getContentNumber() + writer.getDuplicatesNumber());
+        assertTrue(writer.getStoredBytes() < writer.getReceivedBytes());
+
+        File indexFile = new File(fDir, DeduplicatingTileWriter.INDEX_FILE);
+        assertEquals(4 + 12 * tiles.size(), indexFile.length());
+        for (Map.Entry<TileInfo, int[]> entry : tiles.entrySet()) {
+            TileInfo tile = entry.getKey();
+            assertEquals(tile, TileInfo.getTileByKey(tile.getKey()));
+            File file = writer.getContentFile(tile);
+            assertTrue(file.exists());
+            BufferedImage image = ImageTilesGenerator.readImage(file
+                .toURI()
+                .toURL()
+                .openStream());
+            int w = image.getWidth();
+            int h = image.getHeight();
+            int[] pixels = image.getRGB(0, 0, w, h, null, 0, w);
+            int[] expected = entry.getValue();
+            for (int i = 0; i < pixels.length; i++) {
+                assertEquals(expected[i], pixels[i]);
+            }
+        }
+    }
+
+}
@@ -3,15 +3,83 @@
  */
 package org.ubimix.commons.geo;
 
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
+import org.ubimix.commons.geo.ImageTilesGenerator.FileTileWriter;
+import org.ubimix.commons.geo.ImageTilesGenerator.IBlankTileListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.ITileImageListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
 /**
  * @author kotelnikov
  */
 public class ImageTilesGeneratorTest extends TestCase {
 
+    /**
+     * Collects pixels of all generated tiles.
+     */
+    protected static class BlankTileCollector extends TileCollector
+        implements
+        IBlankTileListener {
+
+        private int fBlankTilesNumber;
+
+        public synchronized int getBlankTilesNumber() {
+            return fBlankTilesNumber;
+        }
+
+        public boolean isBlankTilesEnabled() {
+            return true;
+        }
+
+        public synchronized void onBlankTile(
+            TileInfo tile,
+            BufferedImage tileImage,
+            int argb,
+            TileFormat tileFormat) {
+            fBlankTilesNumber++;
+            onTile(tile, tileImage, tileFormat);
+            int[] pixels = getTiles().get(tile);
+            for (int pixel : pixels) {
+                assertEquals(argb, (pixel >>> 24) == 0 ? 0 : pixel);
+            }
+        }
+    }
+
+    protected static class TileCollector implements ITileImageListener {
+
+        private final Map<TileInfo, int[]> fTiles = new HashMap<TileInfo, int[]>();
+
+        public synchronized Map<TileInfo, int[]> getTiles() {
+            return fTiles;
+        }
+
+        public synchronized void onTile(
+            TileInfo tile,
+            BufferedImage tileImage,
+            TileFormat tileFormat) {
+            int w = tileImage.getWidth();
+            int h = tileImage.getHeight();
+            int[] pixels = tileImage.getRGB(0, 0, w, h, null, 0, w);
+            assertNull(fTiles.put(tile, pixels));
+        }
+    }
+
     /**
      * @param name
      */
@@ -19,6 +87,76 @@ public class ImageTilesGeneratorTest extends TestCase {
         super(name);
     }
 
+    protected void assertSameTiles(
+        Map<TileInfo, int[]> expected,
+        Map<TileInfo, int[]> tiles) {
+        assertSameTiles(expected, tiles, 0);
+    }
+
+    /**
+     * Checks that both maps contain the same tiles. Tiles with zoom levels
+     * greater or equal to the given level should have the same pixels; tiles
+     * of lower levels are produced by another resampling path and should be
+     * only similar.
+     */
+    protected void assertSameTiles(
+        Map<TileInfo, int[]> expected,
+        Map<TileInfo, int[]> tiles,
+        int minZoom) {
+        assertEquals(expected.keySet(), tiles.keySet());
+        for (Map.Entry<TileInfo, int[]> entry : expected.entrySet()) {
+            TileInfo tile = entry.getKey();
+            int[] control = entry.getValue();
+            int[] test = tiles.get(tile);
+            if (tile.getZoom() >= minZoom) {
+                assertTrue(
+                    "Tile " + tile + " is different",
+                    Arrays.equals(control, test));
+            } else {
+                assertSimilarTiles(tile, control, test);
+            }
+        }
+    }
+
+    protected static void assertSimilarTiles(
+        TileInfo tile,
+        int[] expected,
+        int[] pixels) {
+        long diff = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int a = (expected[i] >> shift) & 0xFF;
+                int b = (pixels[i] >> shift) & 0xFF;
+                diff += Math.abs(a - b);
+            }
+        }
+        double average = (double) diff / (expected.length * 3);
+        assertTrue("Tile " + tile + " is too different", average < 8);
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    protected ImageTilesGenerator newGenerator() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImage image = ImageTilesGenerator.readImage(input);
+        return newGenerator(new BufferedImageSource(image));
+    }
+
+    protected ImageTilesGenerator newGenerator(IImageSource source) {
+        ImageTilesGenerator generator = new ImageTilesGenerator(source);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        return generator;
+    }
+
     public void test() throws Exception {
         String name = "flower.jpg";
         new Main("url=" + name) {
@@ -29,4 +167,447 @@ public class ImageTilesGeneratorTest extends TestCase {
             }
         }.run();
     }
+
+    public void testBlankTiles() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        generator.setTileFormat(TileFormat.PNG);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        BlankTileCollector test = new BlankTileCollector();
+        generator.generateTiles(18, test);
+        assertSameTiles(control.getTiles(), test.getTiles());
+        assertTrue(test.getBlankTilesNumber() > 0);
+    }
+
+    public void testMemoryBudget() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        IImageSource source = new StreamedImageSource(input);
+        try {
+            generator = newGenerator(source);
+            MemoryBudget budget = new MemoryBudget(2 * 1024 * 1024);
+            generator.setMemoryBudget(budget);
+            TileCollector test = new TileCollector();
+            generator.generateTiles(18, test);
+            assertEquals(0, budget.getReservedBytes());
+            assertTrue(budget.getPeakBytes() > 0);
+            assertTrue(budget.getPeakBytes() <= budget.getMaxBytes());
+
+            assertSameTiles(
+                control.getTiles(),
+                test.getTiles(),
+                generator.getImageZoomLevel());
+        } finally {
+            source.close();
+        }
+    }
+
+    public void testFileTileWriter() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        generator.setTileFormat(TileFormat.PNG);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        for (int mode = 0; mode < 3; mode++) {
+            final File rootDir = File.createTempFile("tiles", "");
+            rootDir.delete();
+            final Set<File> missing = Collections
+                .synchronizedSet(new HashSet<File>());
+            // Directories should be created by the begin() method before
+            // tiles are delivered to the writer
+            FileTileWriter writer = new FileTileWriter(rootDir) {
+                @Override
+                protected void onTileData(
+                    TileInfo tile,
+                    TileFormat tileFormat,
+                    byte[] data) throws IOException {
+                    File dir = new File(rootDir, tile.getZoom()
+                        + "/"
+                        + tile.getX());
+                    if (!dir.isDirectory()) {
+                        missing.add(dir);
+                    }
+                    super.onTileData(tile, tileFormat, data);
+                }
+            };
+            generator.setPyramidMode(mode == 2);
+            try {
+                if (mode == 1) {
+                    TilePipeline pipeline = new TilePipeline(writer, 2, 1, 8);
+                    try {
+                        generator.generateTiles(18, pipeline);
+                    } finally {
+                        pipeline.close();
+                    }
+                } else {
+                    generator.generateTiles(18, writer);
+                }
+                assertTrue(missing.toString(), missing.isEmpty());
+                for (TileInfo tile : control.getTiles().keySet()) {
+                    File file = new File(rootDir, tile.getTilePath("png"));
+                    assertTrue(file.toString(), file.isFile());
+                }
+            } finally {
+                delete(rootDir);
+            }
+        }
+    }
+
+    /**
+     * Subclasses of the {@link FileTileWriter} overriding the
+     * {@link FileTileWriter#onTile(TileInfo, BufferedImage, TileFormat)}
+     * method receive all tiles unless blank tiles are enabled.
+     */
+    public void testFileTileWriterBlankTiles() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        generator.setTileFormat(TileFormat.PNG);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        final File rootDir = File.createTempFile("tiles", "");
+        rootDir.delete();
+        final AtomicInteger counter = new AtomicInteger();
+        FileTileWriter writer = new FileTileWriter(rootDir) {
+            @Override
+            public void onTile(
+                TileInfo tile,
+                BufferedImage tileImage,
+                TileFormat tileFormat) {
+                counter.incrementAndGet();
+                super.onTile(tile, tileImage, tileFormat);
+            }
+        };
+        try {
+            generator.generateTiles(18, writer);
+            assertEquals(control.getTiles().size(), counter.get());
+
+            counter.set(0);
+            writer.setBlankTilesEnabled(true);
+            generator.generateTiles(18, writer);
+            assertTrue(counter.get() < control.getTiles().size());
+            for (TileInfo tile : control.getTiles().keySet()) {
+                File file = new File(rootDir, tile.getTilePath("png"));
+                assertTrue(file.toString(), file.isFile());
+            }
+        } finally {
+            delete(rootDir);
+        }
+    }
+
+    public void testGeoArea() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        ImageTiler imageTiler = generator.getImageTiler(17);
+        GeoPoint first = imageTiler.getGeoPosition(new ImagePoint(100, 150));
+        GeoPoint second = imageTiler.getGeoPosition(new ImagePoint(300, 400));
+        Map<TileInfo, int[]> expected = new HashMap<TileInfo, int[]>();
+        for (Map.Entry<TileInfo, int[]> entry : control.getTiles().entrySet()) {
+            TileInfo tile = entry.getKey();
+            int zoom = tile.getZoom();
+            TileRange range = new TileRange(
+                new TileInfo(first, zoom),
+                new TileInfo(second, zoom));
+            if (range.contains(tile)) {
+                expected.put(tile, entry.getValue());
+            }
+        }
+
+        int minZoom = generator.getMinZoomLevel(18, generator.getImageSize());
+        TileCollector test = new TileCollector();
+        generator.generateTiles(minZoom, 18, test, second, first);
+        assertSameTiles(expected, test.getTiles());
+        assertTrue(test.getTiles().size() < control.getTiles().size() / 2);
+
+        // Ranges outside of the image are ignored
+        test = new TileCollector();
+        generator.generateTiles(
+            Arrays.asList(new TileRange(0, 0, 10, 10, 18)),
+            test);
+        assertTrue(test.getTiles().isEmpty());
+    }
+
+    public void testMappedSource() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        IImageSource decoder = new StreamedImageSource(input);
+        File file = File.createTempFile("flower", ".raw");
+        IImageSource source;
+        try {
+            MappedImageSource.write(decoder, file);
+            source = new MappedImageSource(file);
+        } finally {
+            decoder.close();
+        }
+        try {
+            ImageTilesGenerator generator = newGenerator();
+            TileCollector control = new TileCollector();
+            generator.generateTiles(18, control);
+
+            generator = newGenerator(source);
+            generator.setMaxBandPixels(64 * 1024);
+            TileCollector test = new TileCollector();
+            generator.generateTiles(18, test);
+
+            assertSameTiles(
+                control.getTiles(),
+                test.getTiles(),
+                generator.getImageZoomLevel());
+        } finally {
+            source.close();
+            file.delete();
+        }
+    }
+
+    public void testParallelGeneration() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            generator.setExecutor(executor);
+            TileCollector test = new TileCollector();
+            generator.generateTiles(18, test);
+            assertSameTiles(control.getTiles(), test.getTiles());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tiles starting before the image origin (non-aligned pin points) should
+     * contain exactly the covered part of the image at the right offset.
+     */
+    public void testNonAlignedPinPoint() throws Exception {
+        BufferedImage image = new BufferedImage(
+            300,
+            200,
+            BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xFF000000 | (x << 12) | y);
+            }
+        }
+        ImageTilesGenerator generator = newGenerator(new BufferedImageSource(
+            image));
+        generator.setTileFormat(TileFormat.PNG);
+        generator.setPinPoint(new ImagePoint(100, 60));
+        TileCollector test = new TileCollector();
+        generator.generateTiles(17, 17, test);
+
+        ImageTiler tiler = generator.getImageTiler(17);
+        assertTrue(test.getTiles().size() >= 4);
+        for (Map.Entry<TileInfo, int[]> entry : test.getTiles().entrySet()) {
+            ImagePoint position = tiler.getTilePosition(entry.getKey());
+            int[] pixels = entry.getValue();
+            for (int y = 0; y < 256; y++) {
+                for (int x = 0; x < 256; x++) {
+                    long imageX = position.getX() + x;
+                    long imageY = position.getY() + y;
+                    int expected = 0;
+                    if (imageX >= 0
+                        && imageX < image.getWidth()
+                        && imageY >= 0
+                        && imageY < image.getHeight()) {
+                        expected = image.getRGB((int) imageX, (int) imageY);
+                    }
+                    assertEquals(
+                        entry.getKey() + " (" + x + "," + y + ")",
+                        expected,
+                        pixels[y * 256 + x]);
+                }
+            }
+        }
+    }
+
+    public void testParallelFailure() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImage image = ImageTilesGenerator.readImage(input);
+        final TileInfo failed = new TileInfo(65536, 65536, 17);
+        final AtomicInteger running = new AtomicInteger();
+        ImageTilesGenerator generator = new ImageTilesGenerator(
+            new BufferedImageSource(image)) {
+            @Override
+            protected void copyTile(
+                TileInfo tile,
+                int sourceTileSize,
+                int targetTileSize,
+                ImagePoint sourceLeftTop,
+                ImagePoint sourceBottomRight,
+                ImagePoint targetLeftTop,
+                ImagePoint targetBottomRight) {
+                running.incrementAndGet();
+                try {
+                    if (tile.equals(failed)) {
+                        throw new IllegalStateException("Test failure");
+                    }
+                    Thread.sleep(20);
+                    super.copyTile(
+                        tile,
+                        sourceTileSize,
+                        targetTileSize,
+                        sourceLeftTop,
+                        sourceBottomRight,
+                        targetLeftTop,
+                        targetBottomRight);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            generator.setExecutor(executor);
+            TileCollector test = new TileCollector();
+            try {
+                generator.generateTiles(18, test);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("Test failure", e.getMessage());
+            }
+            // Tasks are finished before the generation returns
+            assertEquals(0, running.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testPyramidMode() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        generator.setPyramidMode(true);
+        TileCollector test = new TileCollector();
+        generator.generateTiles(18, test);
+
+        assertSameTiles(
+            control.getTiles(),
+            test.getTiles(),
+            generator.getImageZoomLevel());
+    }
+
+    public void testResamplers() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        generator.setResampler(GraphicsResampler.NEAREST);
+        generator.setResampler(15, 16, LanczosResampler.LANCZOS3);
+        generator.setResampler(17, 17, AreaAverageResampler.INSTANCE);
+        TileCollector test = new TileCollector();
+        generator.generateTiles(18, test);
+
+        Map<TileInfo, int[]> controlTiles = control.getTiles();
+        Map<TileInfo, int[]> testTiles = test.getTiles();
+        assertEquals(controlTiles.keySet(), testTiles.keySet());
+        for (Map.Entry<TileInfo, int[]> entry : controlTiles.entrySet()) {
+            TileInfo tile = entry.getKey();
+            assertSimilarTiles(tile, entry.getValue(), testTiles.get(tile));
+        }
+    }
+
+    public void testStreamedSource() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        IImageSource source = new StreamedImageSource(input);
+        try {
+            generator = newGenerator(source);
+            // Bands smaller than one row of tiles
+            generator.setMaxBandPixels(256 * 256 * 2);
+            TileCollector test = new TileCollector();
+            generator.generateTiles(18, test);
+
+            assertSameTiles(
+                control.getTiles(),
+                test.getTiles(),
+                generator.getImageZoomLevel());
+        } finally {
+            source.close();
+        }
+    }
+
+    public void testRasterFastPath() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        generator.setRasterFastPath(false);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        generator.setRasterFastPath(true);
+        TileCollector test = new TileCollector();
+        generator.generateTiles(18, test);
+
+        assertSameTiles(
+            control.getTiles(),
+            test.getTiles(),
+            generator.getImageZoomLevel());
+    }
+
+    public void testRegeneration() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        ImagePoint[] areas = {
+            new ImagePoint(100, 150),
+            new ImagePoint(140, 300),
+            new ImagePoint(400, 20),
+            new ImagePoint(401, 21) };
+        Map<TileInfo, int[]> expected = new HashMap<TileInfo, int[]>();
+        for (Map.Entry<TileInfo, int[]> entry : control.getTiles().entrySet()) {
+            TileInfo tile = entry.getKey();
+            ImageTiler tiler = generator.getImageTiler(tile.getZoom());
+            ImagePoint position = tiler.getTilePosition(tile);
+            long size = tiler.getTileSize();
+            for (int i = 0; i < areas.length; i += 2) {
+                if (position.getY() < areas[i + 1].getY()
+                    && position.getY() + size > areas[i].getY()
+                    && position.getX() < areas[i + 1].getX()
+                    && position.getX() + size > areas[i].getX()) {
+                    expected.put(tile, entry.getValue());
+                }
+            }
+        }
+
+        generator.setPyramidMode(true);
+        TileCollector test = new TileCollector();
+        generator.regenerateTiles(18, test, areas);
+        assertSameTiles(expected, test.getTiles());
+        assertTrue(test.getTiles().size() < control.getTiles().size() / 2);
+    }
+
+    public void testTileBufferPool() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        generator.setTileFormat(TileFormat.PNG);
+        generator.setBackgroundColor(new Color(0x20, 0x40, 0x80, 0x80));
+        generator.setPyramidMode(true);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TileBufferPool pool = new TileBufferPool(8);
+            generator.setTileBufferPool(pool);
+            generator.setExecutor(executor);
+            TileCollector test = new TileCollector();
+            generator.generateTiles(18, test);
+            assertSameTiles(control.getTiles(), test.getTiles());
+            assertTrue(pool.getReusedNumber() > 0);
+            assertTrue(pool.getAllocatedNumber() < test.getTiles().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.TestCase;
+
+public class MappedImageSourceTest extends TestCase {
+
+    private File fFile;
+
+    public MappedImageSourceTest(String name) {
+        super(name);
+    }
+
+    private void assertRegion(
+        IImageSource expected,
+        IImageSource source,
+        ImagePoint leftTop,
+        ImagePoint bottomRight,
+        int subsampling) throws Exception {
+        BufferedImage a = expected
+            .readRegion(leftTop, bottomRight, subsampling);
+        BufferedImage b = source.readRegion(leftTop, bottomRight, subsampling);
+        assertEquals(a.getWidth(), b.getWidth());
+        assertEquals(a.getHeight(), b.getHeight());
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                assertEquals(a.getRGB(x, y), b.getRGB(x, y));
+            }
+        }
+    }
+
+    private BufferedImage newImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int alpha = type == BufferedImage.TYPE_INT_ARGB
+                    ? (x * 5) & 0xFF
+                    : 0xFF;
+                int rgb = (x * 7 + y * 13) * 0x010305;
+                image.setRGB(x, y, (alpha << 24) | (rgb & 0xFFFFFF));
+            }
+        }
+        return image;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fFile = File.createTempFile("pixels", ".raw");
+        fFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fFile.delete();
+        super.tearDown();
+    }
+
+    public void testChangedSource() throws Exception {
+        IImageSource first = new BufferedImageSource(newImage(
+            20,
+            10,
+            BufferedImage.TYPE_INT_RGB));
+        MappedImageSource source = MappedImageSource.open(fFile, first, 7);
+        try {
+            assertEquals(7, source.getSourceTag());
+        } finally {
+            source.close();
+        }
+        assertTrue(MappedImageSource.isValid(fFile, first.getImageSize(), 7));
+        assertFalse(MappedImageSource.isValid(fFile, first.getImageSize(), 8));
+
+        // Another version of the same image
+        source = MappedImageSource.open(fFile, first, 8);
+        try {
+            assertEquals(8, source.getSourceTag());
+        } finally {
+            source.close();
+        }
+
+        // Another image with the same tag
+        IImageSource second = new BufferedImageSource(newImage(
+            10,
+            20,
+            BufferedImage.TYPE_INT_RGB));
+        source = MappedImageSource.open(fFile, second, 8);
+        try {
+            assertEquals(second.getImageSize(), source.getImageSize());
+            ImagePoint zero = new ImagePoint(0, 0);
+            assertRegion(second, source, zero, source.getImageSize(), 1);
+        } finally {
+            source.close();
+        }
+    }
+
+    public void testInvalidFile() throws Exception {
+        assertFalse(MappedImageSource.isValid(fFile));
+        FileOutputStream out = new FileOutputStream(fFile);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        assertFalse(MappedImageSource.isValid(fFile));
+        IImageSource expected = new BufferedImageSource(newImage(
+            10,
+            10,
+            BufferedImage.TYPE_INT_RGB));
+        IImageSource source = MappedImageSource.open(fFile, expected);
+        try {
+            assertTrue(MappedImageSource.isValid(fFile));
+            assertEquals(expected.getImageSize(), source.getImageSize());
+        } finally {
+            source.close();
+        }
+    }
+
+    public void testReadRegion() throws Exception {
+        IImageSource expected = new BufferedImageSource(newImage(
+            123,
+            57,
+            BufferedImage.TYPE_INT_RGB));
+        MappedImageSource.write(expected, fFile);
+        assertEquals(32 + 123 * 57 * 3, fFile.length());
+        // Small chunks: rows are split between chunks
+        MappedImageSource source = new MappedImageSource(fFile, 1000);
+        try {
+            assertEquals(3, source.getPixelBytes());
+            assertNull(source.getImage());
+            assertEquals(expected.getImageSize(), source.getImageSize());
+            ImagePoint size = source.getImageSize();
+            ImagePoint zero = new ImagePoint(0, 0);
+            assertRegion(expected, source, zero, size, 1);
+            assertRegion(expected, source, zero, size, 3);
+            ImagePoint leftTop = new ImagePoint(11, 17);
+            ImagePoint bottomRight = new ImagePoint(50, 101);
+            assertRegion(expected, source, leftTop, bottomRight, 1);
+            assertRegion(expected, source, leftTop, bottomRight, 4);
+        } finally {
+            source.close();
+        }
+    }
+
+    public void testTransparentImage() throws Exception {
+        IImageSource expected = new BufferedImageSource(newImage(
+            64,
+            32,
+            BufferedImage.TYPE_INT_ARGB));
+        MappedImageSource source = MappedImageSource.open(fFile, expected);
+        try {
+            assertEquals(4, source.getPixelBytes());
+            ImagePoint leftTop = new ImagePoint(3, 5);
+            ImagePoint bottomRight = new ImagePoint(32, 64);
+            assertRegion(expected, source, leftTop, bottomRight, 1);
+            assertRegion(expected, source, leftTop, bottomRight, 2);
+        } finally {
+            source.close();
+        }
+    }
+
+}
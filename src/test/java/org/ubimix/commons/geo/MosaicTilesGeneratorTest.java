@@ -0,0 +1,128 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+import org.ubimix.commons.geo.ImageTilesGeneratorTest.TileCollector;
+import org.ubimix.commons.geo.MosaicTilesGenerator.ISheetLoader;
+
+public class MosaicTilesGeneratorTest extends TestCase {
+
+    public MosaicTilesGeneratorTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Splits the image in NxN sheets; each sheet has its own pin point.
+     */
+    private MosaicTilesGenerator newMosaic(BufferedImage image, int n) {
+        MosaicTilesGenerator mosaic = new MosaicTilesGenerator();
+        mosaic.setTileFormat(TileFormat.PNG);
+        mosaic.setMaxLoadedSheets(4);
+        int width = image.getWidth() / n;
+        int height = image.getHeight() / n;
+        for (int i = 0; i < n * n; i++) {
+            final int x = (i % n) * width;
+            final int y = (i / n) * height;
+            final BufferedImage sheet = image.getSubimage(x, y, width, height);
+            ISheetLoader loader = new ISheetLoader() {
+                public IImageSource openSource() throws IOException {
+                    return new BufferedImageSource(sheet);
+                }
+            };
+            mosaic.addSheet(
+                loader,
+                new ImagePoint(height, width),
+                new GeoPoint(0, 0),
+                new ImagePoint(-y, -x),
+                17);
+        }
+        return mosaic;
+    }
+
+    private BufferedImage readImage() throws IOException {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        return ImageTilesGenerator.readImage(input);
+    }
+
+    public void test() throws Exception {
+        BufferedImage image = readImage();
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setTileFormat(TileFormat.PNG);
+        generator.setBackgroundColor(null);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(16, 17, control);
+
+        MosaicTilesGenerator mosaic = newMosaic(image, 2);
+        mosaic.setIndexZoomLevel(16);
+        TileCollector test = new TileCollector();
+        try {
+            mosaic.generateTiles(16, 17, test);
+        } finally {
+            mosaic.close();
+        }
+
+        Map<TileInfo, int[]> expected = control.getTiles();
+        Map<TileInfo, int[]> tiles = test.getTiles();
+        assertEquals(expected.keySet(), tiles.keySet());
+        for (Map.Entry<TileInfo, int[]> entry : expected.entrySet()) {
+            TileInfo tile = entry.getKey();
+            assertTrue(
+                "Tile " + tile + " is different",
+                Arrays.equals(entry.getValue(), tiles.get(tile)));
+        }
+        // Each sheet is loaded only once for each zoom level
+        assertTrue(mosaic.getLoadsNumber() <= 8);
+    }
+
+    /**
+     * Tiles of levels lower than the index zoom level are built from their
+     * children, so sheets are not decoded again for these levels.
+     */
+    public void testLowZoomLevels() throws Exception {
+        BufferedImage image = readImage();
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setTileFormat(TileFormat.PNG);
+        generator.setBackgroundColor(null);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(14, 17, control);
+
+        MosaicTilesGenerator mosaic = newMosaic(image, 4);
+        mosaic.setIndexZoomLevel(17);
+        TileCollector test = new TileCollector();
+        try {
+            mosaic.generateTiles(14, 17, test);
+        } finally {
+            mosaic.close();
+        }
+
+        Map<TileInfo, int[]> expected = control.getTiles();
+        Map<TileInfo, int[]> tiles = test.getTiles();
+        assertEquals(expected.keySet(), tiles.keySet());
+        for (Map.Entry<TileInfo, int[]> entry : expected.entrySet()) {
+            TileInfo tile = entry.getKey();
+            if (tile.getZoom() == 17) {
+                assertTrue(
+                    "Tile " + tile + " is different",
+                    Arrays.equals(entry.getValue(), tiles.get(tile)));
+            } else {
+                ImageTilesGeneratorTest.assertSimilarTiles(
+                    tile,
+                    entry.getValue(),
+                    tiles.get(tile));
+            }
+        }
+        // Tiles of the index zoom level are generated in the order of the tile
+        // tree, so sheets are reloaded only a few times
+        assertTrue(mosaic.getLoadsNumber() <= 2 * mosaic.getSheets().size());
+    }
+
+}
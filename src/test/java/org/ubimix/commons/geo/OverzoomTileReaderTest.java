@@ -0,0 +1,95 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.FileTileWriter;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+public class OverzoomTileReaderTest extends TestCase {
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File fDir;
+
+    public OverzoomTileReaderTest(String name) {
+        super(name);
+    }
+
+    private BufferedImage decode(byte[] data) throws Exception {
+        return ImageTilesGenerator.readImage(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fDir = File.createTempFile("tiles", "");
+        fDir.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(fDir);
+        super.tearDown();
+    }
+
+    public void test() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImage image = ImageTilesGenerator.readImage(input);
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        generator.setTileFormat(TileFormat.PNG);
+        generator.setVirtualOverzoom(true);
+        generator.generateTiles(19, new FileTileWriter(fDir));
+        assertTrue(new File(fDir, "17").isDirectory());
+        assertFalse(new File(fDir, "18").exists());
+
+        DirectoryTileReader tiles = new DirectoryTileReader(
+            fDir,
+            TileFormat.PNG);
+        OverzoomTileReader reader = new OverzoomTileReader(tiles, 17, 19);
+        reader.setResampler(GraphicsResampler.NEAREST);
+        TileInfo ancestor = new TileInfo(65538, 65537, 17);
+        byte[] ancestorData = tiles.getTileData(ancestor);
+        assertNotNull(ancestorData);
+        assertSame(TileFormat.PNG, reader.getTileFormat());
+        assertNotNull(reader.getTileData(ancestor));
+        BufferedImage expected = decode(ancestorData);
+
+        // The bottom-left quarter of the ancestor
+        TileInfo tile = new TileInfo(65538 * 2 + 1, 65537 * 2, 18);
+        BufferedImage tileImage = decode(reader.getTileData(tile));
+        assertEquals(256, tileImage.getWidth());
+        assertEquals(256, tileImage.getHeight());
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 256; x++) {
+                int rgb = expected.getRGB(x / 2, 128 + y / 2);
+                assertEquals(rgb, tileImage.getRGB(x, y));
+            }
+        }
+
+        // Two levels above the native level
+        tile = new TileInfo(65538 * 4 + 3, 65537 * 4 + 2, 19);
+        tileImage = decode(reader.getTileData(tile));
+        assertEquals(expected.getRGB(128, 192), tileImage.getRGB(0, 0));
+        assertEquals(expected.getRGB(191, 255), tileImage.getRGB(255, 255));
+
+        assertNull(reader.getTileData(new TileInfo(0, 0, 18)));
+        assertNull(reader.getTileData(new TileInfo(65538 * 8, 65537 * 8, 20)));
+        reader.close();
+    }
+
+}
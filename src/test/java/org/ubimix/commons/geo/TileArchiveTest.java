@@ -0,0 +1,154 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+import org.ubimix.commons.geo.ImageTilesGeneratorTest.TileCollector;
+
+public class TileArchiveTest extends TestCase {
+
+    private File fFile;
+
+    public TileArchiveTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fFile = File.createTempFile("tiles", ".tiles");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fFile.delete();
+        super.tearDown();
+    }
+
+    private void assertArchive(Map<TileInfo, int[]> tiles) throws Exception {
+        assertArchive(tiles, new TileArchiveReader(fFile));
+        // The index is split in many mapped chunks
+        assertArchive(tiles, new TileArchiveReader(fFile, 7));
+    }
+
+    private void assertArchive(
+        Map<TileInfo, int[]> tiles,
+        TileArchiveReader reader) throws Exception {
+        try {
+            assertEquals(TileFormat.PNG, reader.getTileFormat());
+            assertEquals(tiles.size(), reader.getTilesNumber());
+            long prevKey = -1;
+            for (int i = 0; i < reader.getTilesNumber(); i++) {
+                TileInfo tile = reader.getTile(i);
+                assertTrue(tiles.containsKey(tile));
+                assertTrue(prevKey < tile.getKey());
+                prevKey = tile.getKey();
+            }
+            for (Map.Entry<TileInfo, int[]> entry : tiles.entrySet()) {
+                byte[] data = reader.getTileData(entry.getKey());
+                assertNotNull(data);
+                BufferedImage tileImage = ImageTilesGenerator
+                    .readImage(new ByteArrayInputStream(data));
+                int w = tileImage.getWidth();
+                int h = tileImage.getHeight();
+                int[] pixels = tileImage.getRGB(0, 0, w, h, null, 0, w);
+                int[] expected = entry.getValue();
+                for (int i = 0; i < pixels.length; i++) {
+                    assertEquals(expected[i], pixels[i]);
+                }
+            }
+            assertNull(reader.getTileData(new TileInfo(0, 0, 1)));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private ImageTilesGenerator newGenerator() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImage image = ImageTilesGenerator.readImage(input);
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        generator.setTileFormat(TileFormat.PNG);
+        return generator;
+    }
+
+    public void test() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        TileArchiveWriter writer = new TileArchiveWriter(fFile);
+        try {
+            generator.generateTiles(18, writer);
+        } finally {
+            writer.close();
+        }
+        assertEquals(control.getTiles().size(), writer.getTilesNumber());
+        assertArchive(control.getTiles());
+    }
+
+    /**
+     * Offsets and lengths of tiles are not limited by bits of a packed index
+     * value.
+     */
+    public void testLargeTile() throws Exception {
+        byte[] small = new byte[] { 1, 2, 3 };
+        byte[] large = new byte[(1 << 24) + 5];
+        large[large.length - 1] = 7;
+        TileArchiveWriter writer = new TileArchiveWriter(fFile);
+        try {
+            writer.onTileData(new TileInfo(1, 2, 3), TileFormat.PNG, large);
+            writer.onTileData(new TileInfo(0, 1, 3), TileFormat.PNG, small);
+        } finally {
+            writer.close();
+        }
+        TileArchiveReader reader = new TileArchiveReader(fFile);
+        try {
+            assertEquals(2, reader.getTilesNumber());
+            assertTrue(Arrays.equals(large, reader.getTileData(new TileInfo(
+                1,
+                2,
+                3))));
+            assertTrue(Arrays.equals(small, reader.getTileData(new TileInfo(
+                0,
+                1,
+                3))));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testPipeline() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        TileArchiveWriter writer = new TileArchiveWriter(fFile);
+        try {
+            generator.setExecutor(executor);
+            generator.setTileBufferPool(new TileBufferPool(8));
+            TilePipeline pipeline = new TilePipeline(writer, 2, 1, 4);
+            try {
+                generator.generateTiles(18, pipeline);
+            } finally {
+                pipeline.close();
+            }
+        } finally {
+            writer.close();
+            executor.shutdown();
+        }
+        assertArchive(control.getTiles());
+    }
+
+}
@@ -0,0 +1,209 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+public class TileCheckpointTest extends TestCase {
+
+    /**
+     * This writer keeps encoded tiles in memory and fails when the maximal
+     * number of tiles is received.
+     */
+    private static class InterruptedWriter extends TileDataWriter {
+
+        private final int fMaxTiles;
+
+        private final Map<TileInfo, byte[]> fTiles = new HashMap<TileInfo, byte[]>();
+
+        public InterruptedWriter(int maxTiles) {
+            fMaxTiles = maxTiles;
+        }
+
+        public synchronized Map<TileInfo, byte[]> getTiles() {
+            return fTiles;
+        }
+
+        @Override
+        protected void handleError(String msg, Throwable t) {
+            throw new IllegalStateException(msg, t);
+        }
+
+        @Override
+        protected synchronized void onTileData(
+            TileInfo tile,
+            TileFormat tileFormat,
+            byte[] data) throws IOException {
+            if (fTiles.size() >= fMaxTiles) {
+                throw new IOException("Interrupted");
+            }
+            assertNull(fTiles.put(tile, data));
+        }
+
+    }
+
+    /**
+     * This source does not keep the image in memory, so tiles are generated
+     * band by band. It counts loaded regions.
+     */
+    private static class StreamedSource extends BufferedImageSource {
+
+        private int fLoads;
+
+        public StreamedSource(BufferedImage image) {
+            super(image);
+        }
+
+        @Override
+        public BufferedImage getImage() {
+            return null;
+        }
+
+        public synchronized int getLoads() {
+            return fLoads;
+        }
+
+        @Override
+        public synchronized BufferedImage readRegion(
+            ImagePoint leftTop,
+            ImagePoint bottomRight,
+            int subsampling) throws IOException {
+            fLoads++;
+            return super.readRegion(leftTop, bottomRight, subsampling);
+        }
+
+    }
+
+    private File fFile;
+
+    public TileCheckpointTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fFile = File.createTempFile("tiles", ".checkpoint");
+        fFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fFile.delete();
+        super.tearDown();
+    }
+
+    private void checkResume(boolean pyramidMode) throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        generator.setPyramidMode(pyramidMode);
+        InterruptedWriter control = new InterruptedWriter(Integer.MAX_VALUE);
+        generator.generateTiles(18, control);
+        Map<TileInfo, byte[]> expected = control.getTiles();
+
+        TileCheckpoint checkpoint = new TileCheckpoint(fFile);
+        checkpoint.setSaveInterval(0);
+        InterruptedWriter first = new InterruptedWriter(expected.size() / 2);
+        first.setCheckpoint(checkpoint);
+        generator.setCheckpoint(checkpoint);
+        try {
+            generator.generateTiles(18, first);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        // Restart with the saved manifest
+        checkpoint = new TileCheckpoint(fFile);
+        InterruptedWriter second = new InterruptedWriter(Integer.MAX_VALUE);
+        second.setCheckpoint(checkpoint);
+        generator.setCheckpoint(checkpoint);
+        generator.generateTiles(18, second);
+        checkpoint.save();
+        assertTrue(second.getTiles().size() < expected.size());
+
+        Map<TileInfo, byte[]> tiles = new HashMap<TileInfo, byte[]>();
+        tiles.putAll(first.getTiles());
+        tiles.putAll(second.getTiles());
+        assertEquals(expected.keySet(), tiles.keySet());
+        for (Map.Entry<TileInfo, byte[]> entry : expected.entrySet()) {
+            byte[] data = tiles.get(entry.getKey());
+            assertTrue(Arrays.equals(entry.getValue(), data));
+        }
+
+        // All tiles are completed
+        checkpoint = new TileCheckpoint(fFile);
+        InterruptedWriter third = new InterruptedWriter(0);
+        generator.setCheckpoint(checkpoint);
+        generator.generateTiles(18, third);
+    }
+
+    private ImageTilesGenerator newGenerator() throws Exception {
+        return newGenerator(new BufferedImageSource(readImage()));
+    }
+
+    private ImageTilesGenerator newGenerator(IImageSource source) {
+        ImageTilesGenerator generator = new ImageTilesGenerator(source);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        generator.setTileFormat(TileFormat.PNG);
+        return generator;
+    }
+
+    private BufferedImage readImage() throws IOException {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        return ImageTilesGenerator.readImage(input);
+    }
+
+    public void test() throws Exception {
+        checkResume(false);
+    }
+
+    public void testBands() throws Exception {
+        TileCheckpoint checkpoint = new TileCheckpoint(fFile);
+        checkpoint.setSaveInterval(0);
+        StreamedSource source = new StreamedSource(readImage());
+        ImageTilesGenerator generator = newGenerator(source);
+        InterruptedWriter first = new InterruptedWriter(Integer.MAX_VALUE);
+        first.setCheckpoint(checkpoint);
+        generator.setCheckpoint(checkpoint);
+        generator.generateTiles(18, first);
+        assertTrue(source.getLoads() > 0);
+
+        // Completed bands are not loaded again
+        source = new StreamedSource(readImage());
+        generator = newGenerator(source);
+        generator.setCheckpoint(new TileCheckpoint(fFile));
+        generator.generateTiles(18, new InterruptedWriter(0));
+        assertEquals(0, source.getLoads());
+    }
+
+    public void testDoneRange() throws Exception {
+        TileCheckpoint checkpoint = new TileCheckpoint(fFile);
+        checkpoint.setSaveInterval(0);
+        assertFalse(checkpoint.isDone(new TileRange(0, 0, 0, 0, 1)));
+        checkpoint.init(new TileRange(2, 3, 5, 7, 1));
+        for (int y = 3; y <= 4; y++) {
+            for (int x = 4; x <= 6; x++) {
+                checkpoint.setDone(new TileInfo(y, x, 1));
+            }
+        }
+        assertTrue(checkpoint.isDone(new TileRange(3, 4, 4, 6, 1)));
+        assertTrue(checkpoint.isDone(new TileRange(4, 5, 4, 6, 1)));
+        assertFalse(checkpoint.isDone(new TileRange(3, 4, 5, 6, 1)));
+        assertFalse(checkpoint.isDone(new TileRange(3, 3, 4, 6, 1)));
+        assertFalse(checkpoint.isDone(new TileRange(3, 4, 4, 8, 1)));
+        assertFalse(checkpoint.isDone(new TileRange(3, 4, 4, 6, 2)));
+    }
+
+    public void testPyramidMode() throws Exception {
+        checkResume(true);
+    }
+
+}
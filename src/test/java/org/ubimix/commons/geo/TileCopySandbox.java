@@ -0,0 +1,73 @@
+package org.ubimix.commons.geo;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.ITileImageListener;
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+/**
+ * Compares the time of tile generation with and without the raster fast path.
+ */
+public class TileCopySandbox {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int imageType = BufferedImage.TYPE_3BYTE_BGR;
+        BufferedImage image = newImage(size, imageType);
+        println("-----------------------------------------------");
+        println("Image: " + size + "x" + size + " (TYPE_3BYTE_BGR)");
+        for (int i = 0; i < 3; i++) {
+            run(image, false);
+            run(image, true);
+        }
+        image = newImage(size, BufferedImage.TYPE_INT_RGB);
+        println("-----------------------------------------------");
+        println("Image: " + size + "x" + size + " (TYPE_INT_RGB)");
+        for (int i = 0; i < 3; i++) {
+            run(image, false);
+            run(image, true);
+        }
+    }
+
+    private static BufferedImage newImage(int size, int imageType) {
+        BufferedImage image = new BufferedImage(size, size, imageType);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, Color.RED, size, size, Color.BLUE));
+            g.fillRect(0, 0, size, size);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    protected static void println(String msg) {
+        System.out.println(msg);
+    }
+
+    private static void run(BufferedImage image, boolean fastPath) {
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setRasterFastPath(fastPath);
+        final int[] counter = { 0 };
+        long start = System.currentTimeMillis();
+        generator.generateTiles(12, 17, new ITileImageListener() {
+            public void onTile(
+                TileInfo tile,
+                BufferedImage tileImage,
+                TileFormat tileFormat) {
+                counter[0]++;
+            }
+        });
+        long time = System.currentTimeMillis() - start;
+        println((fastPath ? " - Raster fast path : " : " - Graphics2D      : ")
+            + counter[0]
+            + " tiles in "
+            + time
+            + "ms");
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+import org.ubimix.commons.geo.TileEncoder.PngFilter;
+
+public class TileEncoderTest extends TestCase {
+
+    public TileEncoderTest(String name) {
+        super(name);
+    }
+
+    private BufferedImage decode(byte[] data) throws Exception {
+        return ImageTilesGenerator.readImage(new ByteArrayInputStream(data));
+    }
+
+    private BufferedImage newImage(int type, boolean opaque) {
+        Random random = new Random(123);
+        BufferedImage image = new BufferedImage(64, 48, type);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int alpha = opaque ? 0xFF : random.nextInt(256);
+                int rgb = (x * 4) << 16 | (y * 5) << 8 | random.nextInt(16);
+                image.setRGB(x, y, alpha << 24 | rgb);
+            }
+        }
+        return image;
+    }
+
+    public void testJpeg() throws Exception {
+        BufferedImage image = newImage(BufferedImage.TYPE_INT_RGB, true);
+        TileEncoder encoder = new TileEncoder();
+        encoder.setJpegQuality(0.3f);
+        byte[] low = encoder.encode(image, TileFormat.JPG);
+        encoder.setJpegQuality(0.95f);
+        byte[] high = encoder.encode(image, TileFormat.JPG);
+        assertTrue(low.length < high.length);
+        // The reused stream does not keep bytes of previous tiles
+        encoder.setJpegQuality(0.3f);
+        assertTrue(Arrays.equals(low, encoder.encode(image, TileFormat.JPG)));
+        encoder.close();
+        encoder.setJpegQuality(0.95f);
+        assertTrue(Arrays.equals(high, encoder.encode(image, TileFormat.JPG)));
+        encoder.close();
+
+        BufferedImage test = decode(high);
+        assertEquals(image.getWidth(), test.getWidth());
+        assertEquals(image.getHeight(), test.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int a = image.getRGB(x, y);
+                int b = test.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int diff = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+                    assertTrue(Math.abs(diff) < 32);
+                }
+            }
+        }
+    }
+
+    public void testPng() throws Exception {
+        TileEncoder encoder = new TileEncoder();
+        BufferedImage[] images = {
+            newImage(BufferedImage.TYPE_INT_ARGB, false),
+            newImage(BufferedImage.TYPE_INT_ARGB, true),
+            newImage(BufferedImage.TYPE_INT_RGB, true),
+            newImage(BufferedImage.TYPE_3BYTE_BGR, true) };
+        for (BufferedImage image : images) {
+            for (PngFilter filter : PngFilter.values()) {
+                for (int level = 0; level <= 9; level += 9) {
+                    encoder.setPngFilter(filter);
+                    encoder.setPngCompressionLevel(level);
+                    byte[] data = encoder.encode(image, TileFormat.PNG);
+                    BufferedImage test = decode(data);
+                    assertEquals(
+                        image.getColorModel().hasAlpha()
+                            && image.getRGB(0, 0) >>> 24 != 0xFF,
+                        test.getColorModel().hasAlpha());
+                    for (int y = 0; y < image.getHeight(); y++) {
+                        for (int x = 0; x < image.getWidth(); x++) {
+                            assertEquals(image.getRGB(x, y), test.getRGB(x, y));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * States are shared by threads instead of being kept by each thread.
+     */
+    public void testStatePool() throws Exception {
+        final BufferedImage image = newImage(BufferedImage.TYPE_INT_RGB, true);
+        final TileEncoder encoder = new TileEncoder();
+        final byte[] expected = encoder.encode(image, TileFormat.PNG);
+        assertEquals(1, encoder.getStatesNumber());
+        final Throwable[] error = { null };
+        for (int i = 0; i < 10; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        byte[] data = encoder.encode(image, TileFormat.PNG);
+                        assertTrue(Arrays.equals(expected, data));
+                        encoder.encode(image, TileFormat.JPG);
+                    } catch (Throwable t) {
+                        error[0] = t;
+                    }
+                }
+            };
+            thread.start();
+            thread.join();
+        }
+        assertNull(error[0]);
+        assertEquals(1, encoder.getStatesNumber());
+        encoder.close();
+        assertEquals(0, encoder.getStatesNumber());
+        assertTrue(Arrays.equals(expected, encoder.encode(
+            image,
+            TileFormat.PNG)));
+        encoder.close();
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.ubimix.commons.geo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+public class TileManifestWriterTest extends TestCase {
+
+    private static class DataCollector extends TileDataWriter {
+
+        private final Map<String, byte[]> fTiles = new HashMap<String, byte[]>();
+
+        @Override
+        protected synchronized void onTileData(
+            TileInfo tile,
+            TileFormat tileFormat,
+            byte[] data) throws IOException {
+            fTiles.put(tile.getTilePath(tileFormat.toString()), data);
+        }
+
+    }
+
+    public TileManifestWriterTest(String name) {
+        super(name);
+    }
+
+    private String sha1(byte[] data) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        String hex = new BigInteger(1, digest.digest(data)).toString(16);
+        while (hex.length() < 40) {
+            hex = "0" + hex;
+        }
+        return hex;
+    }
+
+    public void testJsonWriter() throws Exception {
+        StringWriter buf = new StringWriter();
+        JsonWriter json = new JsonWriter(buf);
+        json.beginObject();
+        json.name("a").value(1);
+        json.name("b").beginArray().value("x\"y").value(true).endArray();
+        json.name("c").beginObject().name("d").value(0.5).endObject();
+        json.name("e").valueHex(new byte[] { 0, 15, -1 });
+        json.endObject();
+        assertEquals("{\n  \"a\":1,\n  \"b\":[\"x\\\"y\",true],"
+            + "\n  \"c\":{\"d\":0.5},\n  \"e\":\"000fff\"\n}", buf.toString());
+        try {
+            new JsonWriter(buf).beginObject().value(1);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testManifest() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImageSource source = new BufferedImageSource(
+            ImageTilesGenerator.readImage(input));
+        ImageTilesGenerator generator = new ImageTilesGenerator(source);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        generator.setTileFormat(TileFormat.PNG);
+        ImagePoint imageSize = source.getImageSize();
+        int minZoom = generator.getMinZoomLevel(18, imageSize);
+
+        StringWriter buf = new StringWriter();
+        TileManifestWriter manifest = new TileManifestWriter(buf, true);
+        manifest.begin(
+            imageSize,
+            generator.getImageTiler(17),
+            minZoom,
+            18,
+            TileFormat.PNG,
+            "name",
+            "flower",
+            "width",
+            imageSize.getX());
+        DataCollector writer = new DataCollector();
+        writer.setManifest(manifest);
+        generator.generateTiles(18, writer);
+        manifest.close();
+
+        String str = buf.toString();
+        assertTrue(str.startsWith("{\n  \"tilejson\":\"2.2.0\","));
+        assertTrue(str.contains("\n  \"minzoom\":" + minZoom + ","));
+        assertTrue(str.contains("\n  \"tiles\":[\"{z}/{x}/{y}.png\"],"));
+        assertTrue(str.contains("\n  \"name\":\"flower\","));
+        assertTrue(str.contains("\n  \"width\":" + imageSize.getX() + ","));
+        assertTrue(str.contains("\n  \"tileCount\":"
+            + writer.fTiles.size()
+            + ","));
+        assertTrue(str.endsWith("\n}"));
+        assertEquals(writer.fTiles.size(), manifest.getCount());
+        long bytes = 0;
+        for (Map.Entry<String, byte[]> entry : writer.fTiles.entrySet()) {
+            byte[] data = entry.getValue();
+            bytes += data.length;
+            assertTrue(str.contains("{\"path\":\""
+                + entry.getKey()
+                + "\",\"bytes\":"
+                + data.length
+                + ",\"sha1\":\""
+                + sha1(data)
+                + "\"}"));
+        }
+        assertEquals(bytes, manifest.getBytes());
+    }
+
+    public void testPrintUtil() throws Exception {
+        ImageTiler tiler = new ImageTiler(17);
+        ImagePoint imageSize = new ImagePoint(500, 300);
+        GeoPoint topLeft = tiler.getGeoPosition(new ImagePoint(0, 0));
+        GeoPoint bottomRight = tiler.getGeoPosition(imageSize);
+        GeoPoint topLeftMax = tiler
+            .getTile(new ImagePoint(0, 0))
+            .getTopLeftCoordinates();
+        GeoPoint bottomRightMax = tiler
+            .getTile(imageSize)
+            .getBottomRightCoordinates();
+        String expected = TilesPrintUtil.toJsonObj(
+            null,
+            "minZoom",
+            12,
+            "maxZoom",
+            18,
+            "area",
+            "["
+                + TilesPrintUtil.toJsonArray(
+                    null,
+                    topLeft.getLatitude(),
+                    topLeft.getLongitude())
+                + ","
+                + TilesPrintUtil.toJsonArray(
+                    null,
+                    bottomRight.getLatitude(),
+                    bottomRight.getLongitude())
+                + "]",
+            "areaMax",
+            "["
+                + TilesPrintUtil.toJsonArray(
+                    null,
+                    topLeftMax.getLatitude(),
+                    topLeftMax.getLongitude())
+                + ","
+                + TilesPrintUtil.toJsonArray(
+                    null,
+                    bottomRightMax.getLatitude(),
+                    bottomRightMax.getLongitude())
+                + "]",
+            "id",
+            "\"flower\"",
+            "width",
+            500);
+        String json = TilesPrintUtil.toJson(
+            imageSize,
+            tiler,
+            18,
+            12,
+            "id",
+            "\"flower\"",
+            "width",
+            500);
+        assertEquals(expected, json);
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.ubimix.commons.geo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ITileMetrics.Stage;
+
+public class TileMetricsTest extends TestCase {
+
+    public TileMetricsTest(String name) {
+        super(name);
+    }
+
+    public void test() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        IImageSource source = new StreamedImageSource(input);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ImageTilesGenerator generator = new ImageTilesGenerator(source);
+            generator.setImageZoomLevel(17);
+            generator.setScreenSize(new ImagePoint(200, 300));
+            generator.setExecutor(executor);
+            TileMetrics metrics = new TileMetrics();
+            generator.setMetrics(metrics);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TileStreamWriter writer = new ZipTileWriter(out);
+            writer.setMetrics(metrics);
+            generator.generateTiles(18, writer);
+            writer.close();
+
+            assertTrue(metrics.getCount(Stage.LOAD) > 0);
+            assertTrue(metrics.getAmount(Stage.LOAD) > 0);
+            assertTrue(metrics.getCount(Stage.RENDER) > 0);
+            assertTrue(metrics.getMaxQueueDepth(Stage.RENDER) > 0);
+            assertEquals(
+                writer.getEntriesNumber(),
+                metrics.getCount(Stage.WRITE));
+            // Blank tiles are encoded only once
+            assertTrue(metrics.getCount(Stage.ENCODE) <= metrics
+                .getCount(Stage.WRITE));
+            long written = 0;
+            for (int zoom = 16; zoom <= 18; zoom++) {
+                assertTrue(metrics.getZoomNanos(zoom) > 0);
+                written += metrics.getAmount(Stage.WRITE, zoom);
+            }
+            assertEquals(metrics.getAmount(Stage.WRITE), written);
+            assertTrue(metrics.getSummary().contains("RENDER"));
+
+            metrics.reset();
+            assertEquals(0, metrics.getCount(Stage.WRITE));
+        } finally {
+            executor.shutdown();
+            source.close();
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+public class TileResamplerTest extends TestCase {
+
+    private static final ITileResampler[] RESAMPLERS = {
+        GraphicsResampler.NEAREST,
+        GraphicsResampler.BILINEAR,
+        GraphicsResampler.BICUBIC,
+        AreaAverageResampler.INSTANCE,
+        LanczosResampler.LANCZOS3 };
+
+    public TileResamplerTest(String name) {
+        super(name);
+    }
+
+    private void assertColor(int expected, int argb) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (expected >>> shift) & 0xFF;
+            int b = (argb >>> shift) & 0xFF;
+            assertTrue(Integer.toHexString(argb), Math.abs(a - b) <= 1);
+        }
+    }
+
+    public void testAreaAverage() {
+        BufferedImage source = new BufferedImage(
+            64,
+            64,
+            BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                source.setRGB(x, y, ((x + y) & 1) == 0 ? 0xFFFFFF : 0);
+            }
+        }
+        BufferedImage target = new BufferedImage(
+            32,
+            32,
+            BufferedImage.TYPE_INT_RGB);
+        AreaAverageResampler.INSTANCE.resample(
+            source,
+            0,
+            0,
+            64,
+            64,
+            target,
+            0,
+            0,
+            32,
+            32);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                int gray = target.getRGB(x, y) & 0xFF;
+                assertTrue(gray == 127 || gray == 128);
+            }
+        }
+    }
+
+    public void testTransparentSource() {
+        BufferedImage source = new BufferedImage(
+            50,
+            50,
+            BufferedImage.TYPE_INT_ARGB);
+        BufferedImage target = new BufferedImage(
+            16,
+            16,
+            BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                target.setRGB(x, y, 0x336699);
+            }
+        }
+        for (ITileResampler resampler : RESAMPLERS) {
+            resampler.resample(source, 0, 0, 50, 50, target, 0, 0, 16, 16);
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    assertColor(0xFF336699, target.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+    public void testUniformSource() {
+        BufferedImage source = new BufferedImage(
+            100,
+            80,
+            BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 100; x++) {
+                source.setRGB(x, y, 0x336699);
+            }
+        }
+        for (ITileResampler resampler : RESAMPLERS) {
+            BufferedImage target = new BufferedImage(
+                32,
+                32,
+                BufferedImage.TYPE_INT_ARGB);
+            resampler.resample(source, 10, 5, 90, 75, target, 0, 0, 32, 32);
+            for (int y = 0; y < 32; y++) {
+                for (int x = 0; x < 32; x++) {
+                    assertColor(0xFF336699, target.getRGB(x, y));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.ubimix.commons.geo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+
+public class TileServerTest extends TestCase {
+
+    private static class DataCollector extends TileDataWriter {
+
+        private final Map<TileInfo, byte[]> fTiles = new HashMap<TileInfo, byte[]>();
+
+        @Override
+        protected synchronized void onTileData(
+            TileInfo tile,
+            TileFormat tileFormat,
+            byte[] data) throws IOException {
+            fTiles.put(tile, data);
+        }
+
+    }
+
+    public TileServerTest(String name) {
+        super(name);
+    }
+
+    private ImageTilesGenerator newGenerator() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImageSource source = new BufferedImageSource(
+            ImageTilesGenerator.readImage(input));
+        ImageTilesGenerator generator = new ImageTilesGenerator(source);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        generator.setTileFormat(TileFormat.PNG);
+        return generator;
+    }
+
+    private byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024 * 8];
+        int len;
+        while ((len = input.read(buf)) > 0) {
+            out.write(buf, 0, len);
+        }
+        input.close();
+        return out.toByteArray();
+    }
+
+    public void testCache() throws Exception {
+        TileCache cache = new TileCache(3 * (100 + 64));
+        for (int i = 0; i < 3; i++) {
+            cache.put(new TileInfo(0, i, 1), new byte[100]);
+        }
+        assertNotNull(cache.get(new TileInfo(0, 0, 1)));
+        cache.put(new TileInfo(0, 3, 1), new byte[100]);
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get(new TileInfo(0, 0, 1)));
+        assertNull(cache.get(new TileInfo(0, 1, 1)));
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        cache.put(new TileInfo(0, 4, 1), new byte[1000]);
+        assertNull(cache.get(new TileInfo(0, 4, 1)));
+    }
+
+    public void testCoalescing() throws Exception {
+        final AtomicInteger renders = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TileServer server = new TileServer(newGenerator(), 16, 18) {
+            @Override
+            protected byte[] renderTile(TileInfo tile) throws IOException {
+                renders.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException();
+                }
+                return super.renderTile(tile);
+            }
+        };
+        final TileInfo tile = new TileInfo(65536, 65536, 17);
+        int n = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(n);
+        try {
+            @SuppressWarnings("unchecked")
+            Future<byte[]>[] results = new Future[n];
+            for (int i = 0; i < n; i++) {
+                results[i] = executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        return server.getTileData(tile);
+                    }
+                });
+            }
+            started.await();
+            while (server.getCoalesced() < n - 1) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            byte[] data = results[0].get();
+            assertNotNull(data);
+            for (int i = 1; i < n; i++) {
+                assertSame(data, results[i].get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, renders.get());
+        assertEquals(1, server.getRenders());
+        assertNotNull(server.getTileData(tile));
+        assertEquals(1, renders.get());
+        assertEquals(1, server.getCache().getHits());
+    }
+
+    public void testServer() throws Exception {
+        ImageTilesGenerator generator = newGenerator();
+        DataCollector control = new DataCollector();
+        generator.generateTiles(18, control);
+
+        TileServer server = new TileServer(generator, 16, 18);
+        server.start(new InetSocketAddress("localhost", 0), null);
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            for (Map.Entry<TileInfo, byte[]> entry : control.fTiles.entrySet()) {
+                TileInfo tile = entry.getKey();
+                URL url = new URL(base + "/" + tile.getTilePath("png"));
+                byte[] data = read(url.openStream());
+                assertTrue(Arrays.equals(entry.getValue(), data));
+            }
+            assertEquals(control.fTiles.size(), server.getRenders());
+
+            URL url = new URL(base + "/15/0/0.png");
+            HttpURLConnection connection = (HttpURLConnection) url
+                .openConnection();
+            assertEquals(404, connection.getResponseCode());
+            connection.disconnect();
+
+            String stats = new String(read(new URL(base + "/stats")
+                .openStream()), "UTF-8");
+            assertTrue(stats.contains("renders=" + control.fTiles.size()));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+}
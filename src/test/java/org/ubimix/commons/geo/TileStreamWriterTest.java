@@ -0,0 +1,149 @@
+package org.ubimix.commons.geo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.geo.ImageTilesGenerator.TileFormat;
+import org.ubimix.commons.geo.ImageTilesGeneratorTest.TileCollector;
+
+public class TileStreamWriterTest extends TestCase {
+
+    public TileStreamWriterTest(String name) {
+        super(name);
+    }
+
+    private void assertTiles(
+        Map<TileInfo, int[]> expected,
+        Map<String, byte[]> entries) throws Exception {
+        assertEquals(expected.size(), entries.size());
+        for (Map.Entry<TileInfo, int[]> entry : expected.entrySet()) {
+            String path = "map/" + entry.getKey().getTilePath("png");
+            byte[] data = entries.get(path);
+            assertNotNull(path, data);
+            BufferedImage tileImage = ImageTilesGenerator
+                .readImage(new ByteArrayInputStream(data));
+            int w = tileImage.getWidth();
+            int h = tileImage.getHeight();
+            int[] pixels = tileImage.getRGB(0, 0, w, h, null, 0, w);
+            int[] control = entry.getValue();
+            for (int i = 0; i < pixels.length; i++) {
+                assertEquals(control[i], pixels[i]);
+            }
+        }
+    }
+
+    private Map<TileInfo, int[]> generateTiles(TileStreamWriter writer)
+        throws Exception {
+        InputStream input = getClass().getResourceAsStream("/flower.jpg");
+        BufferedImage image = ImageTilesGenerator.readImage(input);
+        ImageTilesGenerator generator = new ImageTilesGenerator(image);
+        generator.setImageZoomLevel(17);
+        generator.setScreenSize(new ImagePoint(200, 300));
+        generator.setTileFormat(TileFormat.PNG);
+        TileCollector control = new TileCollector();
+        generator.generateTiles(18, control);
+        writer.setPathPrefix("map/");
+        generator.generateTiles(18, writer);
+        writer.close();
+        assertEquals(control.getTiles().size(), writer.getEntriesNumber());
+        return control.getTiles();
+    }
+
+    public void testTar() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<TileInfo, int[]> tiles = generateTiles(new TarTileWriter(out));
+        byte[] tar = out.toByteArray();
+        assertEquals(0, tar.length % TarTileWriter.BLOCK_SIZE);
+
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tar));
+        byte[] header = new byte[TarTileWriter.BLOCK_SIZE];
+        while (true) {
+            in.readFully(header);
+            if (header[0] == 0) {
+                break;
+            }
+            assertEquals("ustar", new String(header, 257, 5, "US-ASCII"));
+            long checksum = 0;
+            for (int i = 0; i < header.length; i++) {
+                checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+            }
+            assertEquals(checksum, Long.parseLong(new String(
+                header,
+                148,
+                6,
+                "US-ASCII"), 8));
+            String name = new String(header, 0, 100, "US-ASCII").trim();
+            int size = Integer.parseInt(new String(
+                header,
+                124,
+                11,
+                "US-ASCII"), 8);
+            byte[] data = new byte[size];
+            in.readFully(data);
+            in.skipBytes((TarTileWriter.BLOCK_SIZE - size
+                % TarTileWriter.BLOCK_SIZE)
+                % TarTileWriter.BLOCK_SIZE);
+            entries.put(name, data);
+        }
+        assertTiles(tiles, entries);
+    }
+
+    public void testZip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<TileInfo, int[]> tiles = generateTiles(new ZipTileWriter(out));
+
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out
+            .toByteArray()));
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                data.write(buf, 0, len);
+            }
+            entries.put(entry.getName(), data.toByteArray());
+        }
+        assertTiles(tiles, entries);
+    }
+
+    /**
+     * Archives without ZIP64 extensions are limited to 65535 entries.
+     */
+    public void testZipLimit() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipTileWriter writer = new ZipTileWriter(out);
+        byte[] data = { 1 };
+        for (int i = 0; i < ZipTileWriter.MAX_ENTRIES; i++) {
+            writer.onTileData(new TileInfo(i, 0, 17), TileFormat.PNG, data);
+        }
+        try {
+            writer.onTileData(new TileInfo(0, 1, 17), TileFormat.PNG, data);
+            fail();
+        } catch (IOException e) {
+        }
+        writer.close();
+        assertEquals(ZipTileWriter.MAX_ENTRIES, writer.getEntriesNumber());
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out
+            .toByteArray()));
+        int count = 0;
+        while (in.getNextEntry() != null) {
+            count++;
+        }
+        assertEquals(ZipTileWriter.MAX_ENTRIES, count);
+    }
+
+}